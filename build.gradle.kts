@@ -19,6 +19,12 @@ tasks.test {
     useJUnitPlatform()
 }
 
+// String concatenations compiled to plain StringBuilder code: the invokedynamic bootstrap of
+// every concatenation shape costs tens of milliseconds at startup, paid by every short run
+tasks.withType<JavaCompile> {
+    options.compilerArgs.add("-XDstringConcat=inline")
+}
+
 application {
     // Tell Gradle what the main class is that it should run, this differs per project based on your packages and classes.
     mainClass.set("io.matita08.Main")
@@ -42,6 +48,106 @@ tasks {
     }
 }
 
+// ===== CLASS DATA SHARING =====
+// AppCDS archive of the distributed jar: a training run records every class it loads and later
+// launches map them from the archive instead of loading and verifying them one by one
+
+val distDir = layout.buildDirectory.dir("dist")
+val cdsJar = normJar.get().archiveFile.get().asFile
+val cdsArchiveFile = distDir.get().file(cdsJar.nameWithoutExtension + ".jsa").asFile
+// The archive only works with the JVM that created it and with the jar at the same path: the launchers
+// fall back to a normal start otherwise, retrain with "java -XX:ArchiveClassesAtExit=<jsa> -jar <jar> cdstrain <program>"
+val javaExecutable = File(System.getProperty("java.home"), "bin/java").absolutePath
+
+// Launchers using the archive when it's next to the jar
+val cdsLaunchers = tasks.register("cdsLaunchers") {
+    group = "distribution"
+    description = "Write the launchers of the jar, using the class data sharing archive when present"
+    dependsOn(normJar)
+    inputs.property("jar", cdsJar.name)
+    outputs.files(distDir.map { it.file("CPUSim.sh") }, distDir.map { it.file("CPUSim.bat") })
+
+    doLast {
+        val jar = cdsJar.name
+        val jsa = cdsArchiveFile.name
+        val sh = distDir.get().file("CPUSim.sh").asFile
+        sh.writeText("""
+            |#!/bin/sh
+            |# Starts the simulator, with the class data sharing archive made by the cdsArchive task when present
+            |DIR=${'$'}(cd "${'$'}(dirname "${'$'}0")" && pwd)
+            |JAVA=java
+            |[ -n "${'$'}JAVA_HOME" ] && JAVA="${'$'}JAVA_HOME/bin/java"
+            |if [ -f "${'$'}DIR/$jsa" ]; then
+            |   exec "${'$'}JAVA" "-XX:SharedArchiveFile=${'$'}DIR/$jsa" -Xshare:auto -Xlog:cds=off -Xlog:cds+dynamic=off -jar "${'$'}DIR/$jar" "${'$'}@"
+            |fi
+            |exec "${'$'}JAVA" -jar "${'$'}DIR/$jar" "${'$'}@"
+            |""".trimMargin())
+        sh.setExecutable(true)
+        distDir.get().file("CPUSim.bat").asFile.writeText("""
+            |@echo off
+            |rem Starts the simulator, with the class data sharing archive made by the cdsArchive task when present
+            |setlocal
+            |set "DIR=%~dp0"
+            |set "JAVA=java"
+            |if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+            |if exist "%DIR%$jsa" (
+            |   "%JAVA%" "-XX:SharedArchiveFile=%DIR%$jsa" -Xshare:auto -Xlog:cds=off -Xlog:cds+dynamic=off -jar "%DIR%$jar" %*
+            |) else (
+            |   "%JAVA%" -jar "%DIR%$jar" %*
+            |)
+            |""".trimMargin().replace("\n", "\r\n"))
+    }
+}
+
+// Training run: the headless runner on the sample program, the assembler and the GUI (or, without a display, every class)
+val cdsArchive = tasks.register<Exec>("cdsArchive") {
+    group = "distribution"
+    description = "Train and write the class data sharing archive of the jar"
+    dependsOn(normJar, cdsLaunchers)
+    inputs.file(cdsJar)
+    inputs.file("Esempio1.txt")
+    outputs.file(cdsArchiveFile)
+    workingDir = projectDir
+    doFirst {
+        cdsArchiveFile.delete()
+    }
+    commandLine(javaExecutable, "-XX:ArchiveClassesAtExit=" + cdsArchiveFile.absolutePath, "-Xlog:cds=error",
+        "-jar", cdsJar.absolutePath, "cdstrain", "Esempio1.txt", "-log", "warn")
+}
+
+// Startup with and without the archive, median wall time of repeated launches
+tasks.register("cdsReport") {
+    group = "distribution"
+    description = "Compare the startup time of the jar with and without the class data sharing archive"
+    dependsOn(cdsArchive)
+
+    doLast {
+        val jar = cdsJar.absolutePath
+        val jsa = cdsArchiveFile.absolutePath
+        val launches = 15
+        fun median(vararg command: String): Long {
+            val times = (1..launches).map {
+                val start = System.nanoTime()
+                val p = ProcessBuilder(*command).directory(projectDir).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start()
+                p.waitFor()
+                (System.nanoTime() - start) / 1_000_000
+            }.sorted()
+            return times[launches / 2]
+        }
+        val workloads = linkedMapOf(
+            "headless run of Esempio1.txt" to listOf("run", "Esempio1.txt"),
+            "loading every simulator class" to listOf("cdstrain", "Esempio1.txt", "-log", "warn")
+        )
+        println("=== Class Data Sharing Report ($launches launches, median) ===")
+        for ((name, args) in workloads) {
+            val plain = median(javaExecutable, "-Djava.awt.headless=true", "-jar", jar, *args.toTypedArray())
+            val shared = median(javaExecutable, "-Djava.awt.headless=true", "-XX:SharedArchiveFile=$jsa", "-Xshare:auto", "-Xlog:cds=off", "-jar", jar, *args.toTypedArray())
+            println("$name: $plain ms without the archive, $shared ms with it (${"%.1f".format(100.0 * (plain - shared) / plain)}% faster)")
+        }
+    }
+}
+
 // ===== JAVADOC CONFIGURATION =====
 // Enhanced Javadoc generation with professional settings
 
@@ -1,5 +1,10 @@
 package io.matita08;
 
+import io.matita08.data.IOChannels;
+import io.matita08.logic.InstructionTable;
+
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -12,7 +17,7 @@ import java.util.Locale;
  * <ul>
  *   <li><strong>Value Configuration:</strong> Maximum register values and display radix</li>
  *   <li><strong>Memory Configuration:</strong> Central memory size with validation</li>
- *   <li><strong>Architecture Configuration:</strong> Address size (1 or 2 words)</li>
+ *   <li><strong>Architecture Configuration:</strong> Address size (1 or more words)</li>
  *   <li><strong>Instruction Set Selection:</strong> Fully qualified operation enum class name</li>
  *   <li><strong>Help System:</strong> Built-in usage information and error handling</li>
  * </ul>
@@ -39,28 +44,71 @@ public final class Constants {
    
    /**
     * Size of memory addresses in single-value units.
-    * Must be either 1 (single-word addressing) or 2 (double-word addressing).
+    * Any number of words from 1 (single-word addressing) up, as long as the
+    * resulting address space fits in memory (see {@link #getAddressSpace()}).
     * This determines the dimension of DoubleValue in SingleValues and affects
     * the maximum addressable memory space. Default value is 2.
     * Configurable via -a or --address command-line options.
     */
-   private static int addressSize = 2;//USE ONLY 1 OR 2 (IT'S THE DIMENSION OF DOUBLEVALUE IN SINGLEVALUES)
+   private static int addressSize = 2;//IT'S THE DIMENSION OF DOUBLEVALUE IN SINGLEVALUES
    
    /**
     * Size of the central memory in addressable locations.
-    * Maximum allowed value is valueMax * addressSize to ensure proper addressing.
+    * Maximum allowed value is the address space, valueMax ^ addressSize, to ensure proper addressing.
     * The actual memory size is validated and clamped to valid ranges during initialization.
     * Default value is 32. Configurable via -mc command-line option.
     */
-   private static int MCSize = 32;//MAX ValueMax * addressSize
+   private static int MCSize = 32;//MAX ValueMax ^ addressSize
+   
+   /**
+    * Storage backend of the central memory, one of {@link #MEMORY_BACKENDS}.
+    * "paged" keeps the cells on the heap, allocated on first use, "offheap" keeps them
+    * in direct buffers, outside of the heap. Default is "paged".
+    * Configurable via -mem or --memory command-line options.
+    */
+   private static String memoryBackend = "paged";
    
    /**
-    * Fully qualified class name of the operation enumeration.
-    * This class must contain the CPU instruction definitions and is loaded
-    * dynamically using reflection. Default is "io.matita08.logic.Operations3Bit".
-    * Configurable via -o or --operations command-line options.
+    * Names of the available central memory backends.
     */
-   private static String operationEnumName = "io.matita08.logic.Operations3Bit";
+   public static final List<String> MEMORY_BACKENDS = List.of("paged", "offheap");
+   
+   /**
+    * Path of the file keeping the central memory, null to keep it in memory only.
+    * When set the memory is mapped from the file, which persists it together with the
+    * registers, see {@link io.matita08.data.MappedMemory}.
+    * Configurable via -mf or --memory-file command-line options.
+    */
+   private static String memoryFile = null;
+   
+   /**
+    * Path of the file providing the values read by the input instructions, "-" for the
+    * standard input, null to read the input buffer set by the numpad.
+    * Configurable via -in or --input command-line options, see {@link io.matita08.data.IOChannels}.
+    */
+   private static String inputFile = null;
+   
+   /**
+    * What an input instruction does once the input file has no values left.
+    * Default is Keep. Configurable via -ie or --input-empty command-line options.
+    */
+   private static IOChannels.WhenEmpty inputWhenEmpty = IOChannels.WhenEmpty.Keep;
+   
+   /**
+    * Path of the file receiving every value written by the output instructions, "-" for the
+    * standard output, null to keep only the last one in the output buffer.
+    * Configurable via -out or --output command-line options.
+    */
+   private static String outputFile = null;
+   
+   /**
+    * Name of the instruction set, one of the {@link InstructionTable#names()}.
+    * Instruction sets are discovered through {@link java.util.ServiceLoader}, see {@link io.matita08.logic.InstructionSet}.
+    * Default is "3bit". Configurable via -o or --operations command-line options,
+    * which also accept the class names used by older versions and the path of an instruction
+    * set file, see {@link io.matita08.logic.DefinedInstructionSet}.
+    */
+   private static String operationEnumName = "3bit";
    
    /**
     * Number base (radix) used for displaying values in the user interface.
@@ -69,6 +117,17 @@ public final class Constants {
     */
    private static int radix = 10;
    
+   /**
+    * Lowest level of the messages logged, see {@link Log}.
+    * Default is INFO. Configurable via -log or --log-level command-line options.
+    */
+   private static Log.Level logLevel = Log.Level.INFO;
+   
+   /**
+    * Largest supported address space, the size of the largest Java array.
+    */
+   private static final int MAX_ADDRESS_SPACE = Integer.MAX_VALUE - 8;
+   
    /**
     * Private constructor to prevent instantiation.
     * This class is designed to be used as a static utility class only.
@@ -95,14 +154,39 @@ public final class Constants {
     * <ul>
     *   <li>1 = Single-word addressing (simple architecture)</li>
     *   <li>2 = Double-word addressing (extended address space)</li>
+    *   <li>N = N-word addressing, least significant word first in memory</li>
     * </ul>
     *
-    * @return the address size (1 or 2)
+    * @return the address size, at least 1
     */
    public static int getAddressSize() {
       return addressSize;
    }
    
+   /**
+    * Gets the number of distinct addresses, valueMax ^ addressSize.
+    * This is the largest possible size of the central memory, and the value
+    * where the program counter wraps around.
+    *
+    * @return the size of the address space, saturated to the largest array size
+    */
+   public static int getAddressSpace() {
+      return (int)addressSpace(valueMax, addressSize);
+   }
+   
+   /**
+    * Computes valueMax ^ addressSize, saturated to the largest array size.
+    *
+    * @param valueMax the number of values of a word
+    * @param addressSize the words of an address
+    * @return the size of the address space
+    */
+   private static long addressSpace(int valueMax, int addressSize) {
+      long space = 1;
+      for (int i = 0; i < addressSize && space <= MAX_ADDRESS_SPACE; i++) space *= valueMax;
+      return Math.min(space, MAX_ADDRESS_SPACE);
+   }
+   
    /**
     * Gets the central memory size in addressable locations.
     * This determines the total number of memory locations available for
@@ -115,11 +199,66 @@ public final class Constants {
    }
    
    /**
-    * Gets the fully qualified class name of the operation enumeration.
-    * This class is dynamically loaded to provide the instruction set
-    * for the CPU simulator and must implement the expected operation interface.
+    * Gets the storage backend of the central memory.
+    *
+    * @return the name of the backend, one of {@link #MEMORY_BACKENDS}
+    * @see io.matita08.data.Memory#create(int)
+    */
+   public static String getMemoryBackend() {
+      return memoryBackend;
+   }
+   
+   /**
+    * Gets the file keeping the central memory.
+    *
+    * @return the path of the file, or null if the memory isn't persisted
+    */
+   public static String getMemoryFile() {
+      return memoryFile;
+   }
+   
+   /**
+    * Gets the file providing the values read by the input instructions.
+    *
+    * @return the path of the file, "-" for the standard input, or null if none
+    */
+   public static String getInputFile() {
+      return inputFile;
+   }
+   
+   /**
+    * Gets what an input instruction does once the input file has no values left.
+    *
+    * @return the policy
+    */
+   public static IOChannels.WhenEmpty getInputWhenEmpty() {
+      return inputWhenEmpty;
+   }
+   
+   /**
+    * Gets the file receiving the values written by the output instructions.
+    *
+    * @return the path of the file, "-" for the standard output, or null if none
+    */
+   public static String getOutputFile() {
+      return outputFile;
+   }
+   
+   /**
+    * Gets the lowest level of the messages logged.
+    *
+    * @return the log level
+    */
+   public static Log.Level getLogLevel() {
+      return logLevel;
+   }
+   
+   /**
+    * Gets the name of the instruction set.
+    * Its table is built by {@link InstructionTable#active()} and provides the operations
+    * of the CPU simulator.
     *
-    * @return the fully qualified operation enum class name
+    * @return the name of the active instruction set
     */
    public static String getOperationEnumName() {
       return operationEnumName;
@@ -144,10 +283,16 @@ public final class Constants {
     * <p>Supported command-line options:</p>
     * <ul>
     *   <li><strong>-r, --radix VALUE:</strong> Set display number base (default: 10)</li>
-    *   <li><strong>-a, --address SIZE:</strong> Set address size 1 or 2 (default: 2)</li>
-    *   <li><strong>-o, --operations CLASS:</strong> Set operation enum class name</li>
+    *   <li><strong>-a, --address SIZE:</strong> Set address size in words, 1 or more (default: 2)</li>
+    *   <li><strong>-o, --operations NAME:</strong> Set the instruction set (3bit, 4bit, or the path of an instruction set file)</li>
     *   <li><strong>-s, --size VALUE:</strong> Set maximum register value (default: 8)</li>
-    *   <li><strong>-mc SIZE:</strong> Set central memory size (default: 32, max: valueMax * addressSize)</li>
+    *   <li><strong>-mc SIZE:</strong> Set central memory size (default: 32, max: valueMax ^ addressSize)</li>
+    *   <li><strong>-mem, --memory BACKEND:</strong> Set central memory storage, paged or offheap (default: paged)</li>
+    *   <li><strong>-mf, --memory-file PATH:</strong> Keep the central memory and the registers in a file, reopened on the next run</li>
+    *   <li><strong>-in, --input PATH:</strong> Read the inputs from a file, - for the standard input</li>
+    *   <li><strong>-ie, --input-empty POLICY:</strong> Input once the file is empty: keep, undefined or wait (default: keep)</li>
+    *   <li><strong>-out, --output PATH:</strong> Write every output to a file, - for the standard output</li>
+    *   <li><strong>-log, --log-level LEVEL:</strong> Set the lowest level logged: debug, info, warn or error (default: info)</li>
     *   <li><strong>-h, --help:</strong> Display usage information and exit</li>
     * </ul>
     *
@@ -190,24 +335,55 @@ public final class Constants {
                case "mc":
                   try {
                      MCSize = Integer.parseInt(parser.next());
-                     if(MCSize > (valueMax * addressSize)) {
-                        MCSize = valueMax * addressSize;
-                        System.err.println("The passed value for the size of the MC can be 1 - (valueMax * addressSize)");
-                     }
                      if(MCSize < 1) {
                         MCSize = 1;
-                        System.err.println("The passed value for the size of the MC can be 1 - (valueMax * addressSize)");
+                        System.err.println("The passed value for the size of the MC can be 1 - (valueMax ^ addressSize)");
                      }
                   } catch (NumberFormatException e) {
                      throw new ParserException("The passed value \"" + parser.cur() + "\" is not a number", e);
                   }
                   break;
+               case "mem":
+               case "memory":
+                  String backend = parser.next().toLowerCase(Locale.ROOT);
+                  if(!MEMORY_BACKENDS.contains(backend)) throw new ParserException("The memory backend must be one of " + MEMORY_BACKENDS, null);
+                  memoryBackend = backend;
+                  break;
+               case "mf":
+               case "memory-file":
+                  memoryFile = parser.next();
+                  break;
+               case "in":
+               case "input":
+                  inputFile = parser.next();
+                  break;
+               case "ie":
+               case "input-empty":
+                  String policy = parser.next();
+                  try {
+                     inputWhenEmpty = IOChannels.WhenEmpty.valueOf(policy.substring(0, 1).toUpperCase(Locale.ROOT) + policy.substring(1).toLowerCase(Locale.ROOT));
+                  } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+                     throw new ParserException("The input policy must be one of " + Arrays.toString(IOChannels.WhenEmpty.values()), e);
+                  }
+                  break;
+               case "out":
+               case "output":
+                  outputFile = parser.next();
+                  break;
+               case "log":
+               case "log-level":
+                  try {
+                     logLevel = Log.Level.valueOf(parser.next().toUpperCase(Locale.ROOT));
+                  } catch (IllegalArgumentException e) {
+                     throw new ParserException("The log level must be one of " + Arrays.toString(Log.Level.values()), e);
+                  }
+                  break;
                case "a":
                case "address":
                   try {
                      int newAddressSize = Integer.parseInt(parser.next());
-                     if(newAddressSize < 0 || newAddressSize > 2) {
-                        System.err.println("The address size must be either 1 or 2");
+                     if(newAddressSize < 1) {
+                        System.err.println("The address size must be at least 1");
                      } else addressSize = newAddressSize;
                   } catch (NumberFormatException e) {
                      throw new ParserException("The passed value \"" + parser.cur() + "\" is not a number", e);
@@ -215,7 +391,11 @@ public final class Constants {
                   break;
                case "o":
                case "operations":
-                  operationEnumName = parser.next();
+                  try {
+                     operationEnumName = InstructionTable.canonicalName(parser.next());
+                  } catch (IllegalArgumentException e) {
+                     throw new ParserException(e.getMessage(), e);
+                  }
                   break;
                case "s":
                case "size":
@@ -248,10 +428,30 @@ public final class Constants {
          helpMenu();
          return true;
       }
+      //The MC size is checked once every option is known, so their order doesn't matter
+      if(MCSize > getAddressSpace()) {
+         MCSize = getAddressSpace();
+         System.err.println("The passed value for the size of the MC can be 1 - (valueMax ^ addressSize), it has been set to " + MCSize);
+      }
       //I do recognize only now using a switch was a bad idea...
       return false;
    }
    
+   /**
+    * Parses the arguments of a command-line tool (see {@link Main#main(String[])}).
+    * Tools take their own positional arguments first, followed by the usual
+    * simulator options, which are handed to {@link #init(String[])}.
+    *
+    * @param args the tool arguments, without the tool name
+    * @return the positional arguments, or null if the options requested help or were invalid
+    */
+   public static String[] initTool(String[] args) {
+      int split = 0;
+      while(split < args.length && !args[split].startsWith("-")) split++;
+      if(init(Arrays.copyOfRange(args, split, args.length))) return null;
+      return Arrays.copyOf(args, split);
+   }
+   
    /**
     * Displays usage information and available command-line options to standard output.
     * This method provides comprehensive help information including option descriptions,
@@ -260,11 +460,29 @@ public final class Constants {
    private static void helpMenu() {
       System.out.println("Available options:");
       System.out.println(" -r --radix: Change the radix used to display, will default to 10 if not set or greater than " + Character.MAX_RADIX);
-      System.out.println(" -a --address: either 1 or 2 (default), the size of an address relative to a register size");
-      System.out.println(" -o --operations: the fully qualified name of the class used as instruction set. Defaults to \"io.matita08.logic.Operations3Bit\"");
+      System.out.println(" -a --address: 1, 2 (default) or more, the size of an address relative to a register size");
+      System.out.println(" -o --operations: the name of the instruction set, one of " + InstructionTable.names() + ", or the path of an instruction set file. Defaults to \"3bit\"");
       System.out.println(" -s --size: The size of a register. defaults to 8. please keep it low, or you may experience issue");
-      System.out.println(" -mc: the size of the Central Memory can be 1 - (size * address)");
+      System.out.println(" -mc: the size of the Central Memory can be 1 - (size ^ address)");
+      System.out.println(" -mem --memory: paged (default) keeps the Central Memory on the heap, offheap keeps it outside, for very large memories");
+      System.out.println(" -mf --memory-file: keeps the Central Memory and the registers in the given file, to continue the run after a restart");
+      System.out.println(" -in --input: reads the inputs from the given file, or from the standard input if -, instead of the numpad");
+      System.out.println(" -ie --input-empty: what an input does once the file is empty, keep (default) the buffer, read undefined or wait");
+      System.out.println(" -out --output: writes every output to the given file, or to the standard output if -");
+      System.out.println(" -log --log-level: the lowest level of the messages logged, debug, info (default), warn or error");
       System.out.println(" -h --help: Shows this guide");
+      System.out.println("Available tools (pass the tool name first, then its arguments and the options above):");
+      System.out.println(" explore <program> <maxInputs> [keys] [expected]: runs the program for every input sequence up to maxInputs inputs, checking the output against an expression of the inputs like (i0 + i1) % 8");
+      System.out.println(" asm <source> [output]: assembles a source file into a program file");
+      System.out.println(" image <program> [output]: converts a program file into a binary memory image");
+      System.out.println(" membench [passes]: compares the Central Memory backends on the configured size");
+      System.out.println(" run <program> [maxInstructions] [input]: runs the program without the GUI, printing its outputs");
+      System.out.println(" cdstrain <program>: training run of the class data sharing archive, see the cdsArchive Gradle task");
+      System.out.println(" grade <vectors> <program>...: checks the programs against a file of input and expected output vectors");
+      System.out.println(" lockstep <program> [maxInstructions] [inputs]: compares the reference engine with the batch machine after every instruction");
+      System.out.println(" fuzz <programs> [seed] [outputFolder]: runs random programs, saving the minimised ones that crash, diverge or never end");
+      System.out.println(" superopt <vectors> [maxInstructions] [length|cycles] [output]: searches the shortest or fastest 3bit program meeting the vectors");
+      System.out.println(" serve [port] [workers] [queue] [maxCycles]: local HTTP service running the programs posted to /run, statistics on /stats");
    }
    
    /**
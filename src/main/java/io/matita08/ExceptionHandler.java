@@ -10,7 +10,7 @@ import java.util.Locale;
  *
  * <p>The handler performs the following actions when an uncaught exception occurs:</p>
  * <ul>
- *   <li>Logs the exception to both console and a persistent log file</li>
+ *   <li>Logs the exception to both console and a persistent log file, through {@link Log}</li>
  *   <li>Identifies whether the exception occurred in the Swing Event Dispatch Thread</li>
  *   <li>Provides different handling for GUI thread vs background thread exceptions</li>
  *   <li>Terminates the application if critical GUI thread exceptions occur</li>
@@ -25,27 +25,27 @@ import java.util.Locale;
  */
 public class ExceptionHandler implements Thread.UncaughtExceptionHandler {
    /**
-    * The log file where exceptions are persistently recorded.
-    * Created in the platform-appropriate application data directory.
+    * Holder of the log file, so the file is only created the first time something is logged.
     */
-   private static final File logFile = createLogFile();
-   
-   /**
-    * Print stream for writing to the log file.
-    * Provides formatted output for exception logging.
-    */
-   public static final PrintStream logStream;
-   
-   /**
-    * Static initialization block that sets up the log file print stream.
-    *
-    * @throws RuntimeException if the log file cannot be opened for writing
-    */
-   static {
-      try {
-         logStream = new PrintStream(logFile);
-      } catch (FileNotFoundException e) {
-         throw new RuntimeException(e);
+   private static final class LogFile {
+      /**
+       * Print stream for writing to the log file, created in the platform-appropriate application data directory.
+       * If the file can't be created the messages are only shown on the console.
+       */
+      static final PrintStream stream = open();
+      
+      /**
+       * Opens the log file.
+       *
+       * @return the stream writing the log file, or a stream discarding everything if it can't be created
+       */
+      private static PrintStream open() {
+         try {
+            return new PrintStream(createLogFile());
+         } catch (IOException | RuntimeException e) {
+            System.err.println("Unable to create the log file: " + e.getMessage());
+            return new PrintStream(OutputStream.nullOutputStream());
+         }
       }
    }
    
@@ -71,14 +71,14 @@ public class ExceptionHandler implements Thread.UncaughtExceptionHandler {
     * <p>For Swing EDT exceptions:</p>
     * <ul>
     *   <li>Logs a specific message indicating GUI thread failure</li>
-    *   <li>Prints stack trace to both console and log file</li>
+    *   <li>Logs the stack trace to both console and log file</li>
     *   <li>Terminates the application with exit code 3</li>
     * </ul>
     *
     * <p>For other thread exceptions:</p>
     * <ul>
     *   <li>Logs the thread information</li>
-    *   <li>Prints stack trace to both console and log file</li>
+    *   <li>Logs the stack trace to both console and log file</li>
     *   <li>Allows the application to continue running</li>
     * </ul>
     *
@@ -87,16 +87,19 @@ public class ExceptionHandler implements Thread.UncaughtExceptionHandler {
     */
    @Override
    public void uncaughtException(Thread t, Throwable e) {
-      if(isSwingEDT) {
-         System.out.println("An exception occurred in the swing event dispatching thread, exiting");
-         logStream.println("An exception occurred in the swing event dispatching thread");
-      } else {
-         System.out.println("An exception occurred in the thread " + t.getName() + " " + t);
-         logStream.println("An exception occurred in the thread " + t.getName() + " " + t);
-      }
-      e.printStackTrace(System.err);
-      e.printStackTrace(logStream);
-      if(isSwingEDT) System.exit(3);
+      if(isSwingEDT) Log.error("An exception occurred in the swing event dispatching thread, exiting", e);
+      else Log.error("An exception occurred in the thread " + t.getName() + " " + t, e);
+      if(isSwingEDT) System.exit(3);  //The shutdown hook of the log writes the exception before exiting
+   }
+   
+   /**
+    * Gets the print stream writing the log file, creating the file on the first call.
+    * Short runs that never log anything don't leave empty log files behind.
+    *
+    * @return the log file stream
+    */
+   public static PrintStream logStream() {
+      return LogFile.stream;
    }
    
    /**
@@ -107,14 +110,14 @@ public class ExceptionHandler implements Thread.UncaughtExceptionHandler {
     * <ul>
     *   <li><strong>Windows:</strong> %APPDATA%\matita008\CPUSim\Logs\</li>
     *   <li><strong>macOS:</strong> ~/Library/Application Support/matita008/CPUSim/Logs/</li>
-    *   <li><strong>Linux/Other:</strong> ~/.matita008/CPUSim/Logs/</li>
+    *   <li><strong>Linux/Other:</strong> ~/matita008/CPUSim/Logs/</li>
     * </ul>
     *
     * @return a File object representing the created log file
     * @throws RuntimeException if the log file cannot be created
     */
    private static File createLogFile() {
-      File logFolder = new File(appFolder() + "\\matita008\\CPUSim\\Logs");
+      File logFolder = new File(appFolder(), "matita008" + File.separator + "CPUSim" + File.separator + "Logs");
       if(!logFolder.exists()) logFolder.mkdirs();
       File out = new File(logFolder, "log" + System.currentTimeMillis() + ".txt");
       try {
@@ -0,0 +1,229 @@
+package io.matita08;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder events of the simulator.
+ * <p>
+ * The events show where the time of a slow run goes: the phases of the reference engine,
+ * batches of executed instructions, program loads, GUI refreshes and the background threads
+ * started by {@link Utils#runOnNewThread(Runnable)}. They are only recorded while a recording
+ * is running, for example after {@code jcmd <pid> JFR.start duration=60s filename=run.jfr},
+ * and are found in the "CPU Simulator" category of JDK Mission Control.
+ * </p>
+ *
+ * <p>
+ * Loading the first event class initializes the metadata of the recorder, which takes longer
+ * than a whole short run: events are only created once the recorder was initialized, by a
+ * recording started on the command line or through {@code jcmd}, see {@link #isActive()}.
+ * Before that the cost is a single check, afterwards a disabled event is never committed.
+ * </p>
+ *
+ * <p>Instructions are aggregated in batches of {@value #BATCH} and phases are only recorded
+ * when they take longer than 1 ms: both can be changed with the usual event settings, like
+ * {@code io.matita08.Phase#threshold}.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class FlightEvents {
+   
+   /**
+    * Number of instructions aggregated in an {@link InstructionBatch} event.
+    */
+   public static final int BATCH = 4096;
+   
+   /**
+    * Batch of the instructions being executed by the reference engine, null between batches.
+    * Only touched by the thread stepping the CPU.
+    */
+   private static InstructionBatch batch;
+   
+   /**
+    * Cycles and instructions of the current batch.
+    */
+   private static int batchCycles, batchSize;
+   
+   /**
+    * Private constructor to prevent instantiation.
+    */
+   private FlightEvents() {}
+   
+   /**
+    * A phase run by the reference engine.
+    */
+   @Name("io.matita08.Phase")
+   @Label("Phase")
+   @Category("CPU Simulator")
+   @Description("A fetch, decode or execute phase of the reference engine")
+   @Threshold("1 ms")
+   @StackTrace(false)
+   public static final class PhaseRun extends Event {
+      /**
+       * The phase run.
+       */
+      @Label("Phase")
+      public String phase;
+      
+      /**
+       * The operation being executed, empty until it's decoded.
+       */
+      @Label("Operation")
+      public String operation;
+      
+      /**
+       * The remaining cycles of the operation.
+       */
+      @Label("Cycle")
+      public int cycle;
+   }
+   
+   /**
+    * A batch of instructions executed by the reference engine.
+    */
+   @Name("io.matita08.InstructionBatch")
+   @Label("Instruction Batch")
+   @Category("CPU Simulator")
+   @Description("Instructions executed by the reference engine, aggregated to keep the recording small")
+   @StackTrace(false)
+   public static final class InstructionBatch extends Event {
+      /**
+       * Instructions executed.
+       */
+      @Label("Instructions")
+      public int instructions;
+      
+      /**
+       * Clock cycles executed.
+       */
+      @Label("Cycles")
+      public int cycles;
+   }
+   
+   /**
+    * A program loaded through the {@link io.matita08.program.ImageCache}.
+    */
+   @Name("io.matita08.ProgramLoad")
+   @Label("Program Load")
+   @Category("CPU Simulator")
+   @Description("A program file read, parsed or assembled, or found in the image cache")
+   public static final class ProgramLoad extends Event {
+      /**
+       * The program file.
+       */
+      @Label("File")
+      public String file;
+      
+      /**
+       * Number of cells of the image, 0 if the load failed.
+       */
+      @Label("Cells")
+      public int cells;
+      
+      /**
+       * Whether the image was found in the cache.
+       */
+      @Label("Cached")
+      public boolean cached;
+   }
+   
+   /**
+    * A refresh of the GUI.
+    */
+   @Name("io.matita08.GuiRefresh")
+   @Label("GUI Refresh")
+   @Category("CPU Simulator")
+   @Description("A batch of updates of the GUI, run on the swing thread")
+   @StackTrace(false)
+   public static final class GuiRefresh extends Event {
+      /**
+       * Time the refresh waited for the swing thread.
+       */
+      @Label("Queued")
+      @Timespan(Timespan.NANOSECONDS)
+      public long queued;
+      
+      /**
+       * Whether the control unit was updated.
+       */
+      @Label("Control Unit")
+      public boolean controlUnit;
+      
+      /**
+       * Number of memory cells updated.
+       */
+      @Label("Memory Cells")
+      public int memoryCells;
+      
+      /**
+       * Whether the registers were updated.
+       */
+      @Label("Registers")
+      public boolean registers;
+      
+      /**
+       * Whether the ALU was updated.
+       */
+      @Label("ALU")
+      public boolean alu;
+      
+      /**
+       * Whether the I/O buffers were updated.
+       */
+      @Label("Buffers")
+      public boolean buffers;
+   }
+   
+   /**
+    * A task run on a new thread by {@link Utils#runOnNewThread(Runnable)}, from the request to its end.
+    */
+   @Name("io.matita08.BackgroundTask")
+   @Label("Background Task")
+   @Category("CPU Simulator")
+   @Description("A task run on a new thread, including the time taken to create and start it")
+   public static final class BackgroundTask extends Event {
+      /**
+       * Time from the request to the start of the task on the new thread.
+       */
+      @Label("Start Delay")
+      @Timespan(Timespan.NANOSECONDS)
+      public long startDelay;
+   }
+   
+   /**
+    * Checks if events should be created.
+    *
+    * @return true once the flight recorder was initialized
+    */
+   public static boolean isActive() {
+      return FlightRecorder.isInitialized();
+   }
+   
+   /**
+    * Counts a cycle of the reference engine, starting a new batch if needed.
+    */
+   public static void cycle() {
+      if(batch == null) {
+         if(!isActive()) return;
+         batch = new InstructionBatch();
+         batch.begin();
+      }
+      batchCycles++;
+   }
+   
+   /**
+    * Counts an instruction completed by the reference engine, committing the batch
+    * when it's full or when the CPU halts.
+    *
+    * @param halted whether the instruction stopped the CPU
+    */
+   public static void instruction(boolean halted) {
+      if(batch == null || ++batchSize < BATCH && !halted) return;
+      batch.instructions = batchSize;
+      batch.cycles = batchCycles;
+      batch.commit();
+      batch = null;
+      batchSize = batchCycles = 0;
+   }
+}
@@ -0,0 +1,88 @@
+package io.matita08.GUI;
+
+import io.matita08.Constants;
+import io.matita08.data.Registers;
+import io.matita08.program.Disassembler;
+import io.matita08.value.Value;
+
+import javax.swing.*;
+
+/**
+ * List model showing the central memory decoded into instructions, one row per address.
+ * <p>
+ * The model is backed by a {@link Disassembler}, so a write only decodes the instructions
+ * it touches and the text of a row is only produced when the {@link JList} paints it:
+ * the cost of an update doesn't depend on the size of the memory.
+ * The row of the instruction pointed by the program counter is marked with an arrow.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+final class Disassembly extends AbstractListModel<String> {
+   
+   /**
+    * Serialization version, the model is never serialized.
+    */
+   private static final long serialVersionUID = 1L;
+   
+   /**
+    * The disassembler, reading the central memory.
+    */
+   private final Disassembler dis = new Disassembler(i -> Value.toCell(Registers.getMC(i)), Constants.getMCSize());
+   
+   /**
+    * Address of the instruction marked as current, -1 if none.
+    */
+   private int current = -1;
+   
+   /**
+    * Creates a list showing this model.
+    * Every row has the same height, so the list never measures rows it doesn't show.
+    *
+    * @return the list
+    */
+   JList<String> createList() {
+      JList<String> list = new JList<>(this);
+      list.setPrototypeCellValue("0000 -> load 0000");
+      list.setFont(new java.awt.Font(java.awt.Font.MONOSPACED, java.awt.Font.PLAIN, list.getFont().getSize()));
+      return list;
+   }
+   
+   /**
+    * Decodes again the instructions touched by a write to the central memory.
+    *
+    * @param dirty the first and last written address, as given by {@link Registers#takeDirtyMC()}
+    */
+   void memoryChanged(int[] dirty) {
+      int[] changed = dis.update(dirty[0], dirty[1]);
+      if(changed != null) fireContentsChanged(this, changed[0], changed[1]);
+   }
+   
+   /**
+    * Moves the current instruction mark.
+    *
+    * @param pc the program counter
+    */
+   void setCurrent(int pc) {
+      int next = pc >= 0 && pc < dis.size() ? dis.instructionAt(pc) : -1;
+      if(next == current) return;
+      int old = current;
+      current = next;
+      if(old >= 0) fireContentsChanged(this, old, old);
+      if(next >= 0) fireContentsChanged(this, next, next);
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public int getSize() {
+      return dis.size();
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public String getElementAt(int index) {
+      return (index == current ? "> " : "  ") + index + " -> " + dis.describe(index);
+   }
+}
@@ -1,7 +1,7 @@
 package io.matita08.GUI;
 
 import io.matita08.*;
-import io.matita08.GUI.listeners.Load;
+import io.matita08.GUI.listeners.*;
 import io.matita08.data.*;
 import io.matita08.logic.*;
 import io.matita08.value.*;
@@ -46,6 +46,11 @@ public class Display extends JFrame {
     */
    private static Thread swingThread;
    
+   /**
+    * Whether an update is waiting for the swing thread, see {@link #update()}
+    */
+   private static final java.util.concurrent.atomic.AtomicBoolean updatePending = new java.util.concurrent.atomic.AtomicBoolean();
+   
    //JPanels attached directly to the main panel
    /**
     * Main container panel using GridBagLayout for component organization.
@@ -176,6 +181,11 @@ public class Display extends JFrame {
     */
    ArrayList<JLabel> MCData = new ArrayList<>(Constants.getMCSize());
    
+   /**
+    * Model of the disassembly view, decoding the central memory into instructions.
+    */
+   Disassembly disassembly;
+   
    /**
     * Private constructor implementing the Singleton pattern.
     * Initializes the main window, creates all GUI components, and sets up the layout.
@@ -188,6 +198,12 @@ public class Display extends JFrame {
       this.add(main);
       this.pack();
       this.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+      this.addWindowListener(new java.awt.event.WindowAdapter() {
+         @Override
+         public void windowOpened(java.awt.event.WindowEvent e) {
+            Main.startupEvent("first frame shown");
+         }
+      });
       this.setVisible(true);
       swingThread = Thread.currentThread();
       //Arrays.stream(main.getComponents()).forEach(e ->{System.out.println(" x: " + e.getX() + ", " + e.getWidth() + ", y: " + e.getY() + ", " + e.getHeight());});
@@ -323,6 +339,18 @@ public class Display extends JFrame {
       createMCComponents();
       main.add(scroll, gridPosition);
       
+      border = titleBorder("Disassembly");
+      disassembly = new Disassembly();
+      scroll = new JScrollPane(disassembly.createList(), ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+      scroll.setBorder(border);
+      scroll.setPreferredSize(new Dimension(170, 250));
+      scroll.setMinimumSize(new Dimension(75, 50));
+      gridPosition.gridx = 8;      //start column
+      gridPosition.gridy = 0;      //start row
+      gridPosition.gridheight = 6; //row span
+      gridPosition.gridwidth = 2;  //column span
+      main.add(scroll, gridPosition);
+      
       border = titleBorder("Control Panel");
       controlPanel = new JPanel();
       controlPanel.setBorder(border);
@@ -539,7 +567,7 @@ public class Display extends JFrame {
    
    /**
     * Creates control panel buttons for simulation operations.
-    * Includes step execution, file loading, and update buttons.
+    * Includes step execution, file loading, image export and update buttons.
     */
    //Create the buttons in the bottom left GUI
    private void createControlPanelComponents() {
@@ -551,6 +579,10 @@ public class Display extends JFrame {
       controlPanel.add(load);
       load.addActionListener(new Load());
       
+      JButton export = new JButton("Export image");
+      export.addActionListener(new Export());
+      controlPanel.add(export);
+      
       JButton update = new JButton("Update");
       update.addActionListener((e) -> Display.update());
       controlPanel.add(update);
@@ -626,16 +658,22 @@ public class Display extends JFrame {
    
    /**
     * Update the GUI
-    * If the current thread is the swing event thread it will get run immediately, else it will wait for the swing thread to execute the update
+    * If the current thread is the swing event thread it will get run immediately, else it will wait for the swing thread to execute the update.
+    * If an update is already waiting for the swing thread this one is dropped, as the waiting one will show the latest state anyway
     * @see #swingThread
     */
    public static void update() {
       try {
-         if(swingThread == Thread.currentThread()) instance.updateImpl();
-         else SwingUtilities.invokeAndWait(()->instance.updateImpl());
+         long requested = System.nanoTime();
+         if(swingThread == Thread.currentThread()) instance.updateImpl(requested);
+         else if(!updatePending.compareAndSet(false, true)) Metrics.droppedFrame();
+         else SwingUtilities.invokeAndWait(() -> {
+            updatePending.set(false);  //Cleared before reading the state, later changes queue a new update
+            instance.updateImpl(requested);
+         });
       } catch (InterruptedException | InvocationTargetException ex) {
-         //noinspection CallToPrintStackTrace TODO: ?
-         ex.printStackTrace();
+         updatePending.set(false);
+         Log.error("Unable to update the GUI", ex);
       }
    }
    
@@ -643,13 +681,36 @@ public class Display extends JFrame {
     * Internal implementation of GUI updates based on modification flags.
     * This method selectively updates different sections of the GUI based on
     * which components have been modified since the last update.
+    *
+    * @param requested the time the update was requested, as given by {@link System#nanoTime()}
     */
-   private void updateImpl() {
+   private void updateImpl(long requested) {
+      Metrics.uiRefresh();
+      long queued = System.nanoTime() - requested;
+      FlightEvents.GuiRefresh event = FlightEvents.isActive() ? new FlightEvents.GuiRefresh() : null;
+      if(event != null) event.begin();
       if(Execution.stepped) instance.updateCU();
-      if((Registers.modFlag & 1) == 1) instance.updateMC();
+      int cells = 0;
+      if((Registers.modFlag & 1) == 1) {
+         int[] dirty = Registers.takeDirtyMC();
+         if(dirty != null) {
+            instance.updateMC(dirty[0], dirty[1]);
+            disassembly.memoryChanged(dirty);
+            cells = dirty[1] - dirty[0] + 1;
+         }
+      }
       if((Registers.modFlag & 2) == 2) instance.updatePR();
       if((Registers.modFlag & 4) == 4) instance.updateALU();
       if((Registers.modFlag & 8) == 8) instance.updateBuf();
+      if(event != null && event.shouldCommit()) {
+         event.queued = queued;
+         event.controlUnit = Execution.stepped;
+         event.memoryCells = cells;
+         event.registers = (Registers.modFlag & 2) == 2;
+         event.alu = (Registers.modFlag & 4) == 4;
+         event.buffers = (Registers.modFlag & 8) == 8;
+         event.commit();
+      }
    }
    
    /**
@@ -673,9 +734,12 @@ public class Display extends JFrame {
    
    /**
     * Function to update the visual part of the Central Memory
+    *
+    * @param low the first address to update
+    * @param high the last address to update
     */
-   private void updateMC() {
-      for (int i = 0; i < Constants.getMCSize(); i++) {
+   private void updateMC(int low, int high) {
+      for (int i = low; i <= Math.min(high, Constants.getMCSize() - 1); i++) {
          Value v = Registers.getMC(i);
          String s;
          if(v instanceof UndefinedSingleValue) s = DoubleValue.unset();
@@ -699,7 +763,7 @@ public class Display extends JFrame {
       Pointer.setText(Registers.getPointer().toString());
       MDR.setText(Registers.getMDR().toString());
       IR.setText(Registers.getIr().toString());
-      
+      disassembly.setCurrent(Registers.pc().get());
    }
    
    /**
@@ -0,0 +1,57 @@
+package io.matita08.GUI.listeners;
+
+import io.matita08.GUI.Display;
+import io.matita08.Log;
+import io.matita08.Utils;
+import io.matita08.data.Registers;
+import io.matita08.program.MemoryImage;
+
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import java.awt.event.*;
+import java.io.*;
+
+/**
+ * Action listener that exports the central memory to a binary {@link MemoryImage}.
+ * The memory is captured when the button is pressed and written on a background
+ * thread, so the image reflects the state the user was looking at.
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public class Export implements ActionListener {
+   
+   /**
+    * File chooser component for selecting the destination of the image.
+    */
+   JFileChooser fc;
+   
+   /**
+    * Constructs a new Export action listener with configured file chooser.
+    */
+   public Export() {
+      fc = new JFileChooser(System.getProperty("user.dir"));
+      fc.setFileFilter(new FileNameExtensionFilter("Memory image (" + MemoryImage.EXTENSION + ")", MemoryImage.EXTENSION.substring(1)));
+   }
+   
+   /**
+    * Asks for the destination file and writes the image of the central memory to it.
+    *
+    * @param e the action event that triggered this method
+    */
+   @Override
+   public void actionPerformed(ActionEvent e) {
+      MemoryImage img = new MemoryImage(Registers.dumpMC());
+      if(fc.showSaveDialog(Display.instance) != JFileChooser.APPROVE_OPTION) return;
+      File f = fc.getSelectedFile();
+      File dest = MemoryImage.isImage(f) ? f : new File(f.getPath() + MemoryImage.EXTENSION);
+      Utils.runOnNewThread(() -> {
+         try {
+            img.write(dest);
+         } catch (IOException ex) {
+            Log.error("Unable to export the memory to " + dest.getName() + ": " + ex.getMessage());
+         }
+      });
+   }
+}
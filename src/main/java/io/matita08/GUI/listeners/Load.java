@@ -1,6 +1,7 @@
 package io.matita08.GUI.listeners;
 
 import io.matita08.GUI.Display;
+import io.matita08.Log;
 import io.matita08.Utils;
 
 import javax.swing.*;
@@ -14,7 +15,7 @@ import java.io.*;
  * into the simulator's central memory through the Utils.loadMC() method.
  *
  * <p>The Load listener provides a file chooser interface that filters for supported
- * file types (.txt, .bat, .sim) and integrates with the simulator's memory loading
+ * file types (.txt, .sim, .asm and binary .bin images) and integrates with the simulator's memory loading
  * system. When a file is selected, it is processed and loaded into the central memory
  * for program execution.</p>
  *
@@ -59,7 +60,7 @@ public class Load implements ActionListener {
          /** {@inheritDoc} */
          @Override
          public String getDescription() {
-            return "Text file (.txt, .sim)";
+            return "Program file (.txt, .sim, .asm, .bin)";
          }
       });
       fc.addActionListener(this::load);
@@ -85,8 +86,7 @@ public class Load implements ActionListener {
       try {
          UIManager.setLookAndFeel(UIManager.getCrossPlatformLookAndFeelClassName());
       } catch (ClassNotFoundException | InstantiationException | UnsupportedLookAndFeelException | IllegalAccessException ex) {
-         //noinspection CallToPrintStackTrace
-         ex.printStackTrace();
+         Log.error("Unable to set the look and feel of the file chooser", ex);
          throw new RuntimeException(ex);
       }
       f.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
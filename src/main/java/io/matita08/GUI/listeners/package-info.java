@@ -10,6 +10,8 @@
  * <ul>
  *   <li>{@link io.matita08.GUI.listeners.Load} - Handles file loading operations
  *       for program files into the simulator's central memory</li>
+ *   <li>{@link io.matita08.GUI.listeners.Export} - Exports the central memory
+ *       to a binary memory image</li>
  * </ul>
  *
  * <p>Listener characteristics:</p>
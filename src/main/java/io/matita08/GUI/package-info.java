@@ -11,6 +11,7 @@
  *   <li>{@link io.matita08.GUI.Display} - Main application window with CPU visualization,
  *       memory display, control panels, and I/O interfaces</li>
  *   <li>{@link io.matita08.GUI.Line} - Custom component for drawing visual separators</li>
+ *   <li>{@link io.matita08.GUI.Disassembly} - Incrementally updated disassembly of the central memory</li>
  *   <li>Event listeners in the {@link io.matita08.GUI.listeners} sub-package for handling
  *       user interactions</li>
  * </ul>
@@ -29,6 +30,7 @@
  *   <li>Arithmetic Logic Unit (ALU) status and operations</li>
  *   <li>Program Status Word (PSW) with CPU flags</li>
  *   <li>Central memory contents with scrollable address/value pairs</li>
+ *   <li>Central memory decoded into instructions, marking the current one</li>
  *   <li>Control unit information (current instruction, execution phases)</li>
  *   <li>I/O buffers and interactive numeric keypad</li>
  *   <li>Control buttons for program execution and file loading</li>
@@ -0,0 +1,255 @@
+package io.matita08;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous logger of the simulator.
+ * <p>
+ * Threads logging a message only put it in a bounded ring buffer and never wait for the console
+ * or for the log file: a background thread takes the messages out of the buffer and writes them,
+ * flushing once per batch. When the buffer is full the message is dropped, so a slow console can
+ * never block the simulation; the writer reports how many messages were lost.
+ * </p>
+ *
+ * <p>
+ * Messages below the level chosen with the {@code -log} option are discarded right away.
+ * Every level is also rate limited to {@value #RATE} messages per second, with bursts of
+ * as many: a program hammering an invalid opcode or address produces a few lines and
+ * a count of the suppressed ones instead of flooding the output.
+ * </p>
+ *
+ * <p>Debug and info messages go to {@link System#out}, warnings and errors to {@link System#err};
+ * everything is also written to the log file, see {@link ExceptionHandler#logStream()}.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Log {
+   
+   /**
+    * Severity of a message.
+    */
+   public enum Level {
+      /** Details useful to debug the simulator. */
+      DEBUG,
+      /** Normal operation. */
+      INFO,
+      /** Something the user should know, the simulation goes on. */
+      WARN,
+      /** Something failed. */
+      ERROR
+   }
+   
+   /**
+    * A logged message.
+    *
+    * @param level the level
+    * @param time the time it was logged, in milliseconds since the epoch
+    * @param thread the name of the logging thread
+    * @param message the message
+    * @param error the exception to print, may be null
+    */
+   private record Entry(Level level, long time, String thread, String message, Throwable error) {}
+   
+   /**
+    * Number of messages the buffer can hold.
+    */
+   public static final int CAPACITY = 4096;
+   
+   /**
+    * Messages per second allowed for every level.
+    */
+   public static final int RATE = 100;
+   
+   /**
+    * The ring buffer between the logging threads and the writer.
+    */
+   private static final ArrayBlockingQueue<Entry> buffer = new ArrayBlockingQueue<>(CAPACITY);
+   
+   /**
+    * Messages lost because the buffer was full, and messages suppressed by the rate limit.
+    */
+   private static final LongAdder dropped = new LongAdder(), suppressed = new LongAdder();
+   
+   /**
+    * Tokens of the rate limit, one bucket per level.
+    */
+   private static final double[] tokens = new double[Level.values().length];
+   
+   /**
+    * Last time every bucket was refilled, in nanoseconds.
+    */
+   private static final long[] refilled = new long[Level.values().length];
+   
+   /**
+    * The background writer.
+    */
+   private static final Thread writer = new Thread(Log::write, "Log-writer");
+   
+   static {
+      Arrays.fill(tokens, RATE);
+      Arrays.fill(refilled, System.nanoTime());
+      writer.setDaemon(true);
+      writer.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Log-flush"));
+   }
+   
+   /**
+    * Private constructor to prevent instantiation.
+    */
+   private Log() {}
+   
+   /**
+    * Logs a debug message.
+    *
+    * @param message the message
+    */
+   public static void debug(String message) {
+      log(Level.DEBUG, message, null);
+   }
+   
+   /**
+    * Logs an info message.
+    *
+    * @param message the message
+    */
+   public static void info(String message) {
+      log(Level.INFO, message, null);
+   }
+   
+   /**
+    * Logs a warning.
+    *
+    * @param message the message
+    */
+   public static void warn(String message) {
+      log(Level.WARN, message, null);
+   }
+   
+   /**
+    * Logs an error.
+    *
+    * @param message the message
+    */
+   public static void error(String message) {
+      log(Level.ERROR, message, null);
+   }
+   
+   /**
+    * Logs an error with its exception.
+    *
+    * @param message the message
+    * @param error the exception, its stack trace is printed
+    */
+   public static void error(String message, Throwable error) {
+      log(Level.ERROR, message, error);
+   }
+   
+   /**
+    * Checks if messages of a level are logged, to skip building expensive messages.
+    *
+    * @param level the level
+    * @return true if the level isn't filtered out
+    */
+   public static boolean isEnabled(Level level) {
+      return level.compareTo(Constants.getLogLevel()) >= 0;
+   }
+   
+   /**
+    * Logs a message, never waiting for it to be written.
+    *
+    * @param level the level
+    * @param message the message
+    * @param error the exception to print, may be null
+    */
+   public static void log(Level level, String message, Throwable error) {
+      if(!isEnabled(level)) return;
+      if(!permit(level)) {
+         suppressed.increment();
+         return;
+      }
+      if(!buffer.offer(new Entry(level, System.currentTimeMillis(), Thread.currentThread().getName(), message, error))) dropped.increment();
+   }
+   
+   /**
+    * Takes a token from the bucket of a level.
+    *
+    * @param level the level
+    * @return false if the level is over its rate
+    */
+   private static synchronized boolean permit(Level level) {
+      int i = level.ordinal();
+      long now = System.nanoTime();
+      tokens[i] = Math.min(RATE, tokens[i] + (now - refilled[i]) * RATE / 1e9);
+      refilled[i] = now;
+      if(tokens[i] < 1) return false;
+      tokens[i]--;
+      return true;
+   }
+   
+   /**
+    * Writes every message still in the buffer and waits for the writer to finish its batch.
+    * Called on shutdown, so nothing logged before exiting is lost.
+    */
+   public static void flush() {
+      ArrayList<Entry> batch = new ArrayList<>();
+      buffer.drainTo(batch);
+      synchronized(writer) {
+         print(batch);
+      }
+   }
+   
+   /**
+    * Body of the writer thread.
+    */
+   private static void write() {
+      ArrayList<Entry> batch = new ArrayList<>();
+      while(true) {
+         try {
+            batch.add(buffer.take());
+         } catch (InterruptedException e) {
+            return;
+         }
+         buffer.drainTo(batch);
+         synchronized(writer) {
+            print(batch);
+         }
+         batch.clear();
+      }
+   }
+   
+   /**
+    * Writes a batch of messages, followed by the count of the lost ones if any.
+    *
+    * @param batch the messages
+    */
+   private static void print(List<Entry> batch) {
+      long lost = dropped.sumThenReset(), limited = suppressed.sumThenReset();
+      if(batch.isEmpty() && lost == 0 && limited == 0) return;
+      SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.ROOT);
+      PrintStream file = ExceptionHandler.logStream();
+      for (Entry e: batch) {
+         String line = format.format(new Date(e.time)) + " [" + e.level + "] [" + e.thread + "] " + e.message;
+         PrintStream console = e.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+         console.println(e.message);
+         file.println(line);
+         if(e.error != null) {
+            e.error.printStackTrace(console);
+            e.error.printStackTrace(file);
+         }
+      }
+      if(lost > 0 || limited > 0) {
+         String line = "[WARN] Log messages " + (lost > 0 ? "lost because the buffer was full: " + lost + (limited > 0 ? ", " : "") : "") + (limited > 0 ? "suppressed by the rate limit: " + limited : "");
+         System.err.println(line);
+         file.println(line);
+      }
+      System.out.flush();
+      System.err.flush();
+      file.flush();
+   }
+}
@@ -1,8 +1,12 @@
 package io.matita08;
 
 import io.matita08.GUI.Display;
+import io.matita08.data.IOChannels;
+import io.matita08.program.*;
+import io.matita08.tools.*;
 
 import javax.swing.SwingUtilities;
+import java.util.Arrays;
 
 /**
  * Main entry point for the CPU Simulator application.
@@ -11,8 +15,8 @@ import javax.swing.SwingUtilities;
  *
  * <p>The Main class coordinates the complete application startup sequence:</p>
  * <ul>
- *   <li>Initializes debug logging streams for troubleshooting</li>
  *   <li>Processes command-line configuration options through {@link Constants#init(String[])}</li>
+ *   <li>Logs the stream configuration for troubleshooting</li>
  *   <li>Launches the GUI on the Swing Event Dispatch Thread</li>
  *   <li>Configures global exception handling for unhandled errors</li>
  * </ul>
@@ -31,6 +35,21 @@ import javax.swing.SwingUtilities;
  */
 public class Main {
    
+   /**
+    * Time the application was launched, as given by {@link System#nanoTime()}.
+    */
+   private static final long launched = System.nanoTime();
+   
+   /**
+    * Whether the graphical interface was started: headless runs never load Swing.
+    */
+   private static volatile boolean gui = false;
+   
+   /**
+    * Startup events already reported by {@link #startupEvent(String)}.
+    */
+   private static final java.util.Set<String> reported = java.util.concurrent.ConcurrentHashMap.newKeySet();
+   
    /**
     * Main entry point for the CPU Simulator application.
     * Processes command-line arguments, initializes configuration,
@@ -38,32 +57,107 @@ public class Main {
     *
     * <p>Startup sequence:</p>
     * <ol>
-    *   <li>Outputs debug information about stream configurations</li>
     *   <li>Processes command-line arguments via {@link Constants#init(String[])}</li>
     *   <li>If argument parsing requests help or fails, exits early</li>
+    *   <li>Logs debug information about stream configurations</li>
     *   <li>Launches GUI on Swing EDT using {@link SwingUtilities#invokeLater(Runnable)}</li>
     *   <li>Sets up global exception handler for background threads</li>
     * </ol>
     *
     * <p>Debug output includes information about standard output, error,
-    * and log file streams to aid in troubleshooting startup issues.</p>
+    * and log file streams to aid in troubleshooting startup issues, it is
+    * only shown with {@code -log debug}.</p>
     *
     * @param args command-line arguments for configuring the simulator
     *             (see {@link Constants#init(String[])} for supported options)
     * @see Constants#init(String[])
     */
    public static void main(String[] args) {
+      Metrics.start();
+      if(runTool(args)) return;
       if(Constants.init(args)) return;
-      System.out.println("[DEBUG] Stdout stream: " + System.out);
-      System.out.println("[DEBUG] Error stream: " + System.err);
-      System.out.println("[DEBUG] File stream: " + ExceptionHandler.logStream);
-      System.err.println("[DEBUG] Stdout stream: " + System.out);
-      System.err.println("[DEBUG] Error stream: " + System.err);
-      System.err.println("[DEBUG] File stream: " + ExceptionHandler.logStream);
-      ExceptionHandler.logStream.println("[DEBUG] Stdout stream: " + System.out);
-      ExceptionHandler.logStream.println("[DEBUG] Error stream: " + System.err);
-      ExceptionHandler.logStream.println("[DEBUG] File stream: " + ExceptionHandler.logStream);
+      IOChannels.configure();
+      Log.debug("Stdout stream: " + System.out + ", error stream: " + System.err);
+      gui = true;
       SwingUtilities.invokeLater(Display::init);
       Thread.setDefaultUncaughtExceptionHandler(new ExceptionHandler(false));
    }
+   
+   /**
+    * Checks if the graphical interface was started.
+    * Headless runs, like the command line tools, must not touch the {@link Display}.
+    *
+    * @return true if the GUI is running
+    */
+   public static boolean isGuiStarted() {
+      return gui;
+   }
+   
+   /**
+    * Reports, at debug level, the time elapsed from the launch to a startup event,
+    * like the first frame shown or the first instruction executed.
+    * Every event is only reported the first time it happens.
+    *
+    * @param event the name of the event
+    */
+   public static void startupEvent(String event) {
+      if(!Log.isEnabled(Log.Level.DEBUG) || !reported.add(event)) return;
+      long sinceMain = (System.nanoTime() - launched) / 1_000_000;
+      long sinceJvm = java.lang.management.ManagementFactory.getRuntimeMXBean().getUptime();
+      Log.debug("Startup: " + event + " after " + sinceMain + " ms, " + sinceJvm + " ms since the JVM started");
+   }
+   
+   /**
+    * Starts the command line tool named by the first argument, if any.
+    * The remaining arguments are passed to the tool.
+    *
+    * @param args command-line arguments
+    * @return true if a tool was run, false if the GUI should be started
+    * @see io.matita08.tools
+    */
+   private static boolean runTool(String[] args) {
+      if(args.length == 0) return false;
+      String[] toolArgs = Arrays.copyOfRange(args, 1, args.length);
+      switch(args[0]) {
+         case "explore":
+            Explorer.main(toolArgs);
+            return true;
+         case "asm":
+            Assembler.main(toolArgs);
+            return true;
+         case "image":
+            MemoryImage.main(toolArgs);
+            return true;
+         case "membench":
+            MemoryBenchmark.main(toolArgs);
+            return true;
+         case "run":
+            Runner.main(toolArgs);
+            return true;
+         case "cdstrain":
+            try {
+               CdsTraining.main(toolArgs);
+            } catch (Exception e) {
+               Log.error("Training run failed", e);
+            }
+            return true;
+         case "grade":
+            Grader.main(toolArgs);
+            return true;
+         case "fuzz":
+            Fuzzer.main(toolArgs);
+            return true;
+         case "lockstep":
+            Lockstep.main(toolArgs);
+            return true;
+         case "superopt":
+            Superoptimizer.main(toolArgs);
+            return true;
+         case "serve":
+            SimulationServer.main(toolArgs);
+            return true;
+         default:
+            return false;
+      }
+   }
 }
\ No newline at end of file
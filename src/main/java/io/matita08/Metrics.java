@@ -0,0 +1,313 @@
+package io.matita08;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live metrics of the simulator, exposed through JMX.
+ * <p>
+ * The counters are {@link LongAdder}s: every thread increments its own stripe, so counting from
+ * the execution loop costs about as much as a plain increment and never contends with the threads
+ * reading them. They are published as the MXBean {@value #NAME} of the platform MBean server,
+ * readable with JConsole, VisualVM or any other JMX client, both while the GUI is running and
+ * during headless runs. The MBean is registered by a background thread shortly after the startup,
+ * see {@link #start()}, so that loading the JMX classes never delays the simulation.
+ * </p>
+ *
+ * <p>Cycles and instructions are counted by the reference engine ({@link io.matita08.logic.Execution})
+ * and by the batch {@link io.matita08.logic.Machine}s, the memory, opcode and UI counters by
+ * the reference engine and the GUI only.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Metrics {
+   
+   /**
+    * Object name of the MBean.
+    */
+   public static final String NAME = "io.matita08:type=Simulator";
+   
+   /**
+    * Minimum time between two samples of the instructions per second, in nanoseconds.
+    */
+   private static final long SAMPLE_INTERVAL = 250_000_000L;
+   
+   /**
+    * Time waited before registering the MBean, in milliseconds.
+    * Creating the platform MBean server takes longer than a whole short headless run, which
+    * would pay for it on every launch: runs ending earlier than this never register it.
+    */
+   public static final long REGISTER_DELAY = 1000;
+   
+   /**
+    * Attributes and operations of the MBean.
+    */
+   public interface SimulatorMXBean {
+      /**
+       * @return the clock cycles executed
+       */
+      long getCycles();
+      
+      /**
+       * @return the instructions executed
+       */
+      long getInstructions();
+      
+      /**
+       * @return the instructions executed per second since the previous sample
+       */
+      double getInstructionsPerSecond();
+      
+      /**
+       * @return the reads of the central memory
+       */
+      long getMemoryReads();
+      
+      /**
+       * @return the writes to the central memory
+       */
+      long getMemoryWrites();
+      
+      /**
+       * @return the opcodes decoded that aren't part of the instruction set
+       */
+      long getInvalidOpcodes();
+      
+      /**
+       * @return the reads and writes of addresses outside the central memory
+       */
+      long getOutOfBoundsAccesses();
+      
+      /**
+       * @return the refreshes of the GUI
+       */
+      long getUiRefreshes();
+      
+      /**
+       * @return the GUI refreshes skipped because one was already pending
+       */
+      long getDroppedFrames();
+      
+      /**
+       * @return "GUI" or "headless"
+       */
+      String getMode();
+      
+      /**
+       * Sets every counter back to zero.
+       */
+      void reset();
+   }
+   
+   /**
+    * The counters.
+    */
+   private static final LongAdder cycles = new LongAdder(), instructions = new LongAdder(), memoryReads = new LongAdder(), memoryWrites = new LongAdder(),
+      invalidOpcodes = new LongAdder(), outOfBounds = new LongAdder(), uiRefreshes = new LongAdder(), droppedFrames = new LongAdder();
+   
+   /**
+    * Whether {@link #start()} was called.
+    */
+   private static boolean started = false;
+   
+   /**
+    * Private constructor to prevent instantiation.
+    */
+   private Metrics() {}
+   
+   /**
+    * Publishes the metrics, registering the MBean from a background thread after {@link #REGISTER_DELAY}.
+    * Called once at startup, further calls do nothing.
+    */
+   public static synchronized void start() {
+      if(started) return;
+      started = true;
+      Thread t = new Thread(Metrics::register, "Metrics-register");
+      t.setDaemon(true);
+      t.start();
+   }
+   
+   /**
+    * Registers the MBean in the platform MBean server, after {@link #REGISTER_DELAY}.
+    */
+   private static void register() {
+      try {
+         Thread.sleep(REGISTER_DELAY);
+      } catch (InterruptedException e) {
+         return;
+      }
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(NAME));
+      } catch (JMException e) {
+         Log.warn("Unable to register the metrics MBean: " + e.getMessage());
+      }
+   }
+   
+   /**
+    * Counts a clock cycle of the reference engine.
+    */
+   public static void cycle() {
+      cycles.increment();
+   }
+   
+   /**
+    * Counts an instruction completed by the reference engine.
+    */
+   public static void instruction() {
+      instructions.increment();
+   }
+   
+   /**
+    * Counts work done by a batch machine, added once per run instead of once per step.
+    *
+    * @param cycleCount the cycles executed
+    * @param instructionCount the instructions executed
+    * @param readCount the memory cells read
+    * @param writeCount the memory cells written
+    * @param invalidCount the opcodes that aren't part of the instruction set
+    * @param outOfBoundsCount the accesses to addresses outside the central memory
+    */
+   public static void executed(long cycleCount, long instructionCount, long readCount, long writeCount, long invalidCount, long outOfBoundsCount) {
+      cycles.add(cycleCount);
+      instructions.add(instructionCount);
+      memoryReads.add(readCount);
+      memoryWrites.add(writeCount);
+      invalidOpcodes.add(invalidCount);
+      outOfBounds.add(outOfBoundsCount);
+   }
+   
+   /**
+    * Counts a read of the central memory.
+    */
+   public static void memoryRead() {
+      memoryReads.increment();
+   }
+   
+   /**
+    * Counts a write to the central memory.
+    */
+   public static void memoryWrite() {
+      memoryWrites.increment();
+   }
+   
+   /**
+    * Counts an opcode that isn't part of the instruction set.
+    */
+   public static void invalidOpcode() {
+      invalidOpcodes.increment();
+   }
+   
+   /**
+    * Counts an access to an address outside the central memory.
+    */
+   public static void outOfBounds() {
+      outOfBounds.increment();
+   }
+   
+   /**
+    * Counts a refresh of the GUI.
+    */
+   public static void uiRefresh() {
+      uiRefreshes.increment();
+   }
+   
+   /**
+    * Counts a GUI refresh that was skipped.
+    */
+   public static void droppedFrame() {
+      droppedFrames.increment();
+   }
+   
+   /**
+    * The registered MBean, reading the counters.
+    */
+   private static final class Bean implements SimulatorMXBean {
+      /**
+       * Time and instruction count of the last sample of the instructions per second.
+       */
+      private long sampleTime = System.nanoTime(), sampleCount = instructions.sum();
+      
+      /**
+       * Instructions per second measured by the last sample.
+       */
+      private double ips;
+      
+      /** {@inheritDoc} */
+      @Override
+      public long getCycles() {
+         return cycles.sum();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public long getInstructions() {
+         return instructions.sum();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public synchronized double getInstructionsPerSecond() {
+         long now = System.nanoTime();
+         if(now - sampleTime < SAMPLE_INTERVAL) return ips;
+         long count = instructions.sum();
+         ips = (count - sampleCount) * 1e9 / (now - sampleTime);
+         sampleTime = now;
+         sampleCount = count;
+         return ips;
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public long getMemoryReads() {
+         return memoryReads.sum();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public long getMemoryWrites() {
+         return memoryWrites.sum();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public long getInvalidOpcodes() {
+         return invalidOpcodes.sum();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public long getOutOfBoundsAccesses() {
+         return outOfBounds.sum();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public long getUiRefreshes() {
+         return uiRefreshes.sum();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public long getDroppedFrames() {
+         return droppedFrames.sum();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public String getMode() {
+         return Main.isGuiStarted() ? "GUI" : "headless";
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public synchronized void reset() {
+         for (LongAdder a: new LongAdder[]{cycles, instructions, memoryReads, memoryWrites, invalidOpcodes, outOfBounds, uiRefreshes, droppedFrames}) a.reset();
+         sampleTime = System.nanoTime();
+         sampleCount = 0;
+         ips = 0;
+      }
+   }
+}
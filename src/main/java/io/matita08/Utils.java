@@ -2,9 +2,10 @@ package io.matita08;
 
 import io.matita08.GUI.Display;
 import io.matita08.data.Registers;
-import io.matita08.value.Value;
+import io.matita08.program.*;
 
 import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -64,8 +65,8 @@ public class Utils {
     *
     * <p>The file is parsed line by line, with each line representing a memory value.
     * Lines starting with "?" or empty lines are treated as undefined values.
-    * Numeric lines are parsed and stored as defined values. Invalid numeric
-    * formats are treated as undefined values.</p>
+    * Numeric lines are parsed in the configured radix and stored as defined values.
+    * See {@link ProgramLoader} for the complete format.</p>
     *
     * @param f the file to load into central memory
     * @see #loadMCImpl(File)
@@ -81,7 +82,21 @@ public class Utils {
     */
    @SuppressWarnings("UnusedReturnValue")
    public static Thread runOnNewThread(Runnable run) {
-      Thread t = new Thread(taskGroup, run, taskGroup.getName() + "-" + tc.getAndIncrement());
+      Runnable task = run;
+      if(FlightEvents.isActive()) {
+         FlightEvents.BackgroundTask event = new FlightEvents.BackgroundTask();
+         event.begin();
+         long requested = System.nanoTime();
+         task = () -> {
+            event.startDelay = System.nanoTime() - requested;
+            try {
+               run.run();
+            } finally {
+               event.commit();
+            }
+         };
+      }
+      Thread t = new Thread(taskGroup, task, taskGroup.getName() + "-" + tc.getAndIncrement());
       t.start();
       return t;
    }
@@ -90,43 +105,30 @@ public class Utils {
     * Internal implementation of file loading into central memory.
     * This method performs the actual file parsing and memory updates.
     *
-    * <p>File format:</p>
-    * <ul>
-    *   <li>Each line represents one memory location</li>
-    *   <li>Lines starting with "?" are treated as undefined values</li>
-    *   <li>Empty lines are treated as undefined values</li>
-    *   <li>Numeric lines are parsed and stored as values</li>
-    *   <li>Invalid numeric formats default to undefined values</li>
-    * </ul>
+    * <p>The file is read through the {@link ImageCache}, so loading the same program again
+    * doesn't parse it, see {@link ProgramLoader#load(File)} for the formats: binary {@link MemoryImage}s are
+    * mapped and copied, files with the {@code .asm} extension are assembled with the
+    * {@link Assembler} and anything else is parsed as a text program. The memory is only
+    * written if the whole file is valid, malformed lines are reported with their line number.</p>
     *
     * <p>After loading completes, the GUI display is updated to reflect
     * the new memory contents.</p>
     *
     * @param f the file to load
+    * @see ProgramLoader#load(File)
     */
    private static void loadMCImpl(File f) {
       try {
-         Scanner s = new Scanner(f);
-         int pos = 0;
-         while(s.hasNext()) {
-            String st = s.nextLine();
-            if(st.startsWith("?") || st.isEmpty()) {
-               Registers.setMC(pos, Value.nullValue);
-            } else {
-               try {
-                  int n = Integer.parseInt(st);
-                  Registers.setMC(pos, Value.create(n));
-               } catch (NumberFormatException ex) {
-                  Registers.setMC(pos, Value.nullValue);
-               }
-            }
-            pos++;
-         }
-      } catch (FileNotFoundException fnf) {
-         System.out.println("The selected file (" + f.getName() + ") doesn't exist or i was unable to open it");
-         //noinspection CallToPrintStackTrace
-         fnf.printStackTrace();
+         Registers.loadMC(ImageCache.shared.load(f));
+      } catch (FileNotFoundException | NoSuchFileException fnf) {
+         Log.error("The selected file (" + f.getName() + ") doesn't exist or i was unable to open it", fnf);
+      } catch (AssemblerException ex) {
+         Log.error("Unable to assemble " + f.getName() + ", " + ex.getMessage());
+      } catch (ProgramFormatException ex) {
+         Log.error("Unable to load " + f.getName() + ", " + ex.getMessage());
+      } catch (IOException ex) {
+         Log.error("Unable to read " + f.getName() + ": " + ex.getMessage());
       }
       Display.update();
    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+package io.matita08.data;
+
+import io.matita08.value.Value;
+
+import java.nio.IntBuffer;
+
+/**
+ * Memory stored in {@link IntBuffer}s outside of the Java heap, shared by {@link OffHeapMemory}
+ * and {@link MappedMemory}.
+ * <p>
+ * A buffer can hold at most 2 GiB, so the memory is split in chunks of {@link #CHUNK_SIZE} cells,
+ * provided by the subclass. Cells are stored xor-ed with {@link Value#UNDEFINED_CELL}:
+ * new direct buffers and new files start zeroed, so a fresh memory is entirely undefined
+ * without writing it.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+abstract class ChunkedMemory implements Memory {
+   
+   /**
+    * Log2 of the number of cells in a chunk.
+    */
+   static final int CHUNK_BITS = 28;
+   
+   /**
+    * Number of cells in a chunk, 1 GiB of memory.
+    */
+   static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+   
+   /**
+    * Mask giving the offset of an address inside its chunk.
+    */
+   private static final int OFFSET_MASK = CHUNK_SIZE - 1;
+   
+   /**
+    * The chunks, filled by the subclass.
+    */
+   final IntBuffer[] chunks;
+   
+   /**
+    * Number of cells.
+    */
+   final int size;
+   
+   /**
+    * Address after the highest cell written with a defined value.
+    */
+   volatile int top;
+   
+   /**
+    * Creates a memory with room for its chunks, which the subclass must fill before using it.
+    *
+    * @param size the number of cells
+    */
+   ChunkedMemory(int size) {
+      this.size = size;
+      chunks = new IntBuffer[(int)(((long)size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+   }
+   
+   /**
+    * Gets the number of cells of a chunk, only the last one can be smaller than {@link #CHUNK_SIZE}.
+    *
+    * @param index the index of the chunk
+    * @return the number of cells
+    */
+   final int chunkCells(int index) {
+      return (int)Math.min(CHUNK_SIZE, size - ((long)index << CHUNK_BITS));
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public final int size() {
+      return size;
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public final int get(int address) {
+      return chunks[address >>> CHUNK_BITS].get(address & OFFSET_MASK) ^ Value.UNDEFINED_CELL;
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public final void set(int address, int cell) {
+      chunks[address >>> CHUNK_BITS].put(address & OFFSET_MASK, cell ^ Value.UNDEFINED_CELL);
+      if(cell != Value.UNDEFINED_CELL && address >= top) top = address + 1;
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public final void load(int[] cells) {
+      int end = 0;
+      for (int i = 0; i < cells.length; i++) {
+         chunks[i >>> CHUNK_BITS].put(i & OFFSET_MASK, cells[i] ^ Value.UNDEFINED_CELL);
+         if(cells[i] != Value.UNDEFINED_CELL) end = i + 1;
+      }
+      if(end > top) top = end;
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public final int extent() {
+      return top;
+   }
+   
+   /**
+    * {@inheritDoc}
+    * The cells aren't in the heap.
+    */
+   @Override
+   public final long allocatedBytes() {
+      return 4L * size;
+   }
+}
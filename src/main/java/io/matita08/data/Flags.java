@@ -1,6 +1,7 @@
 package io.matita08.data;
 
 import io.matita08.*;
+import io.matita08.value.Value;
 
 /**
  * CPU Flags Management System.
@@ -24,6 +25,19 @@ import io.matita08.*;
  * both individual flag operations and bulk flag queries.
  * </p>
  *
+ * <p>
+ * The arithmetic instructions don't compute their flags: they record their operands and
+ * result with {@link #arithmetic(boolean, int, int, Value)}, and the Zero and Overflow flags
+ * are only computed when any flag is read, set or saved. Most results are overwritten by the
+ * next arithmetic instruction before anything looks at the flags.
+ * </p>
+ *
+ * <p>
+ * The flags belong to the thread running the CPU, no lock is taken on the hot path: the other
+ * threads, like the GUI, only read the snapshot the CPU thread publishes with {@link #publish()}
+ * before asking for a GUI update, see {@link #get()}.
+ * </p>
+ *
  * <p>Example usage:</p>
  * <pre>
  * // Set the zero flag
@@ -55,11 +69,46 @@ public class Flags {
    private static boolean set = false;
    
    /**
-    * Get the string representation of all flags
+    * Whether the last arithmetic operation still has to be turned into flags.
+    */
+   private static boolean pending = false;
+   
+   /**
+    * Whether the pending operation is a subtraction rather than an addition.
+    */
+   private static boolean subtraction;
+   
+   /**
+    * Operands of the pending operation, as read when it was executed.
+    */
+   private static int first, second;
+   
+   /**
+    * Result of the pending operation.
+    */
+   private static Value result;
+   
+   /**
+    * Flags as last published for the other threads, see {@link #publish()}.
+    */
+   private static volatile String shown = "?";
+   
+   /**
+    * Get the string representation of all flags, as last published by the CPU thread.
+    * Safe to call from any thread, see {@link #publish()}.
     * @return the bitmask of all the flags if any flag was set as a string or a question mark if on flag was ever set/unset
     */
    public static String get() {
-      return set ? Integer.toString(flags, Constants.getRadix()) : "?";
+      return shown;
+   }
+   
+   /**
+    * Resolves the pending arithmetic operation and publishes the flags for {@link #get()}.
+    * Called by the CPU thread when the other threads have to see the current flags.
+    */
+   public static void publish() {
+      resolve();
+      shown = set ? Integer.toString(flags, Constants.getRadix()) : "?";
    }
    
    /**
@@ -80,6 +129,7 @@ public class Flags {
     * @return true if all specified flags are set, false otherwise
     */
    public static boolean get(int flag) {
+      resolve();
       return (flags & flag) == flag;
    }
    
@@ -102,12 +152,75 @@ public class Flags {
     * @param value the new state of the flag(s) (true to set, false to unset)
     */
    public static void set(int flag, boolean value) {
+      resolve();
       if(set) {
          if(value) flags = flags | flag;
-         else if((flags & flag) == flag) flags = flags - flag;
+         else flags = flags & ~flag;
       } else {
+         //The other flags were never set, they start clear instead of random
          set = true;
-         flags = flag;
+         flags = value ? flag : 0;
       }
    }
-}
\ No newline at end of file
+   
+   /**
+    * Records an arithmetic operation, whose Zero and Overflow flags are computed when
+    * the flags are next used. The Overflow flag is set when a sum is larger than
+    * {@link Constants#getValueMax()} or a difference is negative, the Zero flag when the result is 0.
+    *
+    * @param sub true for a subtraction, false for an addition
+    * @param a the first operand
+    * @param b the second operand
+    * @param res the result
+    */
+   public static void arithmetic(boolean sub, int a, int b, Value res) {
+      subtraction = sub;
+      first = a;
+      second = b;
+      result = res;
+      pending = true;
+   }
+   
+   /**
+    * Turns the pending arithmetic operation into flags, in the order the instructions used to set them.
+    */
+   private static void resolve() {
+      if(!pending) return;
+      pending = false;
+      set(FlagsConstants.OVERFLOW, subtraction ? first - second < 0 : first + second > Constants.getValueMax());
+      set(FlagsConstants.ZERO, result.equals(0));
+   }
+   
+   /**
+    * Gets the raw flags, for saving them.
+    *
+    * @return the flags bitmask, or -1 if no flag was ever set
+    * @see #restore(int)
+    */
+   static int save() {
+      resolve();
+      return set ? flags : -1;
+   }
+   
+   /**
+    * Clears every flag and marks them as never set, like at startup but without the random state.
+    */
+   static void clear() {
+      pending = false;
+      set = false;
+      flags = 0;
+      publish();
+   }
+   
+   /**
+    * Restores flags saved by {@link #save()}.
+    *
+    * @param saved the raw flags
+    */
+   static void restore(int saved) {
+      pending = false;
+      set = saved != -1;
+      if(set) flags = saved;
+      publish();
+   }
+}
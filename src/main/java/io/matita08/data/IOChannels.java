@@ -0,0 +1,372 @@
+package io.matita08.data;
+
+import io.matita08.*;
+import io.matita08.value.Value;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Input and output channels of the reference engine.
+ * <p>
+ * Without channels the input instruction reads whatever the numpad left in the input buffer and
+ * the output instruction overwrites the output buffer, so programs can only be run interactively.
+ * An {@link Input} attached with {@link #setInput(Input, WhenEmpty)} provides the value of every
+ * input instruction instead, and every value written by an output instruction is also passed to
+ * the {@link Output}s added with {@link #addOutput(Output)}, in order, so none is lost.
+ * </p>
+ *
+ * <p>
+ * Channels are configured from the command line with {@code -in}, {@code -ie} and {@code -out},
+ * see {@link #configure()}, both for the GUI and for the {@code run} tool, or attached directly
+ * by code driving the engine: a {@link Queue} can be fed while the program runs.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class IOChannels {
+   
+   /**
+    * Source of the values read by the input instructions.
+    */
+   @FunctionalInterface
+   public interface Input {
+      /**
+       * Takes the next value, possibly waiting for it.
+       *
+       * @return the value, {@link Value#UNDEFINED_CELL} for an undefined one, or null if there's none
+       */
+      Integer next();
+      
+      /**
+       * Checks if {@link #next()} would return a value. Used to resume a CPU waiting for input.
+       *
+       * @return true if a value is available, or may be after waiting for it
+       */
+      default boolean available() {
+         return true;
+      }
+   }
+   
+   /**
+    * Destination of the values written by the output instructions.
+    */
+   @FunctionalInterface
+   public interface Output {
+      /**
+       * Receives a value written to the output buffer.
+       *
+       * @param value the value
+       */
+      void write(Value value);
+   }
+   
+   /**
+    * What an input instruction does when the input has no value left.
+    */
+   public enum WhenEmpty {
+      /** Reads the input buffer as it is, like without an input channel. */
+      Keep,
+      /** Reads an undefined value. */
+      Undefined,
+      /** Stops the CPU on the input instruction until a value is available. */
+      Wait
+   }
+   
+   /**
+    * Input fed by code, from another thread too.
+    */
+   public static final class Queue implements Input {
+      /** The values not read yet. */
+      private final java.util.Queue<Integer> values = new ConcurrentLinkedQueue<>();
+      
+      /**
+       * Adds a value at the end of the queue.
+       *
+       * @param value the value, {@link Value#UNDEFINED_CELL} for an undefined one
+       */
+      public void offer(int value) {
+         values.add(value);
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public Integer next() {
+         return values.poll();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public boolean available() {
+         return !values.isEmpty();
+      }
+      
+      /**
+       * Gets the number of values not read yet.
+       *
+       * @return the queued values
+       */
+      public int size() {
+         return values.size();
+      }
+      
+      /**
+       * Creates a queue with the values of a file, separated by spaces, commas or new lines
+       * and written in the display radix, {@code ?} for undefined ones.
+       *
+       * @param f the file
+       * @return the queue
+       * @throws IOException if the file can't be read or contains something else
+       */
+      public static Queue read(File f) throws IOException {
+         Queue q = new Queue();
+         for (String t: Files.readString(f.toPath(), StandardCharsets.UTF_8).trim().split("[\\s,]+")) {
+            if(!t.isEmpty()) q.offer(parse(t, f.getName()));
+         }
+         return q;
+      }
+   }
+   
+   /**
+    * Values written by the output instructions, kept in memory.
+    */
+   public static final class Recorder implements Output {
+      /** The values, {@link Value#UNDEFINED_CELL} for undefined ones. */
+      private int[] values = new int[16];
+      
+      /** Number of values. */
+      private int size;
+      
+      /** {@inheritDoc} */
+      @Override
+      public synchronized void write(Value value) {
+         if(size == values.length) values = Arrays.copyOf(values, size * 2);
+         values[size++] = Value.toCell(value);
+      }
+      
+      /**
+       * Gets the values recorded so far.
+       *
+       * @return a copy of the values, {@link Value#UNDEFINED_CELL} for undefined ones
+       */
+      public synchronized int[] values() {
+         return Arrays.copyOf(values, size);
+      }
+      
+      /**
+       * Forgets the values recorded so far.
+       */
+      public synchronized void clear() {
+         size = 0;
+      }
+   }
+   
+   /**
+    * The input, null to read the input buffer as it is.
+    */
+   private static volatile Input input;
+   
+   /**
+    * What to do when the input is empty.
+    */
+   private static volatile WhenEmpty whenEmpty = WhenEmpty.Keep;
+   
+   /**
+    * Whether the CPU is stopped on an input instruction, see {@link WhenEmpty#Wait}.
+    */
+   private static volatile boolean waiting;
+   
+   /**
+    * The outputs.
+    */
+   private static final List<Output> outputs = new CopyOnWriteArrayList<>();
+   
+   /**
+    * Private constructor to prevent instantiation.
+    */
+   private IOChannels() {}
+   
+   /**
+    * Attaches the channels requested on the command line, see {@link Constants#getInputFile()}
+    * and {@link Constants#getOutputFile()}. A file named {@code -} stands for the standard streams.
+    */
+   public static void configure() {
+      String in = Constants.getInputFile(), out = Constants.getOutputFile();
+      if(in != null) {
+         try {
+            setInput(in.equals("-") ? lines(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) : Queue.read(new File(in)), Constants.getInputWhenEmpty());
+         } catch (IOException e) {
+            Log.error("Unable to read the input file " + in + ": " + e.getMessage());
+         }
+      }
+      if(out != null) {
+         try {
+            PrintStream ps = out.equals("-") ? System.out : new PrintStream(new FileOutputStream(out), true, StandardCharsets.UTF_8);
+            addOutput(v -> ps.println(v));
+         } catch (IOException e) {
+            Log.error("Unable to open the output file " + out + ": " + e.getMessage());
+         }
+      }
+   }
+   
+   /**
+    * Creates an input reading the values from a reader when they are needed, waiting for each line.
+    * Lines may hold more values, separated by spaces or commas.
+    *
+    * @param reader the reader, like the standard input
+    * @return the input, empty once the reader ends
+    */
+   public static Input lines(BufferedReader reader) {
+      return new Lines(reader);
+   }
+   
+   /**
+    * Input reading the values from a reader, see {@link #lines(BufferedReader)}.
+    */
+   private static final class Lines implements Input {
+      /** The reader. */
+      private final BufferedReader reader;
+      /** Values read but not taken yet. */
+      private final ArrayDeque<String> pending = new ArrayDeque<>();
+      /** Whether the reader ended. */
+      private volatile boolean ended;
+      
+      /**
+       * Creates the input.
+       *
+       * @param reader the reader
+       */
+      Lines(BufferedReader reader) {
+         this.reader = reader;
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public synchronized Integer next() {
+         try {
+            while(pending.isEmpty()) {
+               String line = ended ? null : reader.readLine();
+               if(line == null) {
+                  ended = true;
+                  return null;
+               }
+               for (String t: line.trim().split("[\\s,]+")) if(!t.isEmpty()) pending.add(t);
+            }
+            return parse(pending.poll(), "the input");
+         } catch (IOException e) {
+            Log.warn("Unable to read an input: " + e.getMessage());
+            ended = true;
+            return null;
+         }
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public boolean available() {
+         return !ended;
+      }
+   }
+   
+   /**
+    * Parses a value of an input.
+    *
+    * @param token the value, in the display radix, or {@code ?}
+    * @param source the name of the input, for the errors
+    * @return the value, {@link Value#UNDEFINED_CELL} for {@code ?}
+    * @throws UncheckedIOException if the value isn't a number
+    */
+   private static int parse(String token, String source) {
+      if(token.equals("?")) return Value.UNDEFINED_CELL;
+      try {
+         return Integer.parseInt(token, Constants.getRadix());
+      } catch (NumberFormatException e) {
+         throw new UncheckedIOException(new IOException("'" + token + "' in " + source + " is not a number"));
+      }
+   }
+   
+   /**
+    * Attaches an input, replacing the previous one.
+    *
+    * @param in the input, null to read the input buffer as it is
+    * @param policy what to do when the input is empty
+    */
+   public static void setInput(Input in, WhenEmpty policy) {
+      input = in;
+      whenEmpty = policy;
+      waiting = false;
+   }
+   
+   /**
+    * Gets the attached input.
+    *
+    * @return the input, null if none
+    */
+   public static Input getInput() {
+      return input;
+   }
+   
+   /**
+    * Adds an output.
+    *
+    * @param out the output
+    */
+   public static void addOutput(Output out) {
+      outputs.add(out);
+   }
+   
+   /**
+    * Removes an output.
+    *
+    * @param out the output
+    */
+   public static void removeOutput(Output out) {
+      outputs.remove(out);
+   }
+   
+   /**
+    * Checks if the CPU is stopped on an input instruction, waiting for a value.
+    *
+    * @return true if the CPU can't continue until the input has a value
+    */
+   public static boolean isWaiting() {
+      Input in = input;
+      return waiting && in != null && !in.available();
+   }
+   
+   /**
+    * Moves the next input value to the input buffer, called by the input instructions.
+    *
+    * @return false if the input is empty with the {@link WhenEmpty#Wait} policy: the instruction must be repeated later
+    */
+   public static boolean read() {
+      Input in = input;
+      if(in == null) return true;
+      Integer next;
+      try {
+         next = in.next();
+      } catch (UncheckedIOException e) {
+         Log.warn(e.getCause().getMessage());
+         next = null;
+      }
+      waiting = false;
+      if(next != null) Registers.setBufIn(Value.fromCell(next));
+      else if(whenEmpty == WhenEmpty.Undefined) Registers.setBufIn(Value.getNew());
+      else if(whenEmpty == WhenEmpty.Wait) waiting = true;
+      return !waiting;
+   }
+   
+   /**
+    * Writes a value to the output buffer and to every output, called by the output instructions.
+    *
+    * @param value the value
+    */
+   public static void write(Value value) {
+      Registers.setBufOut(value);
+      for (Output o: outputs) o.write(value);
+   }
+}
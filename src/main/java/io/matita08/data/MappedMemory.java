@@ -0,0 +1,183 @@
+package io.matita08.data;
+
+import io.matita08.Constants;
+import io.matita08.Log;
+import io.matita08.logic.InstructionTable;
+import io.matita08.value.Value;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Memory stored in a memory-mapped file, which persists across runs.
+ * <p>
+ * Every write goes straight to the page cache and the operating system saves it to the file
+ * on its own, even if the simulator crashes: reopening the file gives back the memory as it was,
+ * without ever copying it. When the program halts and when the simulator exits the file is also
+ * {@linkplain #force() forced} to the storage device, so a finished run survives a crash of the
+ * whole system too. Besides the cells the file has a small header with the configuration
+ * it was created with and a state area, where {@link Registers#checkpoint()} keeps the registers
+ * and the control unit, so a run can continue from its last step.
+ * </p>
+ *
+ * <p>File layout, little-endian:</p>
+ * <ul>
+ *   <li>magic "SCMC", version, valueMax, addressSize, MC size, state area size</li>
+ *   <li>length and UTF-8 bytes of the instruction set name, at most {@value #MAX_NAME} bytes</li>
+ *   <li>the state area, see {@link #state()}</li>
+ *   <li>the cells, from the first page boundary after the state area, xor-ed with
+ *   {@link Value#UNDEFINED_CELL} so that the zeroes of a new file read as undefined</li>
+ * </ul>
+ *
+ * <p>Mappings are split in chunks of 1 GiB, as a single mapping can't exceed 2 GiB.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class MappedMemory extends ChunkedMemory {
+   
+   /**
+    * "SCMC", the first bytes of every memory file.
+    */
+   private static final int MAGIC = 0x434D4353;
+   
+   /**
+    * Version of the file layout.
+    */
+   private static final int VERSION = 1;
+   
+   /**
+    * Maximum number of bytes of the instruction set name.
+    */
+   public static final int MAX_NAME = 200;
+   
+   /**
+    * Offset of the state area.
+    */
+   private static final int STATE_OFFSET = 28 + MAX_NAME;
+   
+   /**
+    * Alignment of the cells.
+    */
+   private static final int PAGE = 4096;
+   
+   /**
+    * The mapped header.
+    */
+   private final MappedByteBuffer header;
+   
+   /**
+    * The mapped cells, one buffer per chunk.
+    */
+   private final MappedByteBuffer[] mapped;
+   
+   /**
+    * Size of the state area.
+    */
+   private final int stateSize;
+   
+   /**
+    * Whether the file already existed.
+    */
+   private final boolean reopened;
+   
+   /**
+    * Opens a memory file, creating it if it doesn't exist.
+    * An existing file must have been created with the running configuration.
+    * The highest defined cell of a reopened file isn't known, so its {@link #extent()} is the whole memory.
+    *
+    * @param file the memory file
+    * @param size the number of cells
+    * @param stateSize the number of bytes of the state area
+    * @throws IOException if the file can't be mapped or doesn't match the configuration
+    */
+   public MappedMemory(Path file, int size, int stateSize) throws IOException {
+      super(size);
+      this.stateSize = stateSize;
+      long cellsOffset = ((long)STATE_OFFSET + stateSize + PAGE - 1) / PAGE * PAGE;
+      try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+         reopened = ch.size() > 0;
+         if(!reopened) ch.truncate(0).write(ByteBuffer.allocate(1), cellsOffset + 4L * size - 1);  //Sparse where supported
+         else if(ch.size() != cellsOffset + 4L * size) throw new IOException(file + " isn't a memory file of " + size + " cells");
+         header = ch.map(FileChannel.MapMode.READ_WRITE, 0, cellsOffset);
+         header.order(ByteOrder.LITTLE_ENDIAN);
+         if(reopened) checkHeader(file);
+         else writeHeader();
+         mapped = new MappedByteBuffer[chunks.length];
+         for (int i = 0; i < mapped.length; i++) {
+            long first = (long)i << CHUNK_BITS;
+            mapped[i] = ch.map(FileChannel.MapMode.READ_WRITE, cellsOffset + 4 * first, 4L * chunkCells(i));
+            chunks[i] = mapped[i].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+         }
+      }
+      top = reopened ? size : 0;
+      Runtime.getRuntime().addShutdownHook(new Thread(this::force, "Memory-force"));
+   }
+   
+   /**
+    * Writes the header of a new file.
+    */
+   private void writeHeader() {
+      byte[] name = Constants.getOperationEnumName().getBytes(StandardCharsets.UTF_8);
+      header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, Constants.getValueMax()).putInt(12, Constants.getAddressSize());
+      header.putInt(16, size).putInt(20, stateSize).putInt(24, Math.min(name.length, MAX_NAME));
+      header.put(28, name, 0, Math.min(name.length, MAX_NAME));
+   }
+   
+   /**
+    * Checks the header of an existing file against the running configuration.
+    *
+    * @param file the file, for the error messages
+    * @throws IOException if the file isn't a memory file or was created with another configuration
+    */
+   private void checkHeader(Path file) throws IOException {
+      if(header.getInt(0) != MAGIC) throw new IOException(file + " isn't a memory file");
+      if(header.getInt(4) != VERSION) throw new IOException(file + " has the unsupported version " + header.getInt(4));
+      int length = header.getInt(24);
+      if(length < 0 || length > MAX_NAME) throw new IOException(file + " is corrupted");
+      byte[] name = new byte[length];
+      header.get(28, name);
+      String isa = new String(name, StandardCharsets.UTF_8);
+      if(header.getInt(8) != Constants.getValueMax() || header.getInt(12) != Constants.getAddressSize() || header.getInt(16) != size || header.getInt(20) != stateSize || !(length < MAX_NAME ? InstructionTable.isSameSet(isa, Constants.getOperationEnumName()) : Constants.getOperationEnumName().startsWith(isa))) {
+         throw new IOException(file + " was created with -s " + header.getInt(8) + " -a " + header.getInt(12) + " -mc " + header.getInt(16) + " -o " + isa + ", start the simulator with the same options to reopen it");
+      }
+   }
+   
+   /**
+    * Checks if the file existed before this memory was opened.
+    *
+    * @return true if the cells and the state area come from a previous run
+    */
+   public boolean isReopened() {
+      return reopened;
+   }
+   
+   /**
+    * Gets the state area of the file, a little-endian buffer of the size given when opening it.
+    * Its content is up to the caller, a new file starts with zeroes.
+    *
+    * @return a view of the state area, written through to the file
+    */
+   public ByteBuffer state() {
+      return header.slice(STATE_OFFSET, stateSize).order(ByteOrder.LITTLE_ENDIAN);
+   }
+   
+   /**
+    * Forces every change to be written to the storage device, so it survives a crash of
+    * the whole system and not only of the simulator.
+    * Called when the program halts, see {@link Registers#sync()}, and by a shutdown hook when the simulator exits.
+    */
+   public void force() {
+      try {
+         header.force();
+         for (MappedByteBuffer b: mapped) b.force();
+      } catch (UncheckedIOException e) {
+         Log.error("Unable to save the memory file: " + e.getMessage(), e);
+      }
+   }
+}
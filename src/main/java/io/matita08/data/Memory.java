@@ -0,0 +1,114 @@
+package io.matita08.data;
+
+import io.matita08.Constants;
+import io.matita08.Log;
+import io.matita08.value.Value;
+
+/**
+ * Storage backend of the Central Memory.
+ * <p>
+ * Backends store primitive cells, using {@link Value#UNDEFINED_CELL} for undefined
+ * locations, and are wrapped by {@link Registers#getMC(int)} and
+ * {@link Registers#setMC(int, Value)}, which convert cells from and to Values.
+ * Addresses are always checked by the caller: backends may assume
+ * {@code 0 <= address < size()}.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ * @see PagedMemory
+ * @see OffHeapMemory
+ */
+public interface Memory {
+   
+   /**
+    * Creates the memory chosen by the command-line options: a {@link MappedMemory} if
+    * {@link Constants#getMemoryFile()} is set, otherwise an undefined memory using the
+    * backend chosen by {@link Constants#getMemoryBackend()}.
+    * If the memory file can't be opened the error is reported and the memory isn't persisted.
+    *
+    * @param size the number of cells
+    * @param stateSize the number of bytes to reserve for the registers in a memory file
+    * @return the new memory
+    */
+   static Memory create(int size, int stateSize) {
+      if(Constants.getMemoryFile() != null) {
+         try {
+            return new MappedMemory(java.nio.file.Path.of(Constants.getMemoryFile()), size, stateSize);
+         } catch (java.io.IOException | java.nio.file.InvalidPathException e) {
+            Log.error("Unable to open the memory file, the memory won't be persisted: " + e.getMessage());
+         }
+      }
+      return create(Constants.getMemoryBackend(), size);
+   }
+   
+   /**
+    * Creates an undefined memory using a given backend.
+    *
+    * @param backend the name of the backend, one of {@link Constants#MEMORY_BACKENDS}
+    * @param size the number of cells
+    * @return the new memory
+    * @throws IllegalArgumentException if the backend doesn't exist
+    */
+   static Memory create(String backend, int size) {
+      switch(backend) {
+         case "paged":
+            return new PagedMemory(size);
+         case "offheap":
+            return new OffHeapMemory(size);
+         default:
+            throw new IllegalArgumentException("Unknown memory backend " + backend);
+      }
+   }
+   
+   /**
+    * Gets the number of cells of the memory.
+    *
+    * @return the size of the memory
+    */
+   int size();
+   
+   /**
+    * Reads a cell.
+    *
+    * @param address the address to read
+    * @return the cell, {@link Value#UNDEFINED_CELL} if undefined
+    */
+   int get(int address);
+   
+   /**
+    * Writes a cell.
+    *
+    * @param address the address to write
+    * @param cell the cell, {@link Value#UNDEFINED_CELL} to make the location undefined
+    */
+   void set(int address, int cell);
+   
+   /**
+    * Writes consecutive cells starting from address 0.
+    * Backends should override this with a bulk copy where they can.
+    *
+    * @param cells the cells to write, at most {@link #size()}
+    */
+   default void load(int[] cells) {
+      for (int i = 0; i < cells.length; i++) set(i, cells[i]);
+   }
+   
+   /**
+    * Gets an upper bound of the defined cells: every address at or after it is undefined.
+    * Used to avoid scanning or copying the untouched end of large memories.
+    *
+    * @return the address after the last possibly defined cell
+    */
+   default int extent() {
+      return size();
+   }
+   
+   /**
+    * Gets the number of bytes used to store the cells.
+    *
+    * @return the storage footprint, in bytes
+    */
+   long allocatedBytes();
+}
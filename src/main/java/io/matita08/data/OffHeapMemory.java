@@ -0,0 +1,39 @@
+package io.matita08.data;
+
+import io.matita08.value.Value;
+
+import java.nio.*;
+
+/**
+ * Memory stored outside of the Java heap, in direct buffers.
+ * <p>
+ * The cells don't count towards the heap, so even memories of gigabytes don't grow
+ * the garbage collector pauses: the collector only ever sees the few buffer objects.
+ * A direct buffer can hold at most 2 GiB, so the memory is split in chunks of 1 GiB,
+ * each one allocated when the memory is created.
+ * </p>
+ *
+ * <p>
+ * Cells are stored xor-ed with {@link Value#UNDEFINED_CELL}: direct buffers start zeroed,
+ * so a fresh memory is entirely undefined, like a {@link PagedMemory}, without writing it
+ * and without the operating system committing its pages until they are used.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class OffHeapMemory extends ChunkedMemory {
+   
+   /**
+    * Creates an undefined memory.
+    *
+    * @param size the number of cells
+    */
+   public OffHeapMemory(int size) {
+      super(size);
+      for (int i = 0; i < chunks.length; i++) {
+         chunks[i] = ByteBuffer.allocateDirect(chunkCells(i) * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+      }
+   }
+}
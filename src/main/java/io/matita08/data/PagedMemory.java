@@ -0,0 +1,142 @@
+package io.matita08.data;
+
+import io.matita08.value.Value;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lazily allocated memory, for large and mostly undefined address spaces.
+ * <p>
+ * Cells are grouped in pages of {@link #PAGE_SIZE} cells; a page is only allocated the first
+ * time a defined value is written into it, and pages that were never allocated read as
+ * undefined. A memory of 16M cells running a small program only keeps the page directory
+ * and the few pages it touched, a few tens of kilobytes.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class PagedMemory implements Memory {
+   
+   /**
+    * Log2 of the number of cells in a page.
+    */
+   private static final int PAGE_BITS = 10;
+   
+   /**
+    * Number of cells in a page.
+    */
+   public static final int PAGE_SIZE = 1 << PAGE_BITS;
+   
+   /**
+    * Mask giving the offset of an address inside its page.
+    */
+   private static final int OFFSET_MASK = PAGE_SIZE - 1;
+   
+   /**
+    * The page directory, null entries are pages never written.
+    * Pages are published with release stores and read with acquire loads, see {@link #allocate(int)}.
+    */
+   private final AtomicReferenceArray<int[]> pages;
+   
+   /**
+    * Number of cells.
+    */
+   private final int size;
+   
+   /**
+    * Number of pages allocated.
+    */
+   private int allocated;
+   
+   /**
+    * Creates an undefined memory.
+    *
+    * @param size the number of cells
+    */
+   public PagedMemory(int size) {
+      this.size = size;
+      pages = new AtomicReferenceArray<>((int)(((long)size + PAGE_SIZE - 1) >>> PAGE_BITS));
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public int size() {
+      return size;
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public int get(int address) {
+      int[] page = pages.getAcquire(address >>> PAGE_BITS);
+      return page == null ? Value.UNDEFINED_CELL : page[address & OFFSET_MASK];
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public void set(int address, int cell) {
+      int[] page = pages.getAcquire(address >>> PAGE_BITS);
+      if(page == null) {
+         if(cell == Value.UNDEFINED_CELL) return;  //Already undefined, don't allocate
+         page = allocate(address >>> PAGE_BITS);
+      }
+      page[address & OFFSET_MASK] = cell;
+   }
+   
+   /**
+    * Writes the cells page by page, never allocating pages that would stay undefined.
+    *
+    * @param cells the cells to write, at most {@link #size()}
+    */
+   @Override
+   public void load(int[] cells) {
+      for (int start = 0; start < cells.length; start += PAGE_SIZE) {
+         int end = Math.min(cells.length, start + PAGE_SIZE);
+         int[] page = pages.getAcquire(start >>> PAGE_BITS);
+         if(page == null) {
+            int i = start;
+            while(i < end && cells[i] == Value.UNDEFINED_CELL) i++;
+            if(i == end) continue;
+            page = allocate(start >>> PAGE_BITS);
+         }
+         System.arraycopy(cells, start, page, 0, end - start);
+      }
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public int extent() {
+      for (int p = pages.length() - 1; p >= 0; p--) {
+         if(pages.getAcquire(p) != null) return (int)Math.min(size, ((long)p + 1) << PAGE_BITS);
+      }
+      return 0;
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public long allocatedBytes() {
+      return 4L * pages.length() + (long)allocated * PAGE_SIZE * 4;
+   }
+   
+   /**
+    * Allocates an undefined page.
+    * The page is filled before being published with a release store, which pairs with the
+    * acquire loads of the readers, so concurrent readers (the GUI) see either no page or an
+    * undefined one. Like with a plain array, the cells written afterwards aren't published
+    * to other threads.
+    *
+    * @param index the index of the page
+    * @return the new page
+    */
+   private synchronized int[] allocate(int index) {
+      int[] old = pages.get(index);
+      if(old != null) return old;
+      int[] page = new int[PAGE_SIZE];
+      Arrays.fill(page, Value.UNDEFINED_CELL);
+      pages.setRelease(index, page);
+      allocated++;
+      return page;
+   }
+}
@@ -1,10 +1,15 @@
 package io.matita08.data;
 
 import io.matita08.Constants;
+import io.matita08.Log;
+import io.matita08.Metrics;
+import io.matita08.logic.Operation;
+import io.matita08.logic.Phase;
 import io.matita08.value.Value;
 import io.matita08.value.DoubleValue;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * CPU Register and Memory Management System.
@@ -37,6 +42,13 @@ import java.util.ArrayList;
  * </ul>
  * </p>
  *
+ * <p>
+ * <strong>Checkpoints:</strong>
+ * When the Central Memory is kept in a file (see {@link MappedMemory}) the registers, the flags
+ * and the {@link ControlUnit} are saved in the same file by {@link #checkpoint()} after every step,
+ * and restored when the file is reopened.
+ * </p>
+ *
  * @author Matita008
  * @version 1.5
  * @since 1.0
@@ -44,13 +56,20 @@ import java.util.ArrayList;
 public final class Registers {
    
    /**
-    * Central Memory storage as an ArrayList of Value objects.
+    * Central Memory storage, as primitive cells.
     * <p>
-    * Size is determined by {@link Constants#getMCSize()}. Each element
-    * represents one memory location that can store a Value.
+    * Size is determined by {@link Constants#getMCSize()}. Cells are converted
+    * from and to Values when accessed, see {@link Value#fromCell(int)}.
+    * The backend is chosen by the command-line options, see {@link Memory#create(int, int)}.
     * </p>
     */
-   private static final ArrayList<Value> MC = new ArrayList<>(Constants.getMCSize());
+   private static final Memory MC = Memory.create(Constants.getMCSize(), stateSize());
+   
+   /**
+    * Lowest and highest address of Central Memory written since the last call to {@link #takeDirtyMC()}.
+    * The range is empty when {@code dirtyLow > dirtyHigh}.
+    */
+   private static int dirtyLow = Integer.MAX_VALUE, dirtyHigh = -1;
    
    /**
     * Program Counter register - tracks the current instruction address.
@@ -100,10 +119,22 @@ public final class Registers {
    /** Output Buffer - sends data to output devices. */
    private static Value bufOut = Value.getNew();
    
+   /**
+    * Maximum number of characters of {@link ControlUnit#ALUOpcode} saved by a checkpoint.
+    */
+   private static final int MAX_ALU_OPCODE = 32;
+   
+   /**
+    * Whether the registers were restored from a reopened memory file.
+    */
+   private static boolean restored = false;
+   
    static {
-      // Initialize Central Memory with default values
-      for (int i = 0; i < Constants.getMCSize(); i++) {
-         MC.add(Value.getNew());
+      // Continue the run saved in the memory file, if any
+      if(MC instanceof MappedMemory mapped && mapped.isReopened() && mapped.state().getInt(0) == 1) {
+         restore(mapped.state());
+         restored = true;
+         Log.info("Restored the memory and the registers from " + Constants.getMemoryFile());
       }
    }
    
@@ -355,7 +386,7 @@ public final class Registers {
     */
    public static Value getMC(Value pos) {
       if (pos instanceof DoubleValue dv) return getMC(dv);
-      System.out.println("Invalid address type in getMC: " + pos.getClass());
+      Log.warn("Invalid address type in getMC: " + pos.getClass());
       return Value.nullValue;
    }
    
@@ -376,8 +407,9 @@ public final class Registers {
    /**
     * Reads a value from Central Memory at the specified integer address.
     * <p>
-    * Provides bounds checking and dynamic memory expansion if necessary.
-    * Returns null value for out-of-bounds addresses.
+    * Provides bounds checking, undefined cells are returned as the null value.
+    * Returns null value for out-of-bounds addresses. The read isn't counted in {@link Metrics},
+    * as the GUI reads the memory too: the CPU reads through {@link io.matita08.logic.Execution#setMarR(Value)}.
     * </p>
     *
     * @param pos the memory address as an integer
@@ -385,18 +417,17 @@ public final class Registers {
     */
    public static Value getMC(int pos) {
       if (pos >= Constants.getMCSize()) {
-         System.err.println("Memory address out of bounds: " + pos + " >= " + Constants.getMCSize());
+         Metrics.outOfBounds();
+         Log.warn("Memory address out of bounds: " + pos + " >= " + Constants.getMCSize());
          return Value.nullValue;
       }
       if (pos < 0) {
-         System.err.println("Negative memory address: " + pos);
+         Metrics.outOfBounds();
+         Log.warn("Negative memory address: " + pos);
          return Value.nullValue;
       }
       
-      // Expand memory if necessary (defensive programming)
-      while (MC.size() <= pos) MC.add(Value.getNew());
-      
-      return MC.get(pos);
+      return Value.fromCell(MC.get(pos));
    }
    
    /**
@@ -425,17 +456,83 @@ public final class Registers {
     */
    public static void setMC(int index, Value val) {
       if (index >= Constants.getMCSize() || index < 0) {
-         System.err.println("Attempted to write to invalid memory address: " + index);
+         Metrics.outOfBounds();
+         Log.warn("Attempted to write to invalid memory address: " + index);
          return;
       }
       
-      // Ensure memory is large enough
-      while (MC.size() <= index) MC.add(Value.getNew());
-      
-      MC.set(index, val);
+      Metrics.memoryWrite();
+      MC.set(index, Value.toCell(val));
+      markDirty(index, index);
+      modFlag = 1 | modFlag;  // Set bit 0 (memory modified)
+   }
+   
+   /**
+    * Replaces the contents of Central Memory, starting from address 0, with a program image.
+    * <p>
+    * Cells past the memory size are dropped with a single warning, the modification
+    * flags are updated once for the whole image.
+    * </p>
+    *
+    * @param cells the memory image, {@link Value#UNDEFINED_CELL} for undefined cells
+    */
+   public static void loadMC(int[] cells) {
+      int n = Math.min(cells.length, Constants.getMCSize());
+      if (n < cells.length) Log.warn("The program doesn't fit in the MC, " + (cells.length - n) + " cells were dropped");
+      MC.load(n < cells.length ? Arrays.copyOf(cells, n) : cells);
+      markDirty(0, n - 1);
       modFlag = 1 | modFlag;  // Set bit 0 (memory modified)
    }
    
+   /**
+    * Extends the range of Central Memory written since the last update.
+    *
+    * @param low the first written address
+    * @param high the last written address
+    */
+   private static synchronized void markDirty(int low, int high) {
+      if (low < dirtyLow) dirtyLow = low;
+      if (high > dirtyHigh) dirtyHigh = high;
+   }
+   
+   /**
+    * Gets and resets the range of Central Memory written since the last call.
+    * <p>
+    * Used by the GUI to only refresh the memory cells that actually changed.
+    * </p>
+    *
+    * @return the first and last written address, or null if nothing was written
+    */
+   public static synchronized int[] takeDirtyMC() {
+      if (dirtyLow > dirtyHigh) return null;
+      int[] range = {dirtyLow, dirtyHigh};
+      dirtyLow = Integer.MAX_VALUE;
+      dirtyHigh = -1;
+      return range;
+   }
+   
+   /**
+    * Takes a snapshot of Central Memory as a primitive image.
+    * The untouched end of the memory, which can only be undefined, is left out.
+    *
+    * @return one cell per memory location, {@link Value#UNDEFINED_CELL} for undefined cells
+    * @see #loadMC(int[])
+    */
+   public static int[] dumpMC() {
+      int[] cells = new int[MC.extent()];
+      for (int i = 0; i < cells.length; i++) cells[i] = MC.get(i);
+      return cells;
+   }
+   
+   /**
+    * Gets the storage backend of Central Memory.
+    *
+    * @return the memory backend
+    */
+   public static Memory memory() {
+      return MC;
+   }
+   
    /**
     * Writes a value to Central Memory using a generic Value address.
     * <p>
@@ -449,7 +546,7 @@ public final class Registers {
       if (pos instanceof DoubleValue dv) {
          setMC(dv, val);
       } else {
-         System.err.println("Invalid address type for setMC: " + pos.getClass());
+         Log.warn("Invalid address type for setMC: " + pos.getClass());
       }
    }
    
@@ -506,4 +603,159 @@ public final class Registers {
    public static void setOverflow(boolean overflow) {
       Flags.set(FlagsConstants.OVERFLOW, overflow);
    }
-}
\ No newline at end of file
+   
+   /**
+    * Records the operands and the result of an arithmetic operation, computing the
+    * Zero and Overflow flags only when they are read, see {@link Flags#arithmetic(boolean, int, int, Value)}.
+    *
+    * @param subtraction true for a subtraction, false for an addition
+    * @param a the first operand
+    * @param b the second operand
+    * @param result the result
+    */
+   public static void setArithmeticFlags(boolean subtraction, int a, int b, Value result) {
+      Flags.arithmetic(subtraction, a, b, result);
+   }
+   
+   /**
+    * Brings the CPU back to its power-on state with a new program.
+    * <p>
+    * The Central Memory is cleared and loaded with the cells, the program counter goes back to 0,
+    * every other register becomes undefined, the flags are cleared and the control unit restarts
+    * from the fetch phase. Used to run many programs on the reference engine in the same process.
+    * </p>
+    *
+    * @param cells the program, {@link Value#UNDEFINED_CELL} for undefined cells
+    */
+   public static void reset(int[] cells) {
+      for (int i = Math.min(cells.length, Constants.getMCSize()); i < MC.extent(); i++) MC.set(i, Value.UNDEFINED_CELL);
+      markDirty(0, MC.extent() - 1);
+      loadMC(cells);
+      pc.set(new DoubleValue(0));
+      ir = Value.getNewAddress();
+      pointer = Value.getNewAddress();
+      mar = Value.getNewAddress();
+      mdr = Value.getNewAddress();
+      Acc = Value.getNew();
+      regB = Value.getNew();
+      bufIn = Value.getNew();
+      bufOut = Value.getNew();
+      Flags.clear();
+      ControlUnit.current = ControlUnit.next = Phase.Fetch;
+      ControlUnit.currentCycle = ControlUnit.totalCycles = -1;
+      ControlUnit.opcode = Operation.Unknown;
+      ControlUnit.ALUOpcode = "";
+      modFlag = 15;  // Set bits 0-3, everything changed
+   }
+   
+   /**
+    * Checks if the registers were restored from the memory file at startup, see {@link #checkpoint()}.
+    * Loading a program then would overwrite the memory of the run being continued.
+    *
+    * @return true if a saved run is being continued
+    */
+   public static boolean isRestored() {
+      return restored;
+   }
+   
+   /**
+    * Computes the bytes needed to save the registers, see {@link #checkpoint()}.
+    *
+    * @return the size of the saved state
+    */
+   private static int stateSize() {
+      // valid mark, 9 registers (kind + words), flags, 4 control unit ints, opcode, ALU opcode
+      return 4 * (1 + 9 * (1 + Constants.getAddressSize()) + 1 + 4 + 1 + 1) + 2 * MAX_ALU_OPCODE;
+   }
+   
+   /**
+    * Saves the registers, the flags and the control unit next to the Central Memory,
+    * if it is kept in a file.
+    * <p>
+    * The state is marked invalid while it is being written, so a crash in the middle
+    * leaves the memory without registers rather than with a mix of two steps.
+    * </p>
+    */
+   public static void checkpoint() {
+      if(!(MC instanceof MappedMemory mapped)) return;
+      ByteBuffer b = mapped.state();
+      b.putInt(0);
+      for (Value v: new Value[]{pc, ir, pointer, mar, mdr, Acc, regB, bufIn, bufOut}) putValue(b, v);
+      b.putInt(Flags.save());
+      b.putInt(ControlUnit.current.ordinal()).putInt(ControlUnit.next.ordinal());
+      b.putInt(ControlUnit.currentCycle).putInt(ControlUnit.totalCycles);
+      b.putInt(ControlUnit.opcode == Operation.Unknown ? Value.UNDEFINED_CELL : ControlUnit.opcode.opcode);
+      String alu = ControlUnit.ALUOpcode;
+      int length = Math.min(alu.length(), MAX_ALU_OPCODE);
+      b.putInt(length);
+      for (int i = 0; i < length; i++) b.putChar(alu.charAt(i));
+      b.putInt(0, 1);
+   }
+   
+   /**
+    * Forces the Central Memory and the saved registers to the storage device,
+    * if the memory is kept in a file, see {@link MappedMemory#force()}.
+    */
+   public static void sync() {
+      if(MC instanceof MappedMemory mapped) mapped.force();
+   }
+   
+   /**
+    * Restores the state saved by {@link #checkpoint()}.
+    *
+    * @param b the saved state
+    */
+   private static void restore(ByteBuffer b) {
+      b.getInt();
+      pc.set(getValue(b));
+      ir = getValue(b);
+      pointer = getValue(b);
+      mar = getValue(b);
+      mdr = getValue(b);
+      Acc = getValue(b);
+      regB = getValue(b);
+      bufIn = getValue(b);
+      bufOut = getValue(b);
+      Flags.restore(b.getInt());
+      ControlUnit.current = Phase.values()[b.getInt()];
+      ControlUnit.next = Phase.values()[b.getInt()];
+      ControlUnit.currentCycle = b.getInt();
+      ControlUnit.totalCycles = b.getInt();
+      int opcode = b.getInt();
+      ControlUnit.opcode = opcode == Value.UNDEFINED_CELL ? Operation.Unknown : Operation.get(opcode);
+      char[] alu = new char[b.getInt()];
+      for (int i = 0; i < alu.length; i++) alu[i] = b.getChar();
+      ControlUnit.ALUOpcode = new String(alu);
+   }
+   
+   /**
+    * Saves a register: its kind, 0 for a word and 1 for an address, followed by
+    * {@link Constants#getAddressSize()} cells.
+    *
+    * @param b the buffer to write
+    * @param v the register
+    */
+   private static void putValue(ByteBuffer b, Value v) {
+      if(v instanceof DoubleValue dv) {
+         b.putInt(1);
+         for (int i = 0; i < Constants.getAddressSize(); i++) b.putInt(Value.toCell(dv.getWord(i)));
+      } else {
+         b.putInt(0).putInt(Value.toCell(v));
+         for (int i = 1; i < Constants.getAddressSize(); i++) b.putInt(0);
+      }
+   }
+   
+   /**
+    * Reads a register saved by {@link #putValue(ByteBuffer, Value)}.
+    *
+    * @param b the buffer to read
+    * @return the register
+    */
+   private static Value getValue(ByteBuffer b) {
+      boolean address = b.getInt() == 1;
+      Value[] words = new Value[Constants.getAddressSize()];
+      for (int i = 0; i < words.length; i++) words[i] = Value.fromCell(b.getInt());
+      if(!address) return words[0];
+      return new DoubleValue(words[0], Arrays.copyOfRange(words, 1, words.length));
+   }
+}
@@ -9,6 +9,10 @@
  * <p>Core Components:</p>
  * <ul>
  *   <li>{@link io.matita08.data.Registers} - Complete CPU register file and memory management</li>
+ *   <li>{@link io.matita08.data.Memory} - Storage backend of the central memory</li>
+ *   <li>{@link io.matita08.data.PagedMemory} - Lazily allocated memory, for large sparse address spaces</li>
+ *   <li>{@link io.matita08.data.OffHeapMemory} - Memory stored outside of the heap, for very large memories</li>
+ *   <li>{@link io.matita08.data.MappedMemory} - Memory kept in a file, persisting the run across restarts</li>
  *   <li>{@link io.matita08.data.Flags} - CPU flags system for arithmetic/logic operation results</li>
  *   <li>{@link io.matita08.data.FlagsConstants} - Enumeration of available CPU flags</li>
  *   <li>{@link io.matita08.data.ControlUnit} - Control unit state and execution phase tracking</li>
@@ -17,7 +21,7 @@
  * <p>Key Features:</p>
  * <ul>
  *   <li><strong>Comprehensive Register Management:</strong> PC, IR, MAR, MDR, Accumulator, and more</li>
- *   <li><strong>Central Memory System:</strong> Configurable memory array with Value-based storage</li>
+ *   <li><strong>Central Memory System:</strong> Configurable memory with primitive, lazily allocated storage</li>
  *   <li><strong>I/O Buffer Management:</strong> Input/output buffers for external communication</li>
  *   <li><strong>Modification Tracking:</strong> Efficient GUI update optimization through change flags</li>
  *   <li><strong>Thread Safety:</strong> Safe concurrent access to CPU state information</li>
@@ -0,0 +1,280 @@
+package io.matita08.logic;
+
+import io.matita08.Constants;
+import io.matita08.Log;
+import io.matita08.data.Registers;
+import io.matita08.program.ProgramFormatException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Instruction set described by a data file instead of an enum.
+ * <p>
+ * Every instruction is a sequence of {@link MicroOp}s: the file is validated when the {@code -o}
+ * option names it and compiled once, when its table is built, into operations that {@link InstructionTable}
+ * dispatches like the built-in ones, so instruction set variants can be tried without recompiling the simulator.
+ * </p>
+ *
+ * <p>File format, one instruction per line, {@code #} starts a comment:</p>
+ * <pre>
+ * name 3bit-sub
+ * unknown 1                     # optional, execute cycles of the unknown opcodes
+ * # opcode mnemonic operands cycles micro-operations
+ * 0 sto   1 1 sto
+ * 1 load  1 1 load
+ * 2 out   0 1 out
+ * 3 in    0 1 in
+ * 4 add   0 1 add
+ * 5 sub   0 1 sub
+ * 6 jpz   1 1 jpz
+ * 7 halt  0 1 halt
+ * 8 addm  1 1 set load add      # Acc += memory[operand]
+ * </pre>
+ * <p>
+ * The cycles are the execute cycles besides the ones reading the address operand, which take one
+ * per address word, so the same file works with every address size; the micro-operations act on the
+ * last cycle, in order. The file is rejected if the operands don't match the micro-operations
+ * (at most one reads an operand), if a jump isn't the last micro-operation or a conditional jump
+ * is combined with others, if {@code in} isn't the first one, or if there isn't exactly one
+ * instruction made only of {@code halt}, which stops the CPU.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class DefinedInstructionSet implements InstructionSet {
+   
+   /**
+    * Name of the instruction set.
+    */
+   private final String name;
+   
+   /**
+    * Path of the file, accepted as alias.
+    */
+   private final String path;
+   
+   /**
+    * The instructions, in file order.
+    */
+   private final List<Definition> definitions;
+   
+   /**
+    * Execute cycles of the opcodes that aren't part of the set.
+    */
+   private final int unknownCycles;
+   
+   /**
+    * The operations, compiled on first use, in file order and followed by the unknown one.
+    */
+   private List<Operation> operations;
+   
+   /**
+    * An instruction of the file.
+    *
+    * @param opcode the opcode
+    * @param mnemonic the mnemonic, lower case
+    * @param operands the address operands
+    * @param cycles the execute cycles besides the ones reading the operands
+    * @param microOps the micro-operations
+    */
+   private record Definition(int opcode, String mnemonic, int operands, int cycles, MicroOp[] microOps) {}
+   
+   /**
+    * Creates an instruction set.
+    *
+    * @param name the name
+    * @param path the path of the file
+    * @param definitions the instructions
+    * @param unknownCycles the execute cycles of the opcodes that aren't part of the set
+    */
+   private DefinedInstructionSet(String name, String path, List<Definition> definitions, int unknownCycles) {
+      this.name = name;
+      this.path = path;
+      this.definitions = definitions;
+      this.unknownCycles = unknownCycles;
+   }
+   
+   /**
+    * Reads and compiles an instruction set file.
+    *
+    * @param f the file
+    * @return the instruction set
+    * @throws IOException if the file can't be read
+    * @throws ProgramFormatException if the file is malformed or describes an invalid instruction set
+    */
+   public static DefinedInstructionSet read(File f) throws IOException, ProgramFormatException {
+      List<String> lines = Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+      String name = null;
+      int unknownCycles = 1;
+      List<Definition> definitions = new ArrayList<>();
+      Set<Integer> opcodes = new HashSet<>();
+      Set<String> mnemonics = new HashSet<>();
+      String halt = null;
+      for (int i = 0; i < lines.size(); i++) {
+         String line = lines.get(i);
+         int comment = line.indexOf('#');
+         if(comment >= 0) line = line.substring(0, comment);
+         if(line.isBlank()) continue;
+         String[] t = line.trim().split("\\s+");
+         int n = i + 1;
+         if(t[0].equalsIgnoreCase("name")) {
+            if(t.length != 2) throw new ProgramFormatException(n, "expected name <name>");
+            name = t[1];
+            continue;
+         }
+         if(t[0].equalsIgnoreCase("unknown")) {
+            if(t.length != 2) throw new ProgramFormatException(n, "expected unknown <cycles>");
+            unknownCycles = number(t[1], n);
+            if(unknownCycles < 1) throw new ProgramFormatException(n, "the unknown opcodes need at least 1 cycle");
+            continue;
+         }
+         if(t.length < 5) throw new ProgramFormatException(n, "expected opcode mnemonic operands cycles micro-operations");
+         int opcode = number(t[0], n), operands = number(t[2], n), cycles = number(t[3], n);
+         String mnemonic = t[1].toLowerCase(Locale.ROOT);
+         if(opcode < 0) throw new ProgramFormatException(n, "negative opcode " + opcode);
+         if(!opcodes.add(opcode)) throw new ProgramFormatException(n, "opcode " + opcode + " is defined twice");
+         if(!mnemonic.matches("[a-z][a-z0-9_]*")) throw new ProgramFormatException(n, "invalid mnemonic " + t[1]);
+         if(!mnemonics.add(mnemonic)) throw new ProgramFormatException(n, "mnemonic " + mnemonic + " is defined twice");
+         if(cycles < 1) throw new ProgramFormatException(n, "an instruction needs at least 1 cycle");
+         MicroOp[] seq = new MicroOp[t.length - 4];
+         for (int j = 0; j < seq.length; j++) {
+            seq[j] = MicroOp.of(t[j + 4]);
+            if(seq[j] == null) throw new ProgramFormatException(n, "unknown micro-operation " + t[j + 4] + ", available: " + Arrays.toString(MicroOp.values()));
+         }
+         validate(seq, operands, n);
+         if(seq[0] == MicroOp.Halt) {
+            if(halt != null) throw new ProgramFormatException(n, "only one instruction can halt, " + halt + " already does");
+            halt = mnemonic;
+         }
+         definitions.add(new Definition(opcode, mnemonic, operands, cycles, seq));
+      }
+      if(name == null) throw new ProgramFormatException(lines.size(), "missing the name of the instruction set");
+      if(halt == null) throw new ProgramFormatException(lines.size(), "no instruction halts the CPU");
+      return new DefinedInstructionSet(name, f.getPath(), List.copyOf(definitions), unknownCycles);
+   }
+   
+   /**
+    * Compiles the operations, once the options (like the address size) are all known.
+    * The operations are only created when {@link InstructionTable} asks for them, after
+    * {@link Operation} is initialized.
+    *
+    * @return the operations, followed by the unknown one
+    */
+   private synchronized List<Operation> compiled() {
+      if(operations != null) return operations;
+      List<Operation> ops = new ArrayList<>();
+      for (Definition d: definitions) {
+         if(d.opcode >= Constants.getValueMax()) Log.warn("Opcode " + d.opcode + " of " + d.mnemonic + " doesn't fit in a cell of size " + Constants.getValueMax());
+         int words = d.operands * Constants.getAddressSize();
+         ops.add(new Operation(d.opcode, compile(d.microOps, d.cycles, words), d.cycles + words, d.mnemonic, d.operands, d.microOps));
+      }
+      ops.add(new Operation(-1, n -> {}, unknownCycles, "", 0, new MicroOp[]{MicroOp.Nop}));
+      return operations = List.copyOf(ops);
+   }
+   
+   /**
+    * Checks that a sequence of micro-operations can be compiled.
+    *
+    * @param seq the micro-operations
+    * @param operands the declared operands
+    * @param line the line number, for the errors
+    * @throws ProgramFormatException if the sequence is invalid
+    */
+   private static void validate(MicroOp[] seq, int operands, int line) throws ProgramFormatException {
+      int reads = 0;
+      for (int i = 0; i < seq.length; i++) {
+         MicroOp m = seq[i];
+         if(m.hasOperand()) reads++;
+         if(m.isJump() && i != seq.length - 1) throw new ProgramFormatException(line, m + " must be the last micro-operation");
+         if((m == MicroOp.Jpz || m == MicroOp.Jpo || m == MicroOp.Halt) && seq.length > 1) throw new ProgramFormatException(line, m + " can't be combined with other micro-operations");
+         if(m == MicroOp.In && i != 0) throw new ProgramFormatException(line, "in must be the first micro-operation, it's repeated while waiting for input");
+      }
+      if(reads > 1) throw new ProgramFormatException(line, "at most one micro-operation can read an address operand");
+      if(operands != reads) throw new ProgramFormatException(line, "the micro-operations read " + reads + " operand(s), " + operands + " declared");
+   }
+   
+   /**
+    * Compiles a sequence of micro-operations into the action of an operation.
+    *
+    * @param seq the micro-operations
+    * @param cycles the execute cycles besides the ones reading the operand
+    * @param words the cycles reading the operand, one per address word
+    * @return the action, accepting the remaining cycles
+    */
+   private static Consumer<Integer> compile(MicroOp[] seq, int cycles, int words) {
+      MicroOp conditional = seq.length == 1 && seq[0].isJump() ? seq[0] : null;
+      int total = cycles + words;
+      return n -> {
+         if(n == total && conditional != null && !conditional.taken()) {
+            for (int i = 0; i < words; i++) Registers.pc().getAndInc();
+            Operation.setRemainingCycles(1);
+         }
+         else if(n > cycles) Operation.readPointer(n - cycles);
+         else if(n == 1) {
+            for (MicroOp m: seq) {
+               if(!m.execute()) return;
+            }
+         }
+      };
+   }
+   
+   /**
+    * Parses a number of the file.
+    *
+    * @param token the number
+    * @param line the line number, for the errors
+    * @return the number
+    * @throws ProgramFormatException if it isn't a number
+    */
+   private static int number(String token, int line) throws ProgramFormatException {
+      try {
+         return Integer.parseInt(token);
+      } catch (NumberFormatException e) {
+         throw new ProgramFormatException(line, "'" + token + "' is not a number");
+      }
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public String name() {
+      return name;
+   }
+   
+   /**
+    * {@inheritDoc}
+    * The path of the file selects the instruction set too.
+    */
+   @Override
+   public List<String> aliases() {
+      return List.of(path);
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public List<Operation> operations() {
+      return compiled();
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public Operation halt() {
+      for (Operation op: compiled()) {
+         if(op.microOps[0] == MicroOp.Halt) return op;
+      }
+      throw new IllegalStateException("Validated instruction sets always halt");
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public Operation unknown() {
+      List<Operation> ops = compiled();
+      return ops.get(ops.size() - 1);
+   }
+}
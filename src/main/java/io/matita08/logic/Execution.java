@@ -61,15 +61,36 @@ public class Execution {
     * coordinates GUI updates.
     * </p>
     *
-    * @return true if the step was successful, false if CPU is halted
+    * @return true if the step was successful, false if CPU is halted or waiting for input, see {@link IOChannels#isWaiting()}
     */
    public static boolean step() {
       if(ControlUnit.current == Phase.Execute && ControlUnit.opcode == Operation.Halt) return false;
+      if(IOChannels.isWaiting()) return false;
+      FlightEvents.PhaseRun event = FlightEvents.isActive() ? new FlightEvents.PhaseRun() : null;
+      if(event != null) event.begin();
       ControlUnit.current = ControlUnit.next;
       ControlUnit.next.run();
       ControlUnit.currentCycle--;
+      if(event != null && event.shouldCommit()) {
+         event.phase = ControlUnit.current.name();
+         event.operation = ControlUnit.opcode.name;
+         event.cycle = ControlUnit.currentCycle;
+         event.commit();
+      }
+      Registers.checkpoint();
+      Metrics.cycle();
+      FlightEvents.cycle();
+      if(ControlUnit.current == Phase.Execute && ControlUnit.next == Phase.Fetch) {
+         Metrics.instruction();
+         FlightEvents.instruction(ControlUnit.opcode == Operation.Halt);
+         if(ControlUnit.opcode == Operation.Halt) Registers.sync();
+         Main.startupEvent("first instruction executed");
+      }
       stepped = true;
-      Utils.runOnNewThread(Display::update);
+      if(Main.isGuiStarted()) {
+         Flags.publish();
+         Utils.runOnNewThread(Display::update);
+      }
       return true;
    }
    
@@ -172,6 +193,7 @@ public class Execution {
     */
    public static void setMarR(Value v) {
       Registers.setMAR(v);
+      Metrics.memoryRead();
       Registers.setMDR(Registers.getMC(v));
    }
    
@@ -192,10 +214,7 @@ public class Execution {
          throw new AssertionError("An error occurred\nDetails: readPointer cycle is OOB, value: " + cycle);
       
       setMarR(next());
-      if(Constants.getAddressSize() == 1) {
-         Registers.setPointer(Registers.getMDR());
-      } else {
-         Registers.getPointer().set(Registers.getMDR());
-      }
+      //The pointer keeps its DoubleValue type for every address size, words are shifted in LSB first
+      Registers.getPointer().set(Registers.getMDR());
    }
 }
\ No newline at end of file
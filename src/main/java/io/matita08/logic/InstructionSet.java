@@ -0,0 +1,61 @@
+package io.matita08.logic;
+
+import java.util.List;
+
+/**
+ * Service provider interface of the instruction sets.
+ * <p>
+ * Instruction sets are discovered with {@link java.util.ServiceLoader}: a provider implements
+ * this interface with a public no-argument constructor and is listed in
+ * {@code META-INF/services/io.matita08.logic.InstructionSet}. The providers are only asked
+ * for their operations once, {@link InstructionTable} turns them into immutable dispatch tables.
+ * </p>
+ *
+ * <p>The simulator ships {@link Operations3Bit} ({@code 3bit}, the default) and
+ * {@link Operations4Bit} ({@code 4bit}); the {@code -o} option selects the active one by name,
+ * or reads one from a file, see {@link DefinedInstructionSet}.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ * @see InstructionTable
+ */
+public interface InstructionSet {
+   
+   /**
+    * Gets the name selecting this instruction set with the {@code -o} option.
+    *
+    * @return the name, unique among the providers
+    */
+   String name();
+   
+   /**
+    * Gets other names accepted for this instruction set, like the class name used by older versions.
+    *
+    * @return the aliases, possibly empty
+    */
+   default List<String> aliases() {
+      return List.of();
+   }
+   
+   /**
+    * Gets every operation of the instruction set, including {@link #unknown()}.
+    *
+    * @return the operations
+    */
+   List<Operation> operations();
+   
+   /**
+    * Gets the operation stopping the CPU.
+    *
+    * @return the halt operation
+    */
+   Operation halt();
+   
+   /**
+    * Gets the operation executed for opcodes that aren't part of the instruction set.
+    *
+    * @return the unknown operation
+    */
+   Operation unknown();
+}
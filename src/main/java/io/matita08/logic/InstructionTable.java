@@ -0,0 +1,267 @@
+package io.matita08.logic;
+
+import io.matita08.Constants;
+import io.matita08.program.ProgramFormatException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable dispatch table of an {@link InstructionSet}.
+ * <p>
+ * A table is built once per provider, the first time its instruction set is requested, and maps
+ * every opcode to its operation with a single array access. Tables are independent of each other
+ * and of the active instruction set, so several instruction sets can be used side by side: the
+ * {@link io.matita08.program.Assembler}, the {@link io.matita08.program.Disassembler} and the
+ * {@link Machine} take the table to use, defaulting to {@link #active()}.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class InstructionTable {
+   
+   /**
+    * Providers found by the {@link java.util.ServiceLoader}, by name and alias.
+    * Finding a provider doesn't create its operations, tables are only built when requested.
+    */
+   private static final class Registry {
+      /**
+       * The providers, in discovery order.
+       */
+      static final List<InstructionSet> providers;
+      
+      /**
+       * The providers by lower case name and alias.
+       */
+      static final Map<String, InstructionSet> byName;
+      
+      /**
+       * Instruction sets read from files, see {@link DefinedInstructionSet}, by lower case name and path.
+       */
+      static final Map<String, InstructionSet> files = new ConcurrentHashMap<>();
+      
+      /**
+       * Tables already built.
+       */
+      static final Map<InstructionSet, InstructionTable> tables = new HashMap<>();
+      
+      static {
+         List<InstructionSet> list = new ArrayList<>();
+         Map<String, InstructionSet> map = new HashMap<>();
+         for (InstructionSet set: ServiceLoader.load(InstructionSet.class, InstructionSet.class.getClassLoader())) {
+            if(map.putIfAbsent(set.name().toLowerCase(Locale.ROOT), set) != null) continue;  //First provider wins
+            list.add(set);
+            for (String alias: set.aliases()) map.putIfAbsent(alias.toLowerCase(Locale.ROOT), set);
+         }
+         providers = List.copyOf(list);
+         byName = Map.copyOf(map);
+      }
+   }
+   
+   /**
+    * The table selected by {@link Constants#getOperationEnumName()}, resolved on first use.
+    */
+   private static volatile InstructionTable active;
+   
+   /**
+    * Name of the instruction set.
+    */
+   public final String name;
+   
+   /**
+    * Every operation, including {@link #unknown}.
+    */
+   public final List<Operation> operations;
+   
+   /**
+    * The operation stopping the CPU.
+    */
+   public final Operation halt;
+   
+   /**
+    * The operation of opcodes that aren't part of the instruction set.
+    */
+   public final Operation unknown;
+   
+   /**
+    * Operations indexed by opcode, null for opcodes not part of the instruction set.
+    */
+   private final Operation[] byOpcode;
+   
+   /**
+    * Builds the table of an instruction set.
+    *
+    * @param set the provider
+    */
+   private InstructionTable(InstructionSet set) {
+      name = set.name();
+      operations = List.copyOf(set.operations());
+      halt = set.halt();
+      unknown = set.unknown();
+      int max = -1;
+      for (Operation op: operations) max = Math.max(max, op.opcode);
+      byOpcode = new Operation[max + 1];
+      for (Operation op: operations) {
+         if(op.opcode >= 0 && op != unknown && byOpcode[op.opcode] == null) byOpcode[op.opcode] = op;
+      }
+   }
+   
+   /**
+    * Gets the operation of an opcode.
+    *
+    * @param opcode the opcode
+    * @return the operation, or {@link #unknown} if the opcode isn't part of the instruction set
+    */
+   public Operation decode(int opcode) {
+      Operation op = opcode >= 0 && opcode < byOpcode.length ? byOpcode[opcode] : null;
+      return op == null ? unknown : op;
+   }
+   
+   /**
+    * Checks if an opcode is part of the instruction set.
+    *
+    * @param opcode the opcode
+    * @return true if an operation other than {@link #unknown} has this opcode
+    */
+   public boolean isValid(int opcode) {
+      return opcode >= 0 && opcode < byOpcode.length && byOpcode[opcode] != null;
+   }
+   
+   /**
+    * Gets the provider of an instruction set.
+    *
+    * The name can also be the path of an instruction set file, which is read and validated
+    * the first time, see {@link DefinedInstructionSet}.
+    *
+    * @param name the name or an alias of the instruction set, case insensitive, or the path of a file
+    * @return the provider
+    * @throws IllegalArgumentException if no provider has that name, or the file is invalid
+    */
+   private static InstructionSet provider(String name) {
+      InstructionSet set = lookup(name);
+      if(set != null) return set;
+      File f = new File(name);
+      if(!f.isFile()) throw new IllegalArgumentException("Unknown instruction set " + name + ", available: " + names() + " or the path of an instruction set file");
+      synchronized(Registry.files) {
+         set = lookup(name);
+         if(set != null) return set;
+         try {
+            set = DefinedInstructionSet.read(f);
+         } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read the instruction set " + name + ": " + e.getMessage(), e);
+         } catch (ProgramFormatException e) {
+            throw new IllegalArgumentException(name + ": " + e.getMessage(), e);
+         }
+         String key = set.name().toLowerCase(Locale.ROOT);
+         if(Registry.byName.containsKey(key) || Registry.files.containsKey(key)) throw new IllegalArgumentException(name + ": the instruction set " + set.name() + " already exists");
+         Registry.files.put(key, set);
+         Registry.files.put(name.toLowerCase(Locale.ROOT), set);
+         return set;
+      }
+   }
+   
+   /**
+    * Finds an instruction set already known by name or alias.
+    *
+    * @param name the name, an alias or the path of a file already read, case insensitive
+    * @return the provider, or null if none
+    */
+   private static InstructionSet lookup(String name) {
+      String key = name.toLowerCase(Locale.ROOT);
+      InstructionSet set = Registry.byName.get(key);
+      return set != null ? set : Registry.files.get(key);
+   }
+   
+   /**
+    * Gets the name of an instruction set from one of its aliases, without building its table.
+    *
+    * @param name the name or an alias of the instruction set, case insensitive
+    * @return the name of the instruction set
+    * @throws IllegalArgumentException if no provider has that name
+    */
+   public static String canonicalName(String name) {
+      return provider(name).name();
+   }
+   
+   /**
+    * Checks if two names refer to the same instruction set, like the name saved in an image
+    * by an older version and the name given with the {@code -o} option.
+    *
+    * @param a the first name or alias
+    * @param b the second name or alias
+    * @return true if both names belong to the same provider, or are equal if one of them is unknown
+    */
+   public static boolean isSameSet(String a, String b) {
+      if(a.equals(b)) return true;
+      InstructionSet first = lookup(a);
+      return first != null && first == lookup(b);
+   }
+
+   /**
+    * Gets the table of an instruction set, building it the first time.
+    *
+    * @param name the name or an alias of the instruction set, case insensitive
+    * @return the table
+    * @throws IllegalArgumentException if no provider has that name
+    */
+   public static InstructionTable of(String name) {
+      InstructionSet set = provider(name);
+      synchronized(Registry.tables) {
+         InstructionTable t = Registry.tables.get(set);
+         if(t != null) return t;
+      }
+      // Operation creates the table of the active instruction set while it is initialized:
+      // it must be initialized before any operation is created, or its initialization would
+      // start from inside the constructor of the first operation of another instruction set
+      Operation.init();
+      InstructionTable t = new InstructionTable(set);
+      synchronized(Registry.tables) {
+         InstructionTable old = Registry.tables.putIfAbsent(set, t);
+         return old == null ? t : old;
+      }
+   }
+   
+   /**
+    * Gets the tables of every instruction set found, building them if needed.
+    *
+    * @return the tables, in discovery order
+    */
+   public static List<InstructionTable> available() {
+      List<InstructionTable> tables = new ArrayList<>();
+      for (InstructionSet set: Registry.providers) tables.add(of(set.name()));
+      return tables;
+   }
+   
+   /**
+    * Gets the names of every instruction set found.
+    *
+    * @return the names, in discovery order
+    */
+   public static List<String> names() {
+      List<String> names = new ArrayList<>();
+      for (InstructionSet set: Registry.providers) names.add(set.name());
+      return names;
+   }
+   
+   /**
+    * Gets the table of the instruction set selected with the {@code -o} option.
+    *
+    * @return the active table
+    * @throws IllegalArgumentException if the selected instruction set doesn't exist
+    */
+   public static InstructionTable active() {
+      InstructionTable t = active;
+      if(t == null) active = t = of(Constants.getOperationEnumName());
+      return t;
+   }
+   
+   /** {@inheritDoc} */
+   @Override
+   public String toString() {
+      return name;
+   }
+}
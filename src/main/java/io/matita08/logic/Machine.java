@@ -0,0 +1,640 @@
+package io.matita08.logic;
+
+import io.matita08.Constants;
+import io.matita08.Metrics;
+import io.matita08.program.MemoryImage;
+import io.matita08.value.Value;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Self-contained, instruction-level model of the simulated CPU.
+ * <p>
+ * While {@link Execution} advances the global {@link io.matita08.data.Registers} one
+ * phase at a time for the GUI, a Machine keeps its whole state in primitive fields
+ * and executes a full instruction per {@link #step()}. Machines are independent of each
+ * other, can be copied cheaply and can therefore run in parallel, which is what the
+ * batch tools (see {@link io.matita08.tools}) need.
+ * </p>
+ *
+ * <p>
+ * Cells and registers use {@link Value#UNDEFINED_CELL} for undefined contents.
+ * Where the reference engine would act on a random value (executing an undefined
+ * instruction, or using an undefined address) the machine stops with
+ * {@link Status#Undefined} instead, so that every run is deterministic.
+ * Flags that were never set read as clear.
+ * </p>
+ *
+ * <p>
+ * The instruction semantics are the {@link MicroOp}s, shared by every instruction set: the built-in
+ * tables ({@link Operations3Bit} and {@link Operations4Bit}) are matched by mnemonic against them,
+ * the ones defined by a file ({@link DefinedInstructionSet}) list theirs. The instruction set is the
+ * active one unless another is given; opcodes whose mnemonic isn't a micro-operation behave as
+ * {@link InstructionTable#unknown}.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Machine {
+   
+   /**
+    * Execution state of a machine.
+    */
+   public enum Status {
+      /** The machine can keep executing. */
+      Running,
+      /** A halt instruction was executed. */
+      Halted,
+      /** The next instruction is an input one and no input was provided, see {@link #feed(int)}. */
+      Input,
+      /** The program reached undefined behaviour (undefined instruction or address). */
+      Undefined
+   }
+   
+   /**
+    * Shorthand for {@link Value#UNDEFINED_CELL}.
+    */
+   private static final int U = Value.UNDEFINED_CELL;
+   
+   /**
+    * Decoding of an instruction set, shared by every machine using it.
+    *
+    * @param kinds micro-operation of every opcode, indexed by opcode, null for the opcodes running a sequence
+    * @param sequences micro-operations of the opcodes running more than one, indexed by opcode
+    * @param inputs whether every opcode reads an input, indexed by opcode
+    * @param defined whether every opcode is part of the instruction set, indexed by opcode
+    * @param execCycles cycles taken by the execute phase of every opcode, indexed by opcode
+    * @param unknownCycles cycles taken by the execute phase of opcodes outside the arrays
+    */
+   private record Decoding(MicroOp[] kinds, MicroOp[][] sequences, boolean[] inputs, boolean[] defined, int[] execCycles, int unknownCycles) {
+      
+      /**
+       * Decodes an instruction set, taking the micro-operations of the operations defined by
+       * an instruction set file and matching the mnemonics of the others against the micro-operations.
+       *
+       * @param table the instruction set
+       * @return the decoding
+       */
+      static Decoding of(InstructionTable table) {
+         int max = 0;
+         for (Operation op: table.operations) max = Math.max(max, op.opcode);
+         MicroOp[] kinds = new MicroOp[max + 1];
+         MicroOp[][] sequences = new MicroOp[max + 1][];
+         boolean[] inputs = new boolean[max + 1];
+         boolean[] defined = new boolean[max + 1];
+         int[] execCycles = new int[max + 1];
+         Arrays.fill(kinds, MicroOp.Nop);
+         Arrays.fill(execCycles, table.unknown.cycles);
+         for (Operation op: table.operations) {
+            if(op.opcode < 0) continue;
+            defined[op.opcode] = true;
+            if(op == table.unknown) continue;
+            execCycles[op.opcode] = op.cycles;
+            if(op == table.halt) kinds[op.opcode] = MicroOp.Halt;
+            else if(op.microOps != null && op.microOps.length > 1) {
+               kinds[op.opcode] = null;
+               sequences[op.opcode] = op.microOps;
+               inputs[op.opcode] = Arrays.asList(op.microOps).contains(MicroOp.In);
+            } else {
+               MicroOp k = op.microOps != null ? op.microOps[0] : MicroOp.of(op.name);
+               if(k != null && k != MicroOp.Halt) kinds[op.opcode] = k;
+               inputs[op.opcode] = k == MicroOp.In;
+            }
+         }
+         return new Decoding(kinds, sequences, inputs, defined, execCycles, table.unknown.cycles);
+      }
+   }
+   
+   /**
+    * Decodings already built, by instruction set.
+    */
+   private static final Map<InstructionTable, Decoding> decodings = new ConcurrentHashMap<>();
+   
+   /**
+    * Micro-operation of every opcode of the instruction set of this machine, indexed by opcode,
+    * null for the opcodes running a sequence of them.
+    */
+   private final MicroOp[] kinds;
+   
+   /**
+    * Micro-operations of the opcodes running more than one, indexed by opcode.
+    */
+   private final MicroOp[][] sequences;
+   
+   /**
+    * Whether every opcode reads an input, indexed by opcode.
+    */
+   private final boolean[] inputs;
+   
+   /**
+    * Whether every opcode is part of the instruction set, indexed by opcode.
+    */
+   private final boolean[] defined;
+   
+   /**
+    * Cycles taken by the execute phase of every opcode, indexed by opcode.
+    */
+   private final int[] execCycles;
+   
+   /**
+    * Cycles taken by the execute phase of opcodes that aren't part of the instruction set.
+    */
+   private final int unknownCycles;
+   
+   /** Central memory. */
+   final int[] mc;
+   
+   /** Number of distinct addresses, the program counter wraps around at this value. */
+   private final int addressSpace;
+   
+   /** Program counter. */
+   int pc;
+   
+   /** Instruction, memory address, memory data and pointer registers. */
+   int ir = U, mar = U, mdr = U, pointer = U;
+   
+   /** Accumulator, register B and I/O buffers. */
+   int acc = U, regB = U, bufIn = U, bufOut = U;
+   
+   /** Flags bitmask, using {@link io.matita08.data.FlagsConstants} as indexes. */
+   int flags;
+   
+   /** Clock cycles (phases) executed, matching the steps of {@link Execution#step()}. */
+   long cycles;
+   
+   /** Instructions executed. */
+   long instructions;
+   
+   /** Memory cells read by the instructions. */
+   long reads;
+   
+   /** Memory cells written by the instructions. */
+   long writes;
+   
+   /** Opcodes fetched that aren't part of the instruction set. */
+   long invalidOpcodes;
+   
+   /** Memory accesses of the instructions to addresses outside the central memory. */
+   long outOfBounds;
+   
+   /** Output instructions executed. */
+   long outputs;
+   
+   /** Current status. */
+   Status status = Status.Running;
+   
+   /** Whether the machine should stop before executing an input instruction, see {@link #feed(int)}. */
+   boolean stopOnInput;
+   
+   /** Whether a value was fed for the next input instruction. */
+   boolean inputReady;
+   
+   /**
+    * Creates a machine with an undefined central memory of {@link Constants#getMCSize()} cells,
+    * running the active instruction set.
+    */
+   public Machine() {
+      this(InstructionTable.active());
+   }
+   
+   /**
+    * Creates a machine with an undefined central memory of {@link Constants#getMCSize()} cells.
+    *
+    * @param table the instruction set to run, its mnemonics are matched against the default semantics
+    */
+   public Machine(InstructionTable table) {
+      Decoding d = decodings.computeIfAbsent(table, Decoding::of);
+      kinds = d.kinds;
+      sequences = d.sequences;
+      inputs = d.inputs;
+      defined = d.defined;
+      execCycles = d.execCycles;
+      unknownCycles = d.unknownCycles;
+      mc = new int[Constants.getMCSize()];
+      Arrays.fill(mc, U);
+      addressSpace = Constants.getAddressSpace();
+   }
+   
+   /**
+    * Creates a machine whose central memory starts with the given cells.
+    * Cells past the memory size are ignored.
+    *
+    * @param image the initial memory contents, see {@link io.matita08.program.ProgramLoader#read(java.io.File)}
+    */
+   public Machine(int[] image) {
+      this();
+      System.arraycopy(image, 0, mc, 0, Math.min(image.length, mc.length));
+   }
+   
+   /**
+    * Creates a machine whose central memory starts with the cells of an image.
+    * The cells are copied straight into the memory of the machine, so a shared image
+    * (see {@link io.matita08.program.ImageCache}) costs a single copy per machine.
+    *
+    * @param image the initial memory contents
+    */
+   public Machine(MemoryImage image) {
+      this();
+      image.copyInto(mc);
+   }
+   
+   /**
+    * Copy constructor.
+    *
+    * @param o the machine to copy
+    */
+   private Machine(Machine o) {
+      kinds = o.kinds;
+      sequences = o.sequences;
+      inputs = o.inputs;
+      defined = o.defined;
+      execCycles = o.execCycles;
+      unknownCycles = o.unknownCycles;
+      mc = o.mc.clone();
+      addressSpace = o.addressSpace;
+      pc = o.pc;
+      ir = o.ir;
+      mar = o.mar;
+      mdr = o.mdr;
+      pointer = o.pointer;
+      acc = o.acc;
+      regB = o.regB;
+      bufIn = o.bufIn;
+      bufOut = o.bufOut;
+      flags = o.flags;
+      cycles = o.cycles;
+      instructions = o.instructions;
+      reads = o.reads;
+      writes = o.writes;
+      invalidOpcodes = o.invalidOpcodes;
+      outOfBounds = o.outOfBounds;
+      outputs = o.outputs;
+      status = o.status;
+      stopOnInput = o.stopOnInput;
+      inputReady = o.inputReady;
+   }
+   
+   /**
+    * Brings the machine back to its initial state with a new memory image, reusing its memory.
+    * Cells past the memory size are ignored.
+    *
+    * @param image the initial memory contents
+    */
+   public void reset(MemoryImage image) {
+      Arrays.fill(mc, U);
+      image.copyInto(mc);
+      pc = 0;
+      ir = mar = mdr = pointer = U;
+      acc = regB = bufIn = bufOut = U;
+      flags = 0;
+      cycles = instructions = reads = writes = invalidOpcodes = outOfBounds = outputs = 0;
+      status = Status.Running;
+      stopOnInput = inputReady = false;
+   }
+   
+   /**
+    * Creates an independent copy of this machine.
+    *
+    * @return the copy
+    */
+   public Machine copy() {
+      return new Machine(this);
+   }
+   
+   /**
+    * Executes instructions until the machine stops running or the budget is exhausted.
+    *
+    * @param maxInstructions the maximum number of instructions to execute
+    * @return the status of the machine, {@link Status#Running} if the budget was exhausted
+    */
+   public Status run(long maxInstructions) {
+      long startCycles = cycles, startInstructions = instructions, startReads = reads;
+      long startWrites = writes, startInvalid = invalidOpcodes, startOutOfBounds = outOfBounds;
+      for (long i = 0; i < maxInstructions; i++) {
+         if(step() != Status.Running) break;
+      }
+      Metrics.executed(cycles - startCycles, instructions - startInstructions, reads - startReads,
+         writes - startWrites, invalidOpcodes - startInvalid, outOfBounds - startOutOfBounds);
+      return status;
+   }
+   
+   /**
+    * Executes a single instruction.
+    *
+    * @return the status after the instruction
+    */
+   public Status step() {
+      if(status == Status.Input && inputReady) status = Status.Running;
+      if(status != Status.Running) return status;
+      int op = read(pc);
+      if(op == U) return status = Status.Undefined;
+      boolean known = op >= 0 && op < kinds.length;
+      if(known && inputs[op] && stopOnInput && !inputReady) return status = Status.Input;
+      mar = pc;
+      mdr = ir = op;
+      pc = inc(pc);
+      instructions++;
+      if(!known || !defined[op]) invalidOpcodes++;
+      int exec = known ? execCycles[op] : unknownCycles;
+      cycles += 2 + exec;
+      MicroOp k = known ? kinds[op] : MicroOp.Nop;
+      if(k != null) execute(k, exec);
+      else for (MicroOp m: sequences[op]) {
+         execute(m, exec);
+         if(status != Status.Running) break;
+      }
+      return status;
+   }
+   
+   /**
+    * Executes a micro-operation.
+    *
+    * @param k the micro-operation
+    * @param exec the execute cycles of the instruction, a jump not taken only takes the first one
+    */
+   private void execute(MicroOp k, int exec) {
+      switch(k) {
+         case Sto:
+            if(readPointer()) write(pointer, acc);
+            break;
+         case Load:
+            if(readPointer()) {
+               mar = pointer;
+               acc = mdr = read(pointer);
+            }
+            break;
+         case Out:
+            bufOut = acc;
+            outputs++;
+            break;
+         case In:
+            acc = bufIn;
+            inputReady = false;
+            break;
+         case Add:
+            if(acc == U || regB == U) {
+               acc = U;
+               flags = 0;
+            } else {
+               boolean overflow = acc + regB > Constants.getValueMax();
+               acc = acc + regB;
+               flags = (acc == 0 ? 1 : 0) | (overflow ? 2 : 0);
+            }
+            break;
+         case Sub:
+            if(acc == U || regB == U) {
+               acc = U;
+               flags = 0;
+            } else {
+               acc = acc - regB;
+               flags = (acc == 0 ? 1 : 0) | (acc < 0 ? 2 : 0);
+            }
+            break;
+         case Set:
+            regB = acc;
+            break;
+         case Jmp:
+            branch(true, exec);
+            break;
+         case Jpz:
+            branch((flags & 1) == 0, exec);
+            break;
+         case Jpo:
+            branch((flags & 2) != 0, exec);
+            break;
+         case Halt:
+            status = Status.Halted;
+            break;
+         default:
+            break;
+      }
+   }
+   
+   /**
+    * Provides the value read by the next input instruction and resumes a machine
+    * stopped on {@link Status#Input}.
+    *
+    * @param value the value to place in the input buffer
+    */
+   public void feed(int value) {
+      bufIn = value;
+      inputReady = true;
+   }
+   
+   /**
+    * Sets whether the machine stops before input instructions until {@link #feed(int)} is called.
+    *
+    * @param stop true to stop on input instructions, false to read the current input buffer
+    */
+   public void setStopOnInput(boolean stop) {
+      stopOnInput = stop;
+   }
+   
+   /**
+    * Jumps to the address operand if the condition holds, otherwise skips it,
+    * taking a single execute cycle like {@link Operation#branch(int, boolean)}.
+    *
+    * @param taken whether the jump is taken
+    * @param exec the execute cycles of the instruction
+    */
+   private void branch(boolean taken, int exec) {
+      if(!taken) {
+         for (int i = 0; i < Constants.getAddressSize(); i++) pc = inc(pc);
+         cycles -= exec - 1;
+      } else if(readPointer()) pc = pointer;
+   }
+   
+   /**
+    * Reads the address operand following the instruction into the pointer register,
+    * least significant word first.
+    *
+    * @return false if the address is undefined, in which case the machine is stopped
+    */
+   private boolean readPointer() {
+      long address = 0, weight = 1;
+      boolean undefined = false;
+      for (int i = 0; i < Constants.getAddressSize(); i++) {
+         mar = pc;
+         mdr = read(pc);
+         pc = inc(pc);
+         if(mdr == U) undefined = true;
+         else if(weight <= addressSpace) address = Math.min(address + mdr * weight, addressSpace); //Past the address space is out of bounds anyway
+         else if(mdr != 0) address = addressSpace;
+         if(weight <= addressSpace) weight *= Constants.getValueMax();
+      }
+      pointer = undefined ? U : (int)address;
+      if(undefined) status = Status.Undefined;
+      return !undefined;
+   }
+   
+   /**
+    * Increments an address, wrapping around the address space like {@link io.matita08.value.DoubleValue#getAndInc()}.
+    *
+    * @param address the address to increment
+    * @return the next address
+    */
+   private int inc(int address) {
+      return address + 1 >= addressSpace ? 0 : address + 1;
+   }
+   
+   /**
+    * Reads a memory cell for an instruction, counting the read.
+    *
+    * @param address the address to read
+    * @return the cell contents
+    */
+   private int read(int address) {
+      if(address < 0 || address >= mc.length) outOfBounds++;
+      reads++;
+      return cell(address);
+   }
+   
+   /**
+    * Gets a memory cell, out of bounds addresses read as undefined.
+    *
+    * @param address the address to read
+    * @return the cell contents
+    */
+   private int cell(int address) {
+      return address >= 0 && address < mc.length ? mc[address] : U;
+   }
+   
+   /**
+    * Writes a memory cell through MAR and MDR, counting the write, out of bounds writes are ignored.
+    *
+    * @param address the address to write
+    * @param value the value to write
+    */
+   private void write(int address, int value) {
+      mar = address;
+      mdr = value;
+      if(address < 0 || address >= mc.length) {
+         outOfBounds++;
+         return;
+      }
+      writes++;
+      mc[address] = value;
+   }
+   
+   /**
+    * Computes a 64-bit fingerprint of the whole architectural state
+    * (memory, registers, flags and status), ignoring the performance counters.
+    *
+    * @return the state fingerprint
+    */
+   public long fingerprint() {
+      long h = 0x9E3779B97F4A7C15L;
+      for (int c: mc) h = mix(h, c);
+      h = mix(h, pc);
+      h = mix(h, ir);
+      h = mix(h, pointer);
+      h = mix(h, acc);
+      h = mix(h, regB);
+      h = mix(h, bufIn);
+      h = mix(h, bufOut);
+      h = mix(h, flags);
+      return mix(h, status.ordinal());
+   }
+   
+   /**
+    * Copies the whole architectural state hashed by {@link #fingerprint()}, to compare two states exactly.
+    *
+    * @param extra the number of cells to leave free at the end, for the caller
+    * @return the memory, then the registers, flags and status, then {@code extra} zeros
+    */
+   public int[] state(int extra) {
+      int[] s = Arrays.copyOf(mc, mc.length + 9 + extra);
+      int i = mc.length;
+      s[i++] = pc;
+      s[i++] = ir;
+      s[i++] = pointer;
+      s[i++] = acc;
+      s[i++] = regB;
+      s[i++] = bufIn;
+      s[i++] = bufOut;
+      s[i++] = flags;
+      s[i] = status.ordinal();
+      return s;
+   }
+   
+   /**
+    * Mixes a value into a running hash.
+    *
+    * @param h the running hash
+    * @param v the value to mix in
+    * @return the updated hash
+    */
+   public static long mix(long h, long v) {
+      h ^= v;
+      h *= 0xBF58476D1CE4E5B9L;
+      return h ^ (h >>> 31);
+   }
+   
+   /** @return the current status */
+   public Status getStatus() {return status;}
+   
+   /** @return the program counter */
+   public int getPc() {return pc;}
+   
+   /** @return the instruction register, or {@link Value#UNDEFINED_CELL} */
+   public int getIr() {return ir;}
+   
+   /** @return the memory address register, or {@link Value#UNDEFINED_CELL} */
+   public int getMar() {return mar;}
+   
+   /** @return the memory data register, or {@link Value#UNDEFINED_CELL} */
+   public int getMdr() {return mdr;}
+   
+   /** @return the accumulator, or {@link Value#UNDEFINED_CELL} */
+   public int getAcc() {return acc;}
+   
+   /** @return register B, or {@link Value#UNDEFINED_CELL} */
+   public int getRegB() {return regB;}
+   
+   /** @return the pointer register, or {@link Value#UNDEFINED_CELL} */
+   public int getPointer() {return pointer;}
+   
+   /** @return the input buffer, or {@link Value#UNDEFINED_CELL} */
+   public int getBufIn() {return bufIn;}
+   
+   /** @return the output buffer, or {@link Value#UNDEFINED_CELL} */
+   public int getBufOut() {return bufOut;}
+   
+   /** @return the flags bitmask, using {@link io.matita08.data.FlagsConstants} as indexes */
+   public int getFlags() {return flags;}
+   
+   /** @return the clock cycles executed so far */
+   public long getCycles() {return cycles;}
+   
+   /** @return the instructions executed so far */
+   public long getInstructions() {return instructions;}
+   
+   /** @return the memory cells read by the instructions so far */
+   public long getMemoryReads() {return reads;}
+   
+   /** @return the memory cells written by the instructions so far */
+   public long getMemoryWrites() {return writes;}
+   
+   /** @return the opcodes fetched so far that aren't part of the instruction set */
+   public long getInvalidOpcodes() {return invalidOpcodes;}
+   
+   /** @return the memory accesses to addresses outside the central memory so far */
+   public long getOutOfBounds() {return outOfBounds;}
+   
+   /** @return the output instructions executed so far */
+   public long getOutputs() {return outputs;}
+   
+   /** @return the size of the central memory */
+   public int getMCSize() {return mc.length;}
+   
+   /**
+    * Reads a memory cell.
+    *
+    * @param address the address to read
+    * @return the cell contents, {@link Value#UNDEFINED_CELL} if undefined or out of bounds
+    */
+   public int getMC(int address) {return cell(address);}
+}
@@ -0,0 +1,147 @@
+package io.matita08.logic;
+
+import io.matita08.data.Registers;
+
+import java.util.Locale;
+
+/**
+ * Micro-operations the instructions are made of.
+ * <p>
+ * Every micro-operation is the behaviour of the built-in instruction with the same mnemonic,
+ * implemented by the static micro-operations of {@link Operation} in the reference engine and
+ * by the {@link Machine}. The built-in instruction sets use one micro-operation per instruction,
+ * an instruction set file (see {@link DefinedInstructionSet}) may combine several of them.
+ * </p>
+ *
+ * <p>
+ * The micro-operations reading an address operand ({@link #hasOperand()}) read it during the first
+ * execute cycles of their instruction, one cycle per address word; every micro-operation then acts on
+ * the last cycle. The conditional jumps check their flag on the first cycle and, if the jump isn't
+ * taken, skip the operand and end the instruction there.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public enum MicroOp {
+   /** Stores the accumulator at the address operand. */
+   Sto(true),
+   /** Loads the cell at the address operand into the accumulator. */
+   Load(true),
+   /** Writes the accumulator to the output buffer and channels. */
+   Out(false),
+   /** Reads the input buffer, or channel, into the accumulator. */
+   In(false),
+   /** Adds register B to the accumulator, updating the flags. */
+   Add(false),
+   /** Subtracts register B from the accumulator, updating the flags. */
+   Sub(false),
+   /** Copies the accumulator to register B. */
+   Set(false),
+   /** Jumps to the address operand. */
+   Jmp(true),
+   /** Jumps to the address operand unless the Zero flag is set. */
+   Jpz(true),
+   /** Jumps to the address operand if the Overflow flag is set. */
+   Jpo(true),
+   /** Stops the CPU. */
+   Halt(false),
+   /** Does nothing, like the unknown opcodes. */
+   Nop(false);
+   
+   /**
+    * Whether this micro-operation reads an address operand.
+    */
+   private final boolean operand;
+   
+   /**
+    * Creates a micro-operation.
+    *
+    * @param operand whether it reads an address operand
+    */
+   MicroOp(boolean operand) {
+      this.operand = operand;
+   }
+   
+   /**
+    * Checks if this micro-operation reads an address operand.
+    *
+    * @return true for the memory accesses and the jumps
+    */
+   public boolean hasOperand() {
+      return operand;
+   }
+   
+   /**
+    * Checks if this micro-operation changes the program counter.
+    *
+    * @return true for the jumps
+    */
+   public boolean isJump() {
+      return this == Jmp || this == Jpz || this == Jpo;
+   }
+   
+   /**
+    * Checks if the jump of this micro-operation is taken, on the first execute cycle.
+    *
+    * @return true if the program counter will be set to the operand
+    */
+   boolean taken() {
+      if(this == Jpz) return !Registers.getZero();
+      if(this == Jpo) return Registers.getOverflow();
+      return true;
+   }
+   
+   /**
+    * Executes the last cycle of this micro-operation in the reference engine.
+    * The address operand, if any, is already in the pointer register.
+    *
+    * @return false if the instruction must be repeated, see {@link Operation#input()}
+    */
+   boolean execute() {
+      switch(this) {
+         case Sto:
+            Operation.store(1);
+            break;
+         case Load:
+            Operation.load(1);
+            break;
+         case Out:
+            Operation.output();
+            break;
+         case In:
+            return Operation.input();
+         case Add:
+            Operation.add();
+            break;
+         case Sub:
+            Operation.sub();
+            break;
+         case Set:
+            Operation.copyAccToB();
+            break;
+         case Jmp:
+         case Jpz:
+         case Jpo:
+            Operation.branch(1, true);
+            break;
+         default:
+            break;
+      }
+      return true;
+   }
+   
+   /**
+    * Gets a micro-operation by name.
+    *
+    * @param name the name, case insensitive
+    * @return the micro-operation, or null if there's none with that name
+    */
+   public static MicroOp of(String name) {
+      for (MicroOp m: values()) {
+         if(m.name().toLowerCase(Locale.ROOT).equals(name.toLowerCase(Locale.ROOT))) return m;
+      }
+      return null;
+   }
+}
@@ -1,19 +1,21 @@
 package io.matita08.logic;
 
 import io.matita08.Constants;
+import io.matita08.Log;
+import io.matita08.Metrics;
 import io.matita08.data.*;
 import io.matita08.value.Value;
 
-import java.lang.reflect.*;
 import java.util.function.Consumer;
 
 /**
  * Represents a CPU operation/instruction in the simulator with dynamic loading capabilities.
  * This class serves as a wrapper for CPU operations that can be executed by the simulation engine.
  *
- * <p>The Operation class uses reflection to dynamically load operation definitions from
- * an external enum class specified by {@link Constants#getOperationEnumName()}. This design
- * allows for flexible operation sets without modifying the core simulation logic.</p>
+ * <p>The operations are provided by the {@link InstructionSet} selected by
+ * {@link Constants#getOperationEnumName()}, discovered through {@link java.util.ServiceLoader}
+ * and looked up in its {@link InstructionTable}. This design allows for flexible operation
+ * sets without modifying the core simulation logic.</p>
  *
  * <p>Each operation contains:</p>
  * <ul>
@@ -46,8 +48,8 @@ public class Operation {
    public static Operation Unknown;
    
    /**
-    * Array containing all available operations loaded from the external enum.
-    * Operations are indexed by their position in the source enum.
+    * Array containing all available operations of the active instruction set.
+    * Operations are indexed by their position in the instruction set.
     */
    public static Operation[] all;
    
@@ -76,42 +78,33 @@ public class Operation {
    public final String name;
    
    /**
-    * Static initialization block that dynamically loads operations from the external enum.
-    * Uses reflection to instantiate operation objects based on the class name provided
-    * by {@link Constants#getOperationEnumName()}.
-    *
-    * @throws AssertionError if the operation enum class is invalid or missing required fields/methods
-    * @throws InternalError if the operation enum class or its components are not accessible
-    * @throws RuntimeException if reflection operations fail unexpectedly
+    * The number of address operands following the opcode in memory.
+    * Each operand takes {@link Constants#getAddressSize()} cells.
+    */
+   public final int operands;
+   
+   /**
+    * The micro-operations executed by this operation, in order, or null for the built-in
+    * operations, whose behaviour is the micro-operation named like their mnemonic.
     */
+   final MicroOp[] microOps;
+   
+   /**
+    * Dispatch table of the active instruction set.
+    */
+   private static final InstructionTable table = InstructionTable.active();
+   
    static {
-      try {
-         Class<?> c = Class.forName(Constants.getOperationEnumName());
-         Object allField = c.getField("all").get(null);
-         Field wr = c.getField("wrapper");
-         int sz = Array.getLength(allField);
-         all = new Operation[sz];
-         for (int i = 0; i < sz; i++) {
-            all[i] = (Operation)wr.get(Array.get(allField, i));
-         }
-         Halt = (Operation)c.getMethod("getHalt").invoke(null);
-         Unknown = (Operation)c.getMethod("getUnknown").invoke(null);
-         
-      } catch (ClassNotFoundException e) {
-         throw new AssertionError("Constants.OperationEnumName is set to an invalid class name: " + Constants.getOperationEnumName(), e);
-      } catch (NoSuchFieldException e) {
-         throw new AssertionError("Constants.OperationEnumName is set to a class who doesn't have a static all[] field: " + Constants.getOperationEnumName(), e);
-      } catch (IllegalAccessException e) {
-         throw new InternalError("Constants.OperationEnumName or one of its component is not accessible while it should: " + Constants.getOperationEnumName(),e);
-      } catch (NullPointerException npe) {
-         throw new AssertionError("Constants.OperationEnumName is set to a class who doesn't have a static all[] field or doesn't have getHalt/getUnknown method: " + Constants.getOperationEnumName(), npe);
-      } catch (InvocationTargetException e) {
-         throw new RuntimeException(e);
-      } catch (NoSuchMethodException e) {
-         throw new AssertionError("Constants.OperationEnumName is set to a class who doesn't have a static getUnknown and static getHalt field: " + Constants.getOperationEnumName(), e);
-      }
+      all = table.operations.toArray(new Operation[0]);
+      Halt = table.halt;
+      Unknown = table.unknown;
    }
    
+   /**
+    * Forces the initialization of the class, see {@link InstructionTable#of(String)}.
+    */
+   static void init() {}
+   
    /**
     * Constructs a new Operation with the specified parameters.
     * This constructor is typically called during the static initialization process
@@ -121,12 +114,29 @@ public class Operation {
     * @param act the consumer function that implements the operation logic
     * @param cycles the number of CPU cycles required for execution
     * @param name the human-readable operation name
+    * @param operands the number of address operands following the opcode
+    */
+   Operation(int opcode, Consumer<Integer> act, int cycles, String name, int operands) {
+      this(opcode, act, cycles, name, operands, null);
+   }
+   
+   /**
+    * Creates an operation executing a sequence of micro-operations, see {@link DefinedInstructionSet}.
+    *
+    * @param opcode the numeric opcode
+    * @param act the execution logic, accepting the remaining cycles
+    * @param cycles the number of execution cycles
+    * @param name the mnemonic
+    * @param operands the number of address operands following the opcode
+    * @param microOps the micro-operations executed, null if they are only known from the mnemonic
     */
-   Operation(int opcode, Consumer<Integer> act, int cycles, String name) {
+   Operation(int opcode, Consumer<Integer> act, int cycles, String name, int operands, MicroOp[] microOps) {
       action = act;
       this.opcode = opcode;
       this.cycles = cycles;
       this.name = name;
+      this.operands = operands;
+      this.microOps = microOps;
    }
    
    /**
@@ -136,22 +146,22 @@ public class Operation {
    static boolean err;
    
    /**
-    * Retrieves an operation by its opcode identifier.
+    * Retrieves an operation by its opcode identifier, with a single lookup in the dispatch table.
     * If no matching operation is found, returns the {@link #Unknown} operation
-    * and prints diagnostic information about available operations.
+    * and logs diagnostic information about available operations.
     *
     * @param opcode the opcode to search for
     * @return the matching Operation, or {@link #Unknown} if not found
     */
    public static Operation get(int opcode) {
-      for (Operation op: all) {
-         if(op.opcode == opcode) return op;
-      }
-      System.out.println("Invalid opcode received: " + opcode);
+      Operation found = table.decode(opcode);
+      if(found != Unknown || opcode == Unknown.opcode) return found;
+      Metrics.invalidOpcode();
+      Log.warn("Invalid opcode received: " + opcode);
       if(!err) {
          err = true;
          for(Operation op : all) {
-            System.out.println(op.opcode + " " + op.name);
+            Log.debug(op.opcode + " " + op.name);
          }
       }
       return Unknown;
@@ -226,4 +236,100 @@ public class Operation {
    public static Value getAndIncPc(){
       return Execution.next();
    }
-}
\ No newline at end of file
+   
+   //BEGIN SECTION Micro-operations shared by the instruction sets
+   
+   /**
+    * Loads the cell at the address operand into the accumulator.
+    * Takes 1 + {@link #getAddressSize()} cycles: the address is read first, then the cell.
+    *
+    * @param cycle the remaining execution cycles, counting down to 1
+    */
+   public static void load(int cycle) {
+      if(cycle != 1) readPointer(cycle - 1);
+      else {
+         readMC(Registers.getPointer());
+         Registers.setAcc(Registers.getMDR());
+      }
+   }
+   
+   /**
+    * Stores the accumulator in the cell at the address operand.
+    * Takes 1 + {@link #getAddressSize()} cycles: the address is read first, then the cell written.
+    *
+    * @param cycle the remaining execution cycles, counting down to 1
+    */
+   public static void store(int cycle) {
+      if(cycle != 1) readPointer(cycle - 1);
+      else setMC(Registers.getPointer(), Registers.getAcc());
+   }
+   
+   /**
+    * Copies the input buffer to the accumulator, reading it from the {@link IOChannels} first.
+    * If the input must be waited for the instruction is repeated on the next step.
+    *
+    * @return false if the instruction will be repeated
+    */
+   public static boolean input() {
+      if(IOChannels.read()) {
+         Registers.setAcc(Registers.getBufIn());
+         return true;
+      }
+      setRemainingCycles(2);
+      return false;
+   }
+   
+   /**
+    * Copies the accumulator to the output buffer and to the outputs of the {@link IOChannels}.
+    */
+   public static void output() {
+      IOChannels.write(Registers.getAcc());
+   }
+   
+   /**
+    * Copies the accumulator to register B.
+    */
+   public static void copyAccToB() {
+      Registers.setRegB(Registers.getAcc());
+   }
+   
+   /**
+    * Adds register B to the accumulator, setting the overflow flag if the sum is larger than
+    * {@link Constants#getValueMax()} and the zero flag if it's 0. The flags are only computed
+    * when they are read, see {@link Registers#setArithmeticFlags(boolean, int, int, Value)}.
+    */
+   public static void add() {
+      Value a = Registers.getAcc(), b = Registers.getRegB();
+      int x = a.get(), y = b.get();
+      Registers.setAcc(a.add(b));
+      Registers.setArithmeticFlags(false, x, y, Registers.getAcc());
+   }
+   
+   /**
+    * Subtracts register B from the accumulator, setting the overflow flag if the difference is
+    * negative and the zero flag if it's 0, computed when they are read like for {@link #add()}.
+    */
+   public static void sub() {
+      Value a = Registers.getAcc(), b = Registers.getRegB();
+      int x = a.get(), y = b.get();
+      Registers.setAcc(a.sub(b));
+      Registers.setArithmeticFlags(true, x, y, Registers.getAcc());
+   }
+   
+   /**
+    * Jumps to the address operand if the condition holds, otherwise skips it.
+    * Takes 1 + {@link #getAddressSize()} cycles when jumping and a single one when skipping:
+    * the condition is only checked on the first cycle.
+    *
+    * @param cycle the remaining execution cycles, counting down to 1
+    * @param taken whether the jump is taken
+    */
+   public static void branch(int cycle, boolean taken) {
+      if(cycle == getAddressSize() + 1 && !taken) {
+         for (int i = 0; i < getAddressSize(); i++) Registers.pc().getAndInc();
+         setRemainingCycles(1);
+      }
+      else if(cycle != 1) readPointer(cycle - 1);
+      else Registers.pc().set(Registers.getPointer());
+   }
+}
@@ -1,6 +1,6 @@
 package io.matita08.logic;
 
-import io.matita08.Constants;
+import io.matita08.data.IOChannels;
 import io.matita08.data.Registers;
 
 import java.util.function.Consumer;
@@ -28,13 +28,14 @@ import java.util.function.Consumer;
  * <p>
  * Each instruction is implemented with multi-cycle execution support,
  * handling address reading and memory operations across multiple CPU cycles.
+ * The actions are the micro-operations of {@link Operation}, shared with {@link Operations4Bit}.
  * </p>
  *
  * @author Matita008
  * @version 1.5
  * @since 1.0
  */
-@SuppressWarnings({"unused", "CodeBlock2Expr"})  //Loaded with reflection, Please keep code blocks, so if I want to edit I know how
+@SuppressWarnings({"unused", "CodeBlock2Expr"})  //Loaded through the Provider, Please keep code blocks, so if I want to edit I know how
 public enum Operations3Bit { //Using prof default table
    
    /**
@@ -52,10 +53,7 @@ public enum Operations3Bit { //Using prof default table
     * <li>Cycle 1: Store accumulator to memory[pointer]</li>
     * </ul>
     */
-   sto(0, n->{
-      if(n != 1) Operation.readPointer(n - 1);
-      else Operation.setMC(Registers.getPointer(), Registers.getAcc());
-   }, 1 + Operation.getAddressSize()),
+   sto(0, n->{Operation.store(n);}, 1 + Operation.getAddressSize(), 1),
    
    /**
     * LOAD (Load) - Opcode 1.
@@ -72,37 +70,34 @@ public enum Operations3Bit { //Using prof default table
     * <li>Cycle 1: Load memory[pointer] into accumulator</li>
     * </ul>
     */
-   load(1, n->{
-      if(n == 1) {
-         Operation.readMC(Registers.getPointer());
-         Registers.setAcc(Registers.getMDR());
-      }
-      else Operation.readPointer(n - 1);
-   }, 1 + Operation.getAddressSize()),
+   load(1, n->{Operation.load(n);}, 1 + Operation.getAddressSize(), 1),
    
    /**
     * OUT (Output) - Opcode 2.
     * <p>
     * Copies the current accumulator value to the output buffer register.
-    * This provides the interface between the CPU and output devices.
+    * This provides the interface between the CPU and output devices:
+    * the value is also passed to every output of the {@link IOChannels}.
     * </p>
     * <p>
     * Execution cycles: 1 (single-cycle operation)
     * </p>
     */
-   out(2, n->{Registers.setBufOut(Registers.getAcc());}, 1),
+   out(2, n->{Operation.output();}, 1),
    
    /**
     * IN (Input) - Opcode 3.
     * <p>
     * Copies the current input buffer value to the accumulator register.
-    * This provides the interface between input devices and the CPU.
+    * This provides the interface between input devices and the CPU:
+    * with an input attached to the {@link IOChannels} its next value is read
+    * into the input buffer first, and if it must be waited for the instruction is repeated.
     * </p>
     * <p>
     * Execution cycles: 1 (single-cycle operation)
     * </p>
     */
-   in(3, n->{Registers.setAcc(Registers.getBufIn());}, 1),
+   in(3, n->{Operation.input();}, 1),
    
    /**
     * ADD (Addition) - Opcode 4.
@@ -122,11 +117,7 @@ public enum Operations3Bit { //Using prof default table
     * Execution cycles: 1 (single-cycle operation)
     * </p>
     */
-   add(4, n->{
-      Registers.setOverflow(Registers.getAcc().get() + Registers.getRegB().get() > Constants.getValueMax());
-      Registers.setAcc(Registers.getAcc().add(Registers.getRegB()));
-      Registers.setZero(Registers.getAcc().equals(0));
-   }, 1),
+   add(4, n->{Operation.add();}, 1),
    
    /**
     * SET (Set Register B) - Opcode 5.
@@ -138,7 +129,7 @@ public enum Operations3Bit { //Using prof default table
     * Execution cycles: 1 (single-cycle operation)
     * </p>
     */
-   set(5, n->Registers.setRegB(Registers.getAcc()), 1),
+   set(5, n->{Operation.copyAccToB();}, 1),
    
    /**
     * JPZ (Jump if Zero) - Opcode 6.
@@ -155,18 +146,7 @@ public enum Operations3Bit { //Using prof default table
     * <li>Cycle 1: Check Zero flag and jump if set, otherwise continue</li>
     * </ul>
     */
-   jpz(6, n->{
-      if(n == Operation.getAddressSize() + 1) {
-         if(Registers.getZero()) {
-            Registers.pc().getAndInc();
-            Registers.pc().getAndInc();
-            Operation.setRemainingCycles(1);
-         }
-         else Operation.readPointer(n - 1);
-      }
-      else if(n != 1) Operation.readPointer(n - 1);
-      else Registers.pc().set(Registers.getPointer());
-   }, 1 + Operation.getAddressSize()),
+   jpz(6, n->{Operation.branch(n, !Registers.getZero());}, 1 + Operation.getAddressSize(), 1),
    
    /**
     * HALT (Halt Execution) - Opcode 7.
@@ -207,7 +187,19 @@ public enum Operations3Bit { //Using prof default table
     * @param cycles the number of CPU cycles required for execution
     */
    Operations3Bit(int opcode, Consumer<Integer> act, int cycles) {
-      wrapper = new Operation(opcode, act, cycles, name());
+      this(opcode, act, cycles, 0);
+   }
+   
+   /**
+    * Constructs an instruction followed by address operands.
+    *
+    * @param opcode the numeric opcode identifier
+    * @param act the execution logic as a Consumer accepting cycle number
+    * @param cycles the number of CPU cycles required for execution
+    * @param operands the number of address operands following the opcode
+    */
+   Operations3Bit(int opcode, Consumer<Integer> act, int cycles, int operands) {
+      wrapper = new Operation(opcode, act, cycles, name(), operands);
    }
    
    /**
@@ -217,7 +209,7 @@ public enum Operations3Bit { //Using prof default table
     * @param cycles the number of CPU cycles required for execution
     */
    Operations3Bit(Consumer<Integer> act, int cycles) {
-      wrapper = new Operation(-1, act, cycles, "");
+      wrapper = new Operation(-1, act, cycles, "", 0);
    }
    
    /**
@@ -246,4 +238,43 @@ public enum Operations3Bit { //Using prof default table
    public static Operation getUnknown() {
       return Unknown.wrapper;
    }
-}
\ No newline at end of file
+   
+   /**
+    * Provider of this instruction set, see {@link InstructionSet}.
+    */
+   public static final class Provider implements InstructionSet {
+      
+      /** {@inheritDoc} */
+      @Override
+      public String name() {
+         return "3bit";
+      }
+      
+      /**
+       * {@inheritDoc}
+       * The class name was used to select the instruction set before providers were introduced.
+       */
+      @Override
+      public java.util.List<String> aliases() {
+         return java.util.List.of(Operations3Bit.class.getName(), Operations3Bit.class.getSimpleName());
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public java.util.List<Operation> operations() {
+         return java.util.Arrays.stream(all).map(op -> op.wrapper).toList();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public Operation halt() {
+         return getHalt();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public Operation unknown() {
+         return getUnknown();
+      }
+   }
+}
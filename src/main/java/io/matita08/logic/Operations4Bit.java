@@ -1,4 +1,3 @@
-//TODO this is *NOT* completed, so use at your own risk
 package io.matita08.logic;
 
 import io.matita08.data.Registers;
@@ -30,9 +29,12 @@ import java.util.function.Consumer;
  * compared to the 3-bit version, including unconditional jumps and
  * overflow-based conditional branching.</p>
  *
+ * <p>The actions are the micro-operations of {@link Operation}, shared with
+ * {@link Operations3Bit}: the instructions with the same mnemonic behave the same way
+ * in both sets, in the reference engine and in the {@link Machine}.</p>
+ *
  * <p><strong>Note:</strong> This is an alternative instruction set that can be
- * selected via command-line arguments. Many operations are currently implemented
- * as stubs and require completion for full functionality.</p>
+ * selected via command-line arguments.</p>
  *
  * @author Matita008
  * @version 1.0
@@ -40,7 +42,7 @@ import java.util.function.Consumer;
  * @see Operations3Bit
  * @see Operation
  */
-@SuppressWarnings("unused")  //Loaded with reflection
+@SuppressWarnings("unused")  //Loaded through the Provider
 public enum Operations4Bit {
    
    /**
@@ -48,20 +50,18 @@ public enum Operations4Bit {
     * Loads a value from the memory address specified by the pointer register
     * into the accumulator. This is a multi-cycle operation.
     *
-    * <p><strong>Status:</strong> Stub implementation - requires completion</p>
-    * <p>Execution cycles: 2</p>
+    * <p>Execution cycles: 1 + address size</p>
     */
-   load(0,n->{}, 2),
+   load(0, n->{Operation.load(n);}, 1 + Operation.getAddressSize(), 1),
    
    /**
     * STO (Store) - Opcode 1.
     * Stores the current accumulator value to the memory address specified
     * by the pointer register. This is a multi-cycle operation.
     *
-    * <p><strong>Status:</strong> Stub implementation - requires completion</p>
-    * <p>Execution cycles: 2</p>
+    * <p>Execution cycles: 1 + address size</p>
     */
-   sto(1, n->{}, 2),
+   sto(1, n->{Operation.store(n);}, 1 + Operation.getAddressSize(), 1),
    
    /**
     * SET (Set Register B) - Opcode 2.
@@ -70,47 +70,46 @@ public enum Operations4Bit {
     *
     * <p>Execution cycles: 1 (single-cycle operation)</p>
     */
-   set(2, n->{Registers.setRegB(Registers.getAcc());}, 1),
+   set(2, n->{Operation.copyAccToB();}, 1),
    
    /**
     * IN (Input) - Opcode 3.
     * Copies the current input buffer value to the accumulator register.
-    * This provides the interface between input devices and the CPU.
+    * This provides the interface between input devices and the CPU,
+    * see {@link io.matita08.data.IOChannels}.
     *
-    * <p><strong>Status:</strong> Stub implementation - requires completion</p>
     * <p>Execution cycles: 1 (single-cycle operation)</p>
     */
-   in(3, n->{}, 1),
+   in(3, n->{Operation.input();}, 1),
    
    /**
     * OUT (Output) - Opcode 4.
     * Copies the current accumulator value to the output buffer register.
-    * This provides the interface between the CPU and output devices.
+    * This provides the interface between the CPU and output devices,
+    * see {@link io.matita08.data.IOChannels}.
     *
-    * <p><strong>Status:</strong> Stub implementation - requires completion</p>
     * <p>Execution cycles: 1 (single-cycle operation)</p>
     */
-   out(4, n->{}, 1),
+   out(4, n->{Operation.output();}, 1),
    
    /**
     * ADD (Addition) - Opcode 5.
     * Performs arithmetic addition of the accumulator and RegB, storing
-    * the result in the accumulator. Should update CPU flags.
+    * the result in the accumulator. Updates the Zero and Overflow flags.
     *
-    * <p><strong>Status:</strong> Stub implementation - requires completion</p>
     * <p>Execution cycles: 1 (single-cycle operation)</p>
     */
-   add(5, n->{}, 1),
+   add(5, n->{Operation.add();}, 1),
    
    /**
     * SUB (Subtraction) - Opcode 6.
     * Performs arithmetic subtraction of RegB from the accumulator, storing
-    * the result in the accumulator. Should update CPU flags.
+    * the result in the accumulator. Updates the Zero flag, and the Overflow
+    * flag when the result is negative.
     *
-    * <p><strong>Status:</strong> Stub implementation - requires completion</p>
     * <p>Execution cycles: 1 (single-cycle operation)</p>
     */
-   sub(6, n->{}, 1),
+   sub(6, n->{Operation.sub();}, 1),
    
    /**
     * JMP (Unconditional Jump) - Opcode 7.
@@ -119,31 +118,22 @@ public enum Operations4Bit {
     *
     * <p>Execution logic:</p>
     * <ul>
-    *   <li>Cycle 2: Read target address from memory into pointer</li>
+    *   <li>Cycles 2-N: Read target address from memory into pointer</li>
     *   <li>Cycle 1: Set PC to pointer value</li>
     * </ul>
     *
-    * <p>Execution cycles: 2</p>
+    * <p>Execution cycles: 1 + address size</p>
     */
-   jmp(7, n->{
-      if(n == 1) {
-         Registers.pc().set(Registers.getPointer().get());
-      } else {
-         Execution.setMarR(Registers.pc().getAndInc());
-         Registers.setPointer(Registers.getMDR());
-      }
-   }, 2),
+   jmp(7, n->{Operation.branch(n, true);}, 1 + Operation.getAddressSize(), 1),
    
    /**
     * JPZ (Jump if Zero) - Opcode 8.
-    * Conditional jump instruction that jumps to the specified address if
-    * the Zero flag is set. If the flag is not set, execution continues
-    * with the next instruction.
+    * Conditional jump instruction, the same as the 3-bit one: it skips the
+    * address if the Zero flag is set and jumps to it otherwise.
     *
-    * <p><strong>Status:</strong> Stub implementation - requires completion</p>
-    * <p>Execution cycles: 1</p>
+    * <p>Execution cycles: 1 + address size when jumping, 1 otherwise</p>
     */
-   jpz(8, n->{}, 1),
+   jpz(8, n->{Operation.branch(n, !Registers.getZero());}, 1 + Operation.getAddressSize(), 1),
    
    /**
     * JPO (Jump if Overflow) - Opcode 9.
@@ -151,10 +141,9 @@ public enum Operations4Bit {
     * the Overflow flag is set. If the flag is not set, execution continues
     * with the next instruction.
     *
-    * <p><strong>Status:</strong> Stub implementation - requires completion</p>
-    * <p>Execution cycles: 1</p>
+    * <p>Execution cycles: 1 + address size when jumping, 1 otherwise</p>
     */
-   jpo(9, n->{}, 1),
+   jpo(9, n->{Operation.branch(n, Registers.getOverflow());}, 1 + Operation.getAddressSize(), 1),
    
    /**
     * HALT (Halt Execution) - Opcode 15.
@@ -190,12 +179,24 @@ public enum Operations4Bit {
     * @param cycles the number of CPU cycles required for execution
     */
    Operations4Bit(int opcode, Consumer<Integer> act, int cycles) {
-      wrapper = new Operation(opcode, act, cycles, name());
+      this(opcode, act, cycles, 0);
+   }
+   
+   /**
+    * Constructs an instruction followed by address operands.
+    *
+    * @param opcode the numeric opcode identifier
+    * @param act the execution logic as a Consumer accepting cycle number
+    * @param cycles the number of CPU cycles required for execution
+    * @param operands the number of address operands following the opcode
+    */
+   Operations4Bit(int opcode, Consumer<Integer> act, int cycles, int operands) {
+      wrapper = new Operation(opcode, act, cycles, name(), operands);
    }
    
    /**
     * Gets the HALT operation for CPU termination.
-    * Used by the Operation class during dynamic loading to identify
+    * Used by the {@link Provider} to identify
     * the halt instruction.
     *
     * @return the HALT operation wrapper
@@ -206,7 +207,7 @@ public enum Operations4Bit {
    
    /**
     * Gets the UNKNOWN operation for invalid opcodes.
-    * Used by the Operation class during dynamic loading to handle
+    * Used by the {@link Provider} to handle
     * unrecognized instruction codes.
     *
     * @return the UNKNOWN operation wrapper
@@ -214,4 +215,43 @@ public enum Operations4Bit {
    public static Operation getUnknown(){
       return Unknown.wrapper;
    }
-}
\ No newline at end of file
+   
+   /**
+    * Provider of this instruction set, see {@link InstructionSet}.
+    */
+   public static final class Provider implements InstructionSet {
+      
+      /** {@inheritDoc} */
+      @Override
+      public String name() {
+         return "4bit";
+      }
+      
+      /**
+       * {@inheritDoc}
+       * The class name was used to select the instruction set before providers were introduced.
+       */
+      @Override
+      public java.util.List<String> aliases() {
+         return java.util.List.of(Operations4Bit.class.getName(), Operations4Bit.class.getSimpleName());
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public java.util.List<Operation> operations() {
+         return java.util.Arrays.stream(all).map(op -> op.wrapper).toList();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public Operation halt() {
+         return getHalt();
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      public Operation unknown() {
+         return getUnknown();
+      }
+   }
+}
@@ -10,9 +10,14 @@
  * <ul>
  *   <li>{@link io.matita08.logic.Execution} - Main execution engine implementing CPU cycle</li>
  *   <li>{@link io.matita08.logic.Operation} - Operation wrapper with dynamic instruction loading</li>
+ *   <li>{@link io.matita08.logic.InstructionSet} - Service provider interface of the instruction sets</li>
+ *   <li>{@link io.matita08.logic.InstructionTable} - Immutable dispatch table built from an instruction set</li>
  *   <li>{@link io.matita08.logic.Phase} - Execution phase enumeration (Fetch, Decode, Execute)</li>
  *   <li>{@link io.matita08.logic.Operations3Bit} - 3-bit instruction set implementation</li>
  *   <li>{@link io.matita08.logic.Operations4Bit} - 4-bit instruction set implementation</li>
+ *   <li>{@link io.matita08.logic.MicroOp} - Micro-operations the instructions of every set are made of</li>
+ *   <li>{@link io.matita08.logic.DefinedInstructionSet} - Instruction set described by a data file</li>
+ *   <li>{@link io.matita08.logic.Machine} - Self-contained instruction-level CPU used by the batch tools</li>
  * </ul>
  *
  * <p>Execution Model:</p>
@@ -20,7 +25,7 @@
  *   <li><strong>Step-by-Step Execution:</strong> Single-step and continuous execution modes</li>
  *   <li><strong>Multi-Cycle Operations:</strong> Realistic timing with variable cycle counts</li>
  *   <li><strong>Phase-Based Processing:</strong> Clear separation of fetch, decode, and execute phases</li>
- *   <li><strong>Dynamic Instruction Loading:</strong> Reflection-based operation set loading</li>
+ *   <li><strong>Dynamic Instruction Loading:</strong> Instruction sets discovered through a ServiceLoader</li>
  *   <li><strong>Memory Integration:</strong> Seamless interaction with register and memory systems</li>
  * </ul>
  *
@@ -28,6 +33,7 @@
  * <ul>
  *   <li><strong>3-Bit ISA:</strong> Basic instruction set with essential operations (LOAD, STO, ADD, etc.)</li>
  *   <li><strong>4-Bit ISA:</strong> Extended instruction set with additional operations (SUB, JMP, conditional jumps)</li>
+ *   <li><strong>Instruction set files:</strong> Variants built from the micro-operations, selected by path with {@code -o}</li>
  * </ul>
  *
  * <p>Fetch-Decode-Execute Cycle:</p>
@@ -56,10 +62,12 @@
  * </ol>
  *
  * <p>Dynamic Operation Loading:</p>
- * <p>The execution engine uses Java reflection to dynamically load instruction set
- * definitions, allowing for different CPU architectures without modifying the core
- * execution logic. Operation classes must implement the expected interface with
- * proper static methods and fields.</p>
+ * <p>Instruction sets are found with {@link java.util.ServiceLoader}, allowing for different
+ * CPU architectures without modifying the core execution logic: a provider implements
+ * {@link io.matita08.logic.InstructionSet} and is listed in
+ * {@code META-INF/services/io.matita08.logic.InstructionSet}. The {@code -o} option selects
+ * the active one by name, and every instruction set gets its own
+ * {@link io.matita08.logic.InstructionTable}, so several can be used side by side.</p>
  *
  * <p>Integration with Other Packages:</p>
  * <ul>
@@ -11,6 +11,9 @@
  *   <li>{@link io.matita08.Constants} - Configuration management and command-line processing</li>
  *   <li>{@link io.matita08.Utils} - Utility functions for file operations and threading</li>
  *   <li>{@link io.matita08.ExceptionHandler} - Global exception handling and logging</li>
+ *   <li>{@link io.matita08.Log} - Asynchronous, rate limited logger</li>
+ *   <li>{@link io.matita08.Metrics} - Live simulator metrics published through JMX</li>
+ *   <li>{@link io.matita08.FlightEvents} - JDK Flight Recorder events of execution, loads and GUI refreshes</li>
  * </ul>
  *
  * <p>The simulator is organized into several specialized sub-packages:</p>
@@ -19,6 +22,8 @@
  *   <li><strong>{@link io.matita08.data}:</strong> CPU registers, flags, and memory management</li>
  *   <li><strong>{@link io.matita08.logic}:</strong> Execution engine and CPU operations</li>
  *   <li><strong>{@link io.matita08.value}:</strong> Value representation and arithmetic system</li>
+ *   <li><strong>{@link io.matita08.program}:</strong> Program images, assembling and loading</li>
+ *   <li><strong>{@link io.matita08.tools}:</strong> Command line batch tools</li>
  * </ul>
  *
  * <p>The CPU Simulator provides a complete educational environment for understanding
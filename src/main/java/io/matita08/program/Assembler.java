@@ -0,0 +1,453 @@
+package io.matita08.program;
+
+import io.matita08.*;
+import io.matita08.logic.*;
+import io.matita08.value.Value;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Single-pass assembler for the active instruction set.
+ * <p>
+ * The source is read one line at a time and translated straight into memory cells, so
+ * sources of any size can be assembled while only the output image is kept in memory.
+ * References to labels that are not defined yet are recorded as fixups and patched
+ * once the whole source has been read.
+ * </p>
+ *
+ * <p>Syntax, one statement per line:</p>
+ * <pre>
+ * ; comments start with ';' or '#'
+ * loop:  load value     ; mnemonic of the active instruction set, followed by its address operand
+ *        add
+ *        jpz loop       ; operands are labels or numeric addresses
+ *        halt
+ * value: .data 3 ? -5   ; one cell per value, '?' for undefined
+ *        .addr loop     ; address-sized cells holding the address of a label
+ *        .org 20        ; continue assembling at address 20
+ * </pre>
+ *
+ * <p>Mnemonics are case-insensitive and are taken from {@link Operation#all}, operands are
+ * encoded on {@link Constants#getAddressSize()} cells, least significant word first, as
+ * expected by {@link io.matita08.logic.Execution#readPointer(int)}. Labels are case-sensitive.
+ * Numbers are decimal, or hexadecimal, octal and binary with the {@code 0x}, {@code 0o} and {@code 0b}
+ * prefixes; {@code .data} values must fit in a cell, between {@code -valueMax} and {@code valueMax} excluded.</p>
+ *
+ * <p>Command line usage: {@code asm <source> [output] [options]}; the output, in the format
+ * read by {@link ProgramLoader}, defaults to the source name with the {@code .txt} extension, or
+ * {@code .mc.txt} if the source already has it; an output with the {@link MemoryImage#EXTENSION}
+ * extension is written as a binary image. The source is never overwritten.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Assembler {
+   
+   /**
+    * Operations of the active instruction set, keyed by lowercase mnemonic.
+    */
+   private final Map<String, Operation> mnemonics = new HashMap<>();
+   
+   /**
+    * Assembled cells, grown as needed.
+    */
+   private int[] cells = new int[Constants.getMCSize()];
+   
+   /**
+    * Number of cells of the image (highest written address + 1).
+    */
+   private int size;
+   
+   /**
+    * Address where the next cell will be written.
+    */
+   private int loc;
+   
+   /**
+    * Current 1-based source line.
+    */
+   private int line;
+   
+   /**
+    * Label ids, keyed by name.
+    */
+   private final Map<String, Integer> labels = new HashMap<>();
+   
+   /**
+    * Address of every label, indexed by label id, -1 while undefined.
+    */
+   private int[] labelAddress = new int[64];
+   
+   /**
+    * Pending fixups: address of the operand, label id and source line.
+    */
+   private int[] fixAt = new int[64], fixLabel = new int[64], fixLine = new int[64];
+   
+   /**
+    * Number of pending fixups.
+    */
+   private int fixups;
+   
+   /**
+    * Number of distinct addresses representable by an operand.
+    */
+   private final long addressSpace;
+   
+   /**
+    * Creates an assembler for the active instruction set and configuration.
+    */
+   public Assembler() {
+      this(InstructionTable.active());
+   }
+   
+   /**
+    * Creates an assembler for an instruction set, with the active configuration.
+    *
+    * @param table the instruction set to assemble for
+    */
+   public Assembler(InstructionTable table) {
+      for (Operation op: table.operations) {
+         if(op == table.unknown || op.name.isEmpty()) continue;
+         mnemonics.put(op.name.toLowerCase(Locale.ROOT), op);
+      }
+      addressSpace = Constants.getAddressSpace();
+      Arrays.fill(cells, Value.UNDEFINED_CELL);
+   }
+   
+   /**
+    * Assembles a source file.
+    *
+    * @param f the source file
+    * @return the assembled memory image, see {@link ProgramLoader#read(File)}
+    * @throws IOException if the file can't be read
+    * @throws AssemblerException if the source is malformed
+    */
+   public static int[] assemble(File f) throws IOException, AssemblerException {
+      try (Reader r = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
+         return new Assembler().assemble(r);
+      }
+   }
+   
+   /**
+    * Assembles a source, reading it until the end.
+    * An assembler instance can only be used once.
+    *
+    * @param source the source to assemble
+    * @return the assembled memory image
+    * @throws IOException if the source can't be read
+    * @throws AssemblerException if the source is malformed
+    */
+   public int[] assemble(Reader source) throws IOException, AssemblerException {
+      BufferedReader in = new BufferedReader(source, 1 << 16);
+      String s;
+      while((s = in.readLine()) != null) {
+         line++;
+         statement(s);
+      }
+      for (int i = 0; i < fixups; i++) {
+         int address = labelAddress[fixLabel[i]];
+         if(address < 0) throw new AssemblerException(fixLine[i], "undefined label " + labelName(fixLabel[i]));
+         encode(fixAt[i], address, fixLine[i]);
+      }
+      return Arrays.copyOf(cells, size);
+   }
+   
+   /**
+    * Assembles a single source line.
+    *
+    * @param s the line
+    * @throws AssemblerException if the line is malformed
+    */
+   private void statement(String s) throws AssemblerException {
+      int end = s.length();
+      for (int i = 0; i < end; i++) {
+         char c = s.charAt(i);
+         if(c == ';' || c == '#') end = i;
+      }
+      int p = skipBlank(s, 0, end);
+      int t = token(s, p, end);
+      if(t == p) return;
+      if(s.charAt(t - 1) == ':') {
+         defineLabel(s.substring(p, t - 1));
+         p = skipBlank(s, t, end);
+         t = token(s, p, end);
+         if(t == p) return;
+      }
+      String word = s.substring(p, t);
+      p = skipBlank(s, t, end);
+      if(word.charAt(0) == '.') {
+         directive(word, s, p, end);
+         return;
+      }
+      Operation op = mnemonics.get(word.toLowerCase(Locale.ROOT));
+      if(op == null) throw new AssemblerException(line, "unknown mnemonic " + word);
+      emit(op.opcode);
+      for (int i = 0; i < op.operands; i++) {
+         t = token(s, p, end);
+         if(t == p) throw new AssemblerException(line, word + " requires " + op.operands + " operand(s)");
+         operand(s.substring(p, t));
+         p = skipBlank(s, t, end);
+      }
+      if(p != end) throw new AssemblerException(line, "unexpected " + s.substring(p, end).trim());
+   }
+   
+   /**
+    * Assembles a directive.
+    *
+    * @param name the directive, including the leading dot
+    * @param s the line
+    * @param p the start of the arguments
+    * @param end the end of the statement
+    * @throws AssemblerException if the directive is malformed
+    */
+   private void directive(String name, String s, int p, int end) throws AssemblerException {
+      switch(name.toLowerCase(Locale.ROOT)) {
+         case ".data":
+            while(p < end) {
+               int t = token(s, p, end);
+               String v = s.substring(p, t);
+               emit("?".equals(v) ? Value.UNDEFINED_CELL : value(v));
+               p = skipBlank(s, t, end);
+            }
+            break;
+         case ".addr":
+            while(p < end) {
+               int t = token(s, p, end);
+               operand(s.substring(p, t));
+               p = skipBlank(s, t, end);
+            }
+            break;
+         case ".org":
+            int t = token(s, p, end);
+            if(t == p) throw new AssemblerException(line, ".org requires an address");
+            int address = number(s.substring(p, t));
+            if(address < 0 || address >= Constants.getMCSize()) throw new AssemblerException(line, "address " + address + " is outside the central memory");
+            loc = address;
+            break;
+         default:
+            throw new AssemblerException(line, "unknown directive " + name);
+      }
+   }
+   
+   /**
+    * Emits an address operand, either numeric or a label.
+    *
+    * @param operand the operand text
+    * @throws AssemblerException if the operand is malformed or out of range
+    */
+   private void operand(String operand) throws AssemblerException {
+      int at = loc;
+      for (int i = 0; i < Constants.getAddressSize(); i++) emit(Value.UNDEFINED_CELL);
+      char c = operand.charAt(0);
+      if(c == '-' || c == '+' || (c >= '0' && c <= '9')) {
+         encode(at, number(operand), line);
+         return;
+      }
+      int id = labelId(operand);
+      if(labelAddress[id] >= 0) {
+         encode(at, labelAddress[id], line);
+         return;
+      }
+      if(fixups == fixAt.length) {
+         fixAt = Arrays.copyOf(fixAt, fixups * 2);
+         fixLabel = Arrays.copyOf(fixLabel, fixups * 2);
+         fixLine = Arrays.copyOf(fixLine, fixups * 2);
+      }
+      fixAt[fixups] = at;
+      fixLabel[fixups] = id;
+      fixLine[fixups++] = line;
+   }
+   
+   /**
+    * Writes an address on {@link Constants#getAddressSize()} cells, least significant word first.
+    *
+    * @param at the first cell
+    * @param address the address to write
+    * @param line the line of the operand, for the errors
+    * @throws AssemblerException if the address can't be represented
+    */
+   private void encode(int at, int address, int line) throws AssemblerException {
+      if(address < 0 || address >= addressSpace) throw new AssemblerException(line, "address " + address + " can't be represented on " + Constants.getAddressSize() + " word(s)");
+      for (int i = 0; i < Constants.getAddressSize(); i++) {
+         cells[at + i] = address % Constants.getValueMax();
+         address /= Constants.getValueMax();
+      }
+   }
+   
+   /**
+    * Writes a cell at the current address and advances it.
+    *
+    * @param value the cell to write
+    * @throws AssemblerException if the program doesn't fit in the central memory
+    */
+   private void emit(int value) throws AssemblerException {
+      if(loc >= Constants.getMCSize()) throw new AssemblerException(line, "the program doesn't fit in " + Constants.getMCSize() + " cells");
+      if(loc >= cells.length) {
+         int old = cells.length;
+         cells = Arrays.copyOf(cells, Math.max(old * 2, loc + 1));
+         Arrays.fill(cells, old, cells.length, Value.UNDEFINED_CELL);
+      }
+      cells[loc++] = value;
+      if(loc > size) size = loc;
+   }
+   
+   /**
+    * Defines a label at the current address.
+    *
+    * @param name the label name
+    * @throws AssemblerException if the label is already defined or the name is invalid
+    */
+   private void defineLabel(String name) throws AssemblerException {
+      if(name.isEmpty() || Character.isDigit(name.charAt(0)) || name.charAt(0) == '-') throw new AssemblerException(line, "invalid label name \"" + name + "\"");
+      int id = labelId(name);
+      if(labelAddress[id] >= 0) throw new AssemblerException(line, "label " + name + " is already defined");
+      labelAddress[id] = loc;
+   }
+   
+   /**
+    * Gets the id of a label, registering it if it's new.
+    *
+    * @param name the label name
+    * @return the label id
+    */
+   private int labelId(String name) {
+      Integer id = labels.get(name);
+      if(id != null) return id;
+      id = labels.size();
+      labels.put(name, id);
+      if(id == labelAddress.length) labelAddress = Arrays.copyOf(labelAddress, id * 2);
+      labelAddress[id] = -1;
+      return id;
+   }
+   
+   /**
+    * Gets the name of a label from its id, only used for error messages.
+    *
+    * @param id the label id
+    * @return the label name
+    */
+   private String labelName(int id) {
+      for (Map.Entry<String, Integer> e: labels.entrySet()) {
+         if(e.getValue() == id) return e.getKey();
+      }
+      return "#" + id;
+   }
+   
+   /**
+    * Parses a number, decimal or with a {@code 0x}, {@code 0o} or {@code 0b} radix prefix, optionally signed.
+    *
+    * @param v the text to parse
+    * @return the number
+    * @throws AssemblerException if the text isn't a number
+    */
+   private int number(String v) throws AssemblerException {
+      int p = v.startsWith("-") || v.startsWith("+") ? 1 : 0;
+      int radix = 10;
+      if(v.length() > p + 2 && v.charAt(p) == '0') {
+         switch(Character.toLowerCase(v.charAt(p + 1))) {
+            case 'x':
+               radix = 16;
+               break;
+            case 'o':
+               radix = 8;
+               break;
+            case 'b':
+               radix = 2;
+               break;
+            default:
+               break;
+         }
+      }
+      String digits = radix == 10 ? v : v.substring(0, p) + v.substring(p + 2);
+      try {
+         return Integer.parseInt(digits, radix);
+      } catch (NumberFormatException e) {
+         throw new AssemblerException(line, "\"" + v + "\" is not a number");
+      }
+   }
+   
+   /**
+    * Parses the value of a cell, see {@link #number(String)}.
+    *
+    * @param v the text to parse
+    * @return the value
+    * @throws AssemblerException if the text isn't a number or doesn't fit in a cell
+    */
+   private int value(String v) throws AssemblerException {
+      int n = number(v);
+      if(n <= -Constants.getValueMax() || n >= Constants.getValueMax()) throw new AssemblerException(line, "value " + n + " doesn't fit in a cell of size " + Constants.getValueMax());
+      return n;
+   }
+   
+   /**
+    * Finds the end of the token starting at the given position.
+    * Tokens are separated by blanks and commas.
+    *
+    * @param s the line
+    * @param p the start of the token
+    * @param end the end of the statement
+    * @return the index after the last character of the token
+    */
+   private static int token(String s, int p, int end) {
+      while(p < end && !isBlank(s.charAt(p))) p++;
+      return p;
+   }
+   
+   /**
+    * Skips blanks and commas.
+    *
+    * @param s the line
+    * @param p the position to start from
+    * @param end the end of the statement
+    * @return the index of the next non-blank character, or end
+    */
+   private static int skipBlank(String s, int p, int end) {
+      while(p < end && isBlank(s.charAt(p))) p++;
+      return p;
+   }
+   
+   /**
+    * Checks if a character separates tokens.
+    *
+    * @param c the character
+    * @return true for whitespace and commas
+    */
+   private static boolean isBlank(char c) {
+      return c == ' ' || c == '\t' || c == ',' || c == '\r';
+   }
+   
+   /**
+    * Command line entry point, see the class documentation for the usage.
+    *
+    * @param args the tool arguments
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      if(pos.length < 1) {
+         System.out.println("Usage: asm <source> [output] [options]");
+         return;
+      }
+      File src = new File(pos[0]);
+      String base = pos[0].replaceFirst("\\.[^./\\\\]*$", "");
+      File out = new File(pos.length > 1 ? pos[1] : pos[0].equals(base + ".txt") ? base + ".mc.txt" : base + ".txt");
+      try {
+         if(out.exists() && src.exists() && out.getCanonicalFile().equals(src.getCanonicalFile())) {
+            System.err.println("The output " + out + " is the source itself, choose another output");
+            return;
+         }
+         long start = System.nanoTime();
+         int[] image = assemble(src);
+         if(MemoryImage.isImage(out)) new MemoryImage(image).write(out);
+         else ProgramLoader.write(out, image);
+         System.out.println("Assembled " + image.length + " cells into " + out + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+      } catch (AssemblerException e) {
+         System.err.println(src + ": " + e.getMessage());
+      } catch (IOException e) {
+         System.err.println("Unable to assemble " + src + ": " + e.getMessage());
+      }
+   }
+}
@@ -0,0 +1,33 @@
+package io.matita08.program;
+
+/**
+ * Exception thrown by the {@link Assembler} when the source is malformed.
+ * The message always includes the line where the problem was found.
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public class AssemblerException extends Exception {
+   
+   /**
+    * Serialization version.
+    */
+   private static final long serialVersionUID = 1L;
+   
+   /**
+    * The 1-based source line of the error.
+    */
+   public final int line;
+   
+   /**
+    * Creates a new exception for the given line.
+    *
+    * @param line the 1-based source line of the error
+    * @param message the description of the problem
+    */
+   public AssemblerException(int line, String message) {
+      super("line " + line + ": " + message);
+      this.line = line;
+   }
+}
@@ -0,0 +1,184 @@
+package io.matita08.program;
+
+import io.matita08.Constants;
+import io.matita08.logic.*;
+import io.matita08.value.Value;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Incremental linear-sweep disassembler of the central memory.
+ * <p>
+ * Decoding starts at address 0 and every instruction takes its opcode cell plus
+ * {@link Operation#operands} addresses of {@link Constants#getAddressSize()} cells each.
+ * The disassembler only keeps, for every address, the start of the instruction covering it:
+ * the text of an instruction is produced on request, from the current memory contents,
+ * so views only pay for the rows they show.
+ * </p>
+ *
+ * <p>
+ * When some cells are written, {@link #update(int, int)} decodes again from the instruction
+ * covering the first written cell and stops as soon as, past the last written cell, an
+ * instruction starts where one started before: from there on the old decoding is still valid.
+ * Writes to operands, or opcodes replaced by opcodes with the same length, cost a single instruction.
+ * </p>
+ *
+ * <p>The text uses the syntax of the {@link Assembler}: opcodes that aren't part of the
+ * instruction set and undefined cells are shown as {@code .data}.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Disassembler {
+   
+   /**
+    * Operations of the instruction set, indexed by opcode.
+    */
+   private final Operation[] byOpcode;
+   
+   /**
+    * Source of the memory cells, gives {@link Value#UNDEFINED_CELL} for undefined ones.
+    */
+   private final IntUnaryOperator cells;
+   
+   /**
+    * Start of the instruction covering every address.
+    */
+   private final int[] owner;
+   
+   /**
+    * Creates a disassembler for the active instruction set and decodes the whole memory.
+    *
+    * @param cells the source of the memory cells, giving {@link Value#UNDEFINED_CELL} for undefined ones
+    * @param size the number of cells to decode
+    */
+   public Disassembler(IntUnaryOperator cells, int size) {
+      this(cells, size, InstructionTable.active());
+   }
+   
+   /**
+    * Creates a disassembler for an instruction set and decodes the whole memory.
+    *
+    * @param cells the source of the memory cells, giving {@link Value#UNDEFINED_CELL} for undefined ones
+    * @param size the number of cells to decode
+    * @param table the instruction set to decode
+    */
+   public Disassembler(IntUnaryOperator cells, int size, InstructionTable table) {
+      this.cells = cells;
+      int max = 0;
+      for (Operation op: table.operations) max = Math.max(max, op.opcode);
+      byOpcode = new Operation[max + 1];
+      for (Operation op: table.operations) {
+         if(op.opcode >= 0 && op != table.unknown && !op.name.isEmpty()) byOpcode[op.opcode] = op;
+      }
+      owner = new int[size];
+      for (int pos = 0; pos < size; ) pos = decode(pos);
+   }
+   
+   /**
+    * Decodes again the instructions affected by a write.
+    *
+    * @param low the first written address
+    * @param high the last written address
+    * @return the first and last address whose text may have changed, or null if nothing changed
+    */
+   public int[] update(int low, int high) {
+      low = Math.max(low, 0);
+      high = Math.min(high, owner.length - 1);
+      if(low > high) return null;
+      int start = owner[low], pos = start;
+      while(pos < owner.length && (pos <= high || owner[pos] != pos)) pos = decode(pos);
+      return new int[]{start, pos - 1};
+   }
+   
+   /**
+    * Decodes the instruction starting at an address.
+    *
+    * @param pos the address of the opcode
+    * @return the address following the instruction
+    */
+   private int decode(int pos) {
+      int end = Math.min(owner.length, pos + length(cells.applyAsInt(pos)));
+      for (int i = pos; i < end; i++) owner[i] = pos;
+      return end;
+   }
+   
+   /**
+    * Gets the number of cells taken by an instruction.
+    *
+    * @param opcode the opcode cell
+    * @return 1 plus the cells of its operands
+    */
+   private int length(int opcode) {
+      Operation op = operation(opcode);
+      return op == null ? 1 : 1 + op.operands * Constants.getAddressSize();
+   }
+   
+   /**
+    * Gets the operation of an opcode.
+    *
+    * @param opcode the opcode cell
+    * @return the operation, null if the opcode isn't part of the instruction set
+    */
+   private Operation operation(int opcode) {
+      return opcode >= 0 && opcode < byOpcode.length ? byOpcode[opcode] : null;
+   }
+   
+   /**
+    * Checks if an instruction starts at an address.
+    *
+    * @param address the address to check
+    * @return false if the address holds an operand
+    */
+   public boolean isInstruction(int address) {
+      return owner[address] == address;
+   }
+   
+   /**
+    * Gets the start of the instruction covering an address.
+    *
+    * @param address the address
+    * @return the address of the opcode
+    */
+   public int instructionAt(int address) {
+      return owner[address];
+   }
+   
+   /**
+    * Gets the number of decoded cells.
+    *
+    * @return the size of the decoded memory
+    */
+   public int size() {
+      return owner.length;
+   }
+   
+   /**
+    * Produces the text of the instruction starting at an address.
+    *
+    * @param address the address of the opcode
+    * @return the instruction, or an empty string if the address holds an operand
+    */
+   public String describe(int address) {
+      if(owner[address] != address) return "";
+      int opcode = cells.applyAsInt(address);
+      if(opcode == Value.UNDEFINED_CELL) return ".data ?";
+      Operation op = operation(opcode);
+      if(op == null) return ".data " + opcode;
+      StringBuilder sb = new StringBuilder(op.name);
+      int pos = address + 1;
+      for (int i = 0; i < op.operands; i++) {
+         long value = 0, weight = 1;
+         boolean defined = true;
+         for (int j = 0; j < Constants.getAddressSize(); j++, pos++) {
+            int c = pos < owner.length ? cells.applyAsInt(pos) : Value.UNDEFINED_CELL;
+            if(c == Value.UNDEFINED_CELL) defined = false;
+            else value += c * weight;
+            weight *= Constants.getValueMax();
+         }
+         sb.append(i == 0 ? " " : ", ").append(defined ? Long.toString(value) : "?");
+      }
+      return sb.toString();
+   }
+}
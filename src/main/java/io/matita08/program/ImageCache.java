@@ -0,0 +1,233 @@
+package io.matita08.program;
+
+import io.matita08.Constants;
+import io.matita08.FlightEvents;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * In-process cache of parsed program images, for tools that load the same programs over and over.
+ * <p>
+ * Images are keyed by the SHA-256 of the file content together with everything in
+ * {@link Constants} that affects parsing (file kind, radix, valueMax, addressSize,
+ * MC size and instruction set), so renamed or copied files share an entry and a
+ * change of configuration never returns a stale image. The file is read once on every load,
+ * as its size and modification time can't tell reliably whether it changed: the same bytes
+ * are hashed and, on a miss, parsed, so a file rewritten meanwhile can't be cached under the
+ * hash of its old content. For the small files of this simulator it's much cheaper than parsing.
+ * </p>
+ *
+ * <p>
+ * The cache holds immutable {@link MemoryImage}s and evicts the least recently used
+ * ones once their cells exceed the byte budget; an image larger than the whole budget is
+ * simply not cached. All methods are thread-safe, parsing happens outside of the lock.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class ImageCache {
+   
+   /**
+    * Default byte budget of {@link #shared}, 64 MiB.
+    */
+   public static final long DEFAULT_BUDGET = 64L << 20;
+   
+   /**
+    * Cache shared by the whole application.
+    */
+   public static final ImageCache shared = new ImageCache(DEFAULT_BUDGET);
+   
+   /**
+    * Fixed cost accounted for every entry, on top of its cells.
+    */
+   private static final int ENTRY_OVERHEAD = 128;
+   
+   /**
+    * Images in access order, the eldest is evicted first.
+    */
+   private final LinkedHashMap<String, MemoryImage> images = new LinkedHashMap<>(16, 0.75f, true);
+   
+   /**
+    * Maximum number of bytes of cells kept.
+    */
+   private final long budget;
+   
+   /**
+    * Bytes currently used.
+    */
+   private long used;
+   
+   /**
+    * Number of loads served from the cache and number of loads that had to parse the file.
+    */
+   private long hits, misses;
+   
+   /**
+    * Creates a cache.
+    *
+    * @param budget the maximum number of bytes of cells to keep
+    */
+   public ImageCache(long budget) {
+      this.budget = budget;
+   }
+   
+   /**
+    * Loads a program, see {@link ProgramLoader#load(File)}, returning a private copy of its cells.
+    *
+    * @param f the file to load
+    * @return the memory cells, owned by the caller
+    * @throws IOException if the file can't be read or is a corrupted binary image
+    * @throws ProgramFormatException if a line of a text program is malformed
+    * @throws AssemblerException if an assembly source is malformed
+    */
+   public int[] load(File f) throws IOException, ProgramFormatException, AssemblerException {
+      return get(f).getCells();
+   }
+   
+   /**
+    * Gets the image of a program, parsing it only if its content wasn't seen before
+    * with the running configuration. The image is shared and immutable, use
+    * {@link MemoryImage#copyInto(int[])} or {@link MemoryImage#getCells()} to get the cells.
+    *
+    * @param f the file to load
+    * @return the image
+    * @throws IOException if the file can't be read or is a corrupted binary image
+    * @throws ProgramFormatException if a line of a text program is malformed
+    * @throws AssemblerException if an assembly source is malformed
+    */
+   public MemoryImage get(File f) throws IOException, ProgramFormatException, AssemblerException {
+      if(!FlightEvents.isActive()) return lookup(f, null);
+      FlightEvents.ProgramLoad event = new FlightEvents.ProgramLoad();
+      event.begin();
+      event.file = f.getPath();
+      try {
+         MemoryImage img = lookup(f, event);
+         event.cells = img.size();
+         return img;
+      } finally {
+         event.commit();
+      }
+   }
+   
+   /**
+    * Gets the image of a program, from the cache or parsing it.
+    *
+    * @param f the file to load
+    * @param event the event recording the load, may be null
+    * @return the image
+    * @throws IOException if the file can't be read or is a corrupted binary image
+    * @throws ProgramFormatException if a line of a text program is malformed
+    * @throws AssemblerException if an assembly source is malformed
+    */
+   private MemoryImage lookup(File f, FlightEvents.ProgramLoad event) throws IOException, ProgramFormatException, AssemblerException {
+      byte[] content = Files.readAllBytes(f.toPath());
+      String key = hash(content) + '|' + configuration(f);
+      synchronized(this) {
+         MemoryImage img = images.get(key);
+         if(img != null) {
+            hits++;
+            if(event != null) event.cached = true;
+            return img;
+         }
+         misses++;
+      }
+      MemoryImage img = ProgramLoader.loadImage(f, content);
+      long cost = cost(img);
+      if(cost > budget) return img;
+      synchronized(this) {
+         MemoryImage old = images.put(key, img);
+         if(old != null) used -= cost(old);
+         used += cost;
+         Iterator<MemoryImage> it = images.values().iterator();
+         while(used > budget && it.hasNext()) {
+            used -= cost(it.next());
+            it.remove();
+         }
+      }
+      return img;
+   }
+   
+   /**
+    * Removes every image.
+    */
+   public synchronized void clear() {
+      images.clear();
+      used = 0;
+   }
+   
+   /**
+    * Gets the number of bytes currently used by the cached images.
+    *
+    * @return the bytes used, never more than the budget
+    */
+   public synchronized long getUsedBytes() {
+      return used;
+   }
+   
+   /**
+    * Gets the number of images currently cached.
+    *
+    * @return the number of images
+    */
+   public synchronized int size() {
+      return images.size();
+   }
+   
+   /**
+    * Gets the number of loads served from the cache.
+    *
+    * @return the number of hits
+    */
+   public synchronized long getHits() {
+      return hits;
+   }
+   
+   /**
+    * Gets the number of loads that had to parse the file.
+    *
+    * @return the number of misses
+    */
+   public synchronized long getMisses() {
+      return misses;
+   }
+   
+   /**
+    * Computes the bytes accounted for an image.
+    *
+    * @param img the image
+    * @return the cost of the image
+    */
+   private static long cost(MemoryImage img) {
+      return 4L * img.size() + ENTRY_OVERHEAD;
+   }
+   
+   /**
+    * Describes the part of the running configuration that affects how a file is parsed.
+    *
+    * @param f the file being loaded
+    * @return the configuration part of the key
+    */
+   private static String configuration(File f) {
+      String kind = f.getName().endsWith(".asm") ? "asm" : MemoryImage.isImage(f) ? "bin" : "txt";
+      return kind + '|' + Constants.getRadix() + '|' + Constants.getValueMax() + '|' + Constants.getAddressSize() + '|' + Constants.getMCSize() + '|' + Constants.getOperationEnumName();
+   }
+   
+   /**
+    * Gets the content hash of a file.
+    *
+    * @param content the content of the file
+    * @return the hex SHA-256 of the content
+    */
+   private static String hash(byte[] content) {
+      try {
+         return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+      } catch (NoSuchAlgorithmException e) {
+         throw new AssertionError("SHA-256 is required by every Java platform", e);
+      }
+   }
+}
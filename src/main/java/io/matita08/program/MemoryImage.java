@@ -0,0 +1,332 @@
+package io.matita08.program;
+
+import io.matita08.Constants;
+import io.matita08.logic.InstructionTable;
+import io.matita08.value.Value;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Binary memory image, the compact alternative to the text format of the {@link ProgramLoader}.
+ * <p>
+ * Instances are immutable: the cells are only handed out as copies, so a single image can be
+ * shared between threads and machines, see {@link ImageCache}.
+ * </p>
+ * <p>
+ * Besides the cells, an image records the configuration it was taken with, so that it
+ * can be checked against the running one before being loaded. Images are read by mapping
+ * the file in memory and bulk-copying the cells, without any parsing.
+ * </p>
+ *
+ * <p>File layout, all numbers big-endian:</p>
+ * <pre>
+ * offset  size  content
+ *      0     4  magic "SCMI"
+ *      4     2  format version, currently 1
+ *      6     1  bytes per cell: 1 or 2 (unsigned) or 4 (signed)
+ *      7     1  reserved, 0
+ *      8     4  valueMax
+ *     12     4  addressSize
+ *     16     4  MC size
+ *     20     4  number of cells stored (n)
+ *     24     2  length of the instruction set name (l)
+ *     26     l  instruction set name, UTF-8
+ *   26+l  n*w   cells, undefined ones stored as 0
+ *      -  (n+7)/8  defined-cell bitmap, bit (i % 8) of byte (i / 8) set if cell i is defined
+ * </pre>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class MemoryImage {
+   
+   /**
+    * The extension used for binary images.
+    */
+   public static final String EXTENSION = ".bin";
+   
+   /**
+    * Magic number at the start of every image, "SCMI".
+    */
+   private static final int MAGIC = 0x53434D49;
+   
+   /**
+    * Current version of the format.
+    */
+   private static final short VERSION = 1;
+   
+   /**
+    * Size of the fixed part of the header.
+    */
+   private static final int HEADER = 26;
+   
+   /**
+    * Maximum size of an image file, the largest byte array the JVM can allocate:
+    * images are written from a single buffer and read back whole.
+    */
+   private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+   
+   /**
+    * Maximum value of a cell when the image was taken.
+    */
+   public final int valueMax;
+   
+   /**
+    * Address size when the image was taken.
+    */
+   public final int addressSize;
+   
+   /**
+    * Size of the central memory when the image was taken.
+    */
+   public final int MCSize;
+   
+   /**
+    * Name of the instruction set the image was taken with.
+    */
+   public final String instructionSet;
+   
+   /**
+    * The cells, {@link Value#UNDEFINED_CELL} for undefined ones.
+    */
+   private final int[] cells;
+   
+   /**
+    * Creates an image of the given cells with the current configuration.
+    *
+    * @param cells the cells, {@link Value#UNDEFINED_CELL} for undefined ones; the array is not copied and must not be modified afterwards
+    */
+   public MemoryImage(int[] cells) {
+      this(Constants.getValueMax(), Constants.getAddressSize(), Constants.getMCSize(), Constants.getOperationEnumName(), cells);
+   }
+   
+   /**
+    * Creates an image with an explicit configuration.
+    *
+    * @param valueMax the maximum value of a cell
+    * @param addressSize the address size
+    * @param MCSize the size of the central memory
+    * @param instructionSet the name of the instruction set
+    * @param cells the cells, {@link Value#UNDEFINED_CELL} for undefined ones; the array is not copied and must not be modified afterwards
+    */
+   public MemoryImage(int valueMax, int addressSize, int MCSize, String instructionSet, int[] cells) {
+      this.valueMax = valueMax;
+      this.addressSize = addressSize;
+      this.MCSize = MCSize;
+      this.instructionSet = instructionSet;
+      this.cells = cells;
+   }
+   
+   /**
+    * Gets a copy of the cells.
+    *
+    * @return the cells, {@link Value#UNDEFINED_CELL} for undefined ones
+    */
+   public int[] getCells() {
+      return cells.clone();
+   }
+   
+   /**
+    * Copies the cells into an array, without allocating.
+    * Cells past the end of the destination are ignored, cells past the end of the image are left untouched.
+    *
+    * @param dest the destination array
+    * @return the number of cells copied
+    */
+   public int copyInto(int[] dest) {
+      int n = Math.min(cells.length, dest.length);
+      System.arraycopy(cells, 0, dest, 0, n);
+      return n;
+   }
+   
+   /**
+    * Gets a single cell.
+    *
+    * @param address the address of the cell
+    * @return the cell, {@link Value#UNDEFINED_CELL} if undefined
+    */
+   public int getCell(int address) {
+      return cells[address];
+   }
+   
+   /**
+    * Gets the number of cells of the image.
+    *
+    * @return the number of cells stored
+    */
+   public int size() {
+      return cells.length;
+   }
+   
+   /**
+    * Checks if the image was taken with the running configuration.
+    *
+    * @return null if the configuration matches, otherwise a description of the first difference
+    */
+   public String checkConfiguration() {
+      if(valueMax != Constants.getValueMax()) return "the image uses valueMax " + valueMax + " instead of " + Constants.getValueMax();
+      if(addressSize != Constants.getAddressSize()) return "the image uses addressSize " + addressSize + " instead of " + Constants.getAddressSize();
+      if(!InstructionTable.isSameSet(instructionSet, Constants.getOperationEnumName())) return "the image uses the instruction set " + instructionSet + " instead of " + Constants.getOperationEnumName();
+      return null;
+   }
+   
+   /**
+    * Checks if a file looks like a binary image, by its extension.
+    *
+    * @param f the file to check
+    * @return true if the file should be read with {@link #read(File)}
+    */
+   public static boolean isImage(File f) {
+      return f.getName().endsWith(EXTENSION);
+   }
+   
+   /**
+    * Reads an image by mapping the file in memory.
+    *
+    * @param f the file to read
+    * @return the image
+    * @throws IOException if the file can't be read or isn't a valid image
+    */
+   public static MemoryImage read(File f) throws IOException {
+      try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+         return read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), f.getName());
+      }
+   }
+   
+   /**
+    * Reads an image from a buffer, like the body of a request.
+    *
+    * @param buf the image bytes, from the position to the limit
+    * @return the image
+    * @throws IOException if the bytes aren't a valid image
+    */
+   public static MemoryImage read(ByteBuffer buf) throws IOException {
+      return read(buf, "The image");
+   }
+   
+   /**
+    * Checks if some bytes start like a binary image.
+    *
+    * @param bytes the bytes to check
+    * @return true if the bytes begin with the magic number of the images
+    */
+   public static boolean isImage(byte[] bytes) {
+      return bytes.length >= 4 && ByteBuffer.wrap(bytes).getInt() == MAGIC;
+   }
+   
+   /**
+    * Reads an image from a buffer.
+    *
+    * @param buf the image bytes, big-endian, from the position to the limit
+    * @param source the name of the source, for the error messages
+    * @return the image
+    * @throws IOException if the bytes aren't a valid image
+    */
+   private static MemoryImage read(ByteBuffer buf, String source) throws IOException {
+      if(buf.remaining() < HEADER) throw new IOException(source + " is too short to be a memory image");
+      if(buf.getInt() != MAGIC) throw new IOException(source + " is not a memory image");
+      short version = buf.getShort();
+      if(version != VERSION) throw new IOException("Unsupported memory image version " + version);
+      int width = buf.get();
+      buf.get();
+      int valueMax = buf.getInt(), addressSize = buf.getInt(), MCSize = buf.getInt(), n = buf.getInt();
+      byte[] name = new byte[buf.getShort() & 0xFFFF];
+      if(width != 1 && width != 2 && width != 4) throw new IOException("Invalid cell width " + width);
+      if(n < 0 || buf.remaining() < name.length + (long)n * width + (n + 7L) / 8) throw new IOException(source + " is truncated");
+      buf.get(name);
+      int[] cells = new int[n];
+      switch(width) {
+         case 1:
+            for (int i = 0; i < n; i++) cells[i] = buf.get() & 0xFF;
+            break;
+         case 2:
+            for (int i = 0; i < n; i++) cells[i] = buf.getShort() & 0xFFFF;
+            break;
+         default:
+            buf.asIntBuffer().get(cells);
+            buf.position(buf.position() + n * 4);
+            break;
+      }
+      for (int i = 0; i < n; i += 8) {
+         int defined = buf.get();
+         if(defined == -1) continue;
+         for (int j = i; j < Math.min(n, i + 8); j++) {
+            if((defined & 1 << (j & 7)) == 0) cells[j] = Value.UNDEFINED_CELL;
+         }
+      }
+      return new MemoryImage(valueMax, addressSize, MCSize, new String(name, StandardCharsets.UTF_8), cells);
+   }
+   
+   /**
+    * Writes the image, using the smallest cell width able to hold every defined cell.
+    *
+    * @param f the file to write
+    * @throws IOException if the file can't be written or the image is larger than {@value #MAX_SIZE} bytes
+    */
+   public void write(File f) throws IOException {
+      int min = 0, max = 0;
+      for (int c: cells) {
+         if(c == Value.UNDEFINED_CELL) continue;
+         min = Math.min(min, c);
+         max = Math.max(max, c);
+      }
+      int width = min < 0 || max > 0xFFFF ? 4 : max > 0xFF ? 2 : 1;
+      byte[] name = instructionSet.getBytes(StandardCharsets.UTF_8);
+      int n = cells.length;
+      long size = HEADER + name.length + (long)n * width + (n + 7L) / 8;
+      if(size > MAX_SIZE) throw new IOException("An image of " + n + " cells of " + width + " bytes would take " + size + " bytes, more than the " + MAX_SIZE + " bytes an image can hold");
+      ByteBuffer buf = ByteBuffer.allocate((int)size);
+      buf.putInt(MAGIC).putShort(VERSION).put((byte)width).put((byte)0);
+      buf.putInt(valueMax).putInt(addressSize).putInt(MCSize).putInt(n);
+      buf.putShort((short)name.length).put(name);
+      for (int c: cells) {
+         int v = c == Value.UNDEFINED_CELL ? 0 : c;
+         if(width == 1) buf.put((byte)v);
+         else if(width == 2) buf.putShort((short)v);
+         else buf.putInt(v);
+      }
+      for (int i = 0; i < n; i += 8) {
+         int defined = 0;
+         for (int j = i; j < Math.min(n, i + 8); j++) {
+            if(cells[j] != Value.UNDEFINED_CELL) defined |= 1 << (j & 7);
+         }
+         buf.put((byte)defined);
+      }
+      buf.flip();
+      try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         while(buf.hasRemaining()) ch.write(buf);
+      }
+   }
+   
+   /**
+    * Command line entry point, converts a program in any supported format to a binary image.
+    * Usage: {@code image <program> [output] [options]}, the output defaults to the program
+    * name with the {@link #EXTENSION} extension.
+    *
+    * @param args the tool arguments
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      if(pos.length < 1) {
+         System.out.println("Usage: image <program> [output] [options]");
+         return;
+      }
+      File src = new File(pos[0]);
+      File out = new File(pos.length > 1 ? pos[1] : pos[0].replaceFirst("\\.[^./\\\\]*$", "") + EXTENSION);
+      try {
+         MemoryImage img = new MemoryImage(ProgramLoader.load(src));
+         img.write(out);
+         System.out.println("Wrote " + img.size() + " cells to " + out);
+      } catch (ProgramFormatException | AssemblerException e) {
+         System.err.println(src + ": " + e.getMessage());
+      } catch (IOException e) {
+         System.err.println("Unable to convert " + src + ": " + e.getMessage());
+      }
+   }
+}
@@ -0,0 +1,33 @@
+package io.matita08.program;
+
+/**
+ * Exception thrown by the {@link ProgramLoader} when a program file contains a malformed line.
+ * The message always includes the line where the problem was found.
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public class ProgramFormatException extends Exception {
+   
+   /**
+    * Serialization version.
+    */
+   private static final long serialVersionUID = 1L;
+   
+   /**
+    * The 1-based line of the error.
+    */
+   public final long line;
+   
+   /**
+    * Creates a new exception for the given line.
+    *
+    * @param line the 1-based line of the error
+    * @param message the description of the problem
+    */
+   public ProgramFormatException(long line, String message) {
+      super("line " + line + ": " + message);
+      this.line = line;
+   }
+}
@@ -0,0 +1,247 @@
+package io.matita08.program;
+
+import io.matita08.Constants;
+import io.matita08.Log;
+import io.matita08.value.Value;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Reader and writer of program files.
+ * <p>
+ * A program file holds one memory cell per line, starting from address 0:
+ * </p>
+ * <ul>
+ *   <li>Numbers are written in the radix set by {@link Constants#getRadix()}, optionally signed</li>
+ *   <li>Lines starting with "?" and blank lines are undefined cells</li>
+ *   <li>Blank lines at the end of the file are ignored</li>
+ *   <li>Blanks around a number are ignored, anything else is reported as an error</li>
+ * </ul>
+ *
+ * <p>
+ * Files are read through a {@link FileChannel} in large blocks and parsed byte by byte
+ * straight into a primitive image, without creating a string per line, so that loading
+ * is bound by the speed of the disk rather than by the parser.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class ProgramLoader {
+   
+   /**
+    * Size of the blocks read from the file.
+    */
+   private static final int BLOCK = 1 << 16;
+   
+   /**
+    * Private constructor to prevent instantiation.
+    * This class is designed to be used as a static utility class only.
+    */
+   private ProgramLoader() {}
+   
+   /**
+    * Reads a program in any of the supported formats, chosen by the file extension:
+    * {@link MemoryImage binary images}, {@link Assembler assembly sources} ({@code .asm})
+    * and text program files (anything else).
+    * Binary images taken with a different configuration are loaded anyway, with a warning.
+    *
+    * @param f the file to read
+    * @return the memory cells, {@link Value#UNDEFINED_CELL} for undefined cells
+    * @throws IOException if the file can't be read or is a corrupted binary image
+    * @throws ProgramFormatException if a line of a text program is malformed
+    * @throws AssemblerException if an assembly source is malformed
+    * @see ImageCache#load(File)
+    */
+   public static int[] load(File f) throws IOException, ProgramFormatException, AssemblerException {
+      return loadImage(f).getCells();
+   }
+   
+   /**
+    * Reads a program in any of the supported formats, see {@link #load(File)}.
+    * Text programs and assembly sources are tagged with the running configuration.
+    *
+    * @param f the file to read
+    * @return the program image
+    * @throws IOException if the file can't be read or is a corrupted binary image
+    * @throws ProgramFormatException if a line of a text program is malformed
+    * @throws AssemblerException if an assembly source is malformed
+    */
+   public static MemoryImage loadImage(File f) throws IOException, ProgramFormatException, AssemblerException {
+      if(f.getName().endsWith(".asm")) return new MemoryImage(Assembler.assemble(f));
+      if(!MemoryImage.isImage(f)) return new MemoryImage(read(f));
+      MemoryImage img = MemoryImage.read(f);
+      String mismatch = img.checkConfiguration();
+      if(mismatch != null) Log.warn(f.getName() + " may not work as expected, " + mismatch);
+      return img;
+   }
+   
+   /**
+    * Parses the content of a program already read, in the format of its file, see {@link #loadImage(File)}.
+    *
+    * @param f the file the content was read from, which selects the format
+    * @param content the whole content of the file
+    * @return the program image
+    * @throws IOException if the content is a corrupted binary image
+    * @throws ProgramFormatException if a line of a text program is malformed
+    * @throws AssemblerException if an assembly source is malformed
+    */
+   static MemoryImage loadImage(File f, byte[] content) throws IOException, ProgramFormatException, AssemblerException {
+      if(f.getName().endsWith(".asm")) return new MemoryImage(new Assembler().assemble(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)));
+      if(!MemoryImage.isImage(f)) return new MemoryImage(read(new ByteArrayInputStream(content)));
+      MemoryImage img = MemoryImage.read(ByteBuffer.wrap(content));
+      String mismatch = img.checkConfiguration();
+      if(mismatch != null) Log.warn(f.getName() + " may not work as expected, " + mismatch);
+      return img;
+   }
+   
+   /**
+    * Parses a program file into primitive memory cells without touching the simulator state.
+    *
+    * @param f the file to parse
+    * @return one cell per line of the file, {@link Value#UNDEFINED_CELL} for undefined cells
+    * @throws IOException if the file can't be read
+    * @throws ProgramFormatException if a line is neither a number nor undefined
+    */
+   public static int[] read(File f) throws IOException, ProgramFormatException {
+      return read(f.toPath());
+   }
+   
+   /**
+    * Parses a program file into primitive memory cells without touching the simulator state.
+    *
+    * @param p the file to parse
+    * @return one cell per line of the file, {@link Value#UNDEFINED_CELL} for undefined cells
+    * @throws IOException if the file can't be read
+    * @throws ProgramFormatException if a line is neither a number nor undefined
+    * @see #read(File)
+    */
+   public static int[] read(Path p) throws IOException, ProgramFormatException {
+      try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+         long estimate = Math.min(ch.size() / 2 + 1, Integer.MAX_VALUE - 8);
+         return parse(ch, (int)Math.max(estimate, 16));
+      }
+   }
+   
+   /**
+    * Parses a program from a stream, like the body of a request, without touching the simulator state.
+    *
+    * @param in the stream to parse, read until its end but not closed
+    * @return one cell per line, {@link Value#UNDEFINED_CELL} for undefined cells
+    * @throws IOException if the stream can't be read
+    * @throws ProgramFormatException if a line is neither a number nor undefined
+    */
+   public static int[] read(InputStream in) throws IOException, ProgramFormatException {
+      return parse(Channels.newChannel(in), 16);
+   }
+   
+   /**
+    * Parses the whole content of a channel.
+    *
+    * @param ch the channel to read
+    * @param capacity the initial capacity of the image
+    * @return the parsed cells
+    * @throws IOException if the channel can't be read
+    * @throws ProgramFormatException if a line is malformed
+    */
+   private static int[] parse(ReadableByteChannel ch, int capacity) throws IOException, ProgramFormatException {
+      final int radix = Constants.getRadix();
+      ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+      byte[] bytes = buf.array();
+      int[] cells = new int[capacity];
+      int size = 0;        //cells stored
+      int blanks = 0;      //blank lines not stored yet, dropped if they end the file
+      long line = 1;
+      //State of the current line
+      long value = 0;
+      boolean negative = false, undefined = false, digits = false, sign = false, after = false;
+      int n;
+      while((n = ch.read(buf)) >= 0) {
+         if(n == 0) continue;
+         for (int i = 0; i < buf.position(); i++) {
+            int c = bytes[i];
+            if(c == '\n') {
+               if(!digits && !undefined) {
+                  if(sign) throw new ProgramFormatException(line, "missing digits after the sign");
+                  blanks++;
+               } else {
+                  if(size + blanks + 1 > cells.length) cells = Arrays.copyOf(cells, Math.max(cells.length * 2, size + blanks + 1));
+                  while(blanks > 0) {
+                     cells[size++] = Value.UNDEFINED_CELL;
+                     blanks--;
+                  }
+                  cells[size++] = undefined ? Value.UNDEFINED_CELL : (int)(negative ? -value : value);
+               }
+               line++;
+               value = 0;
+               negative = undefined = digits = sign = after = false;
+               continue;
+            }
+            if(undefined) continue;
+            if(c == ' ' || c == '\t' || c == '\r') {
+               after = digits || sign;
+               continue;
+            }
+            if(after) throw new ProgramFormatException(line, "unexpected character '" + (char)c + "' after the value");
+            if(c == '?' && !digits && !sign) {
+               undefined = true;
+               continue;
+            }
+            if((c == '-' || c == '+') && !digits && !sign) {
+               sign = true;
+               negative = c == '-';
+               continue;
+            }
+            int d = digit(c);
+            if(d < 0 || d >= radix) throw new ProgramFormatException(line, "'" + (char)c + "' is not a digit in radix " + radix);
+            value = value * radix + d;
+            //Integer.MIN_VALUE is Value.UNDEFINED_CELL, so negative values stop at -Integer.MAX_VALUE too
+            if(value > Integer.MAX_VALUE) throw new ProgramFormatException(line, "the value doesn't fit in a memory cell");
+            digits = true;
+         }
+         buf.clear();
+      }
+      if(sign && !digits) throw new ProgramFormatException(line, "missing digits after the sign");
+      if(digits || undefined) {
+         if(size + blanks + 1 > cells.length) cells = Arrays.copyOf(cells, size + blanks + 1);
+         while(blanks-- > 0) cells[size++] = Value.UNDEFINED_CELL;
+         cells[size++] = undefined ? Value.UNDEFINED_CELL : (int)(negative ? -value : value);
+      }
+      return size == cells.length ? cells : Arrays.copyOf(cells, size);
+   }
+   
+   /**
+    * Gets the value of a digit, in any radix up to {@link Character#MAX_RADIX}.
+    *
+    * @param c the character, as an ASCII byte
+    * @return the value of the digit, -1 if the character isn't a digit
+    */
+   private static int digit(int c) {
+      if(c >= '0' && c <= '9') return c - '0';
+      if(c >= 'a' && c <= 'z') return c - 'a' + 10;
+      if(c >= 'A' && c <= 'Z') return c - 'A' + 10;
+      return -1;
+   }
+   
+   /**
+    * Writes memory cells to a program file, in the format read by {@link #read(File)}.
+    *
+    * @param f the file to write
+    * @param cells the cells to write, {@link Value#UNDEFINED_CELL} is written as "?"
+    * @throws IOException if the file can't be written
+    */
+   public static void write(File f, int[] cells) throws IOException {
+      try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.US_ASCII), BLOCK)) {
+         for (int c: cells) {
+            w.write(c == Value.UNDEFINED_CELL ? "?" : Integer.toString(c, Constants.getRadix()));
+            w.write('\n');
+         }
+      }
+   }
+}
@@ -0,0 +1,24 @@
+/**
+ * Program images: everything needed to turn a file into the contents of the central memory.
+ *
+ * <p>Programs are handled as primitive images, one int per memory cell, with
+ * {@link io.matita08.value.Value#UNDEFINED_CELL} marking undefined cells. Images can be
+ * written into {@link io.matita08.data.Registers} or used to start an
+ * {@link io.matita08.logic.Machine}.</p>
+ *
+ * <p>Core Components:</p>
+ * <ul>
+ *   <li>{@link io.matita08.program.Assembler} - Single-pass assembler for the active instruction set</li>
+ *   <li>{@link io.matita08.program.AssemblerException} - Error reported for malformed sources</li>
+ *   <li>{@link io.matita08.program.Disassembler} - Incremental disassembler of the central memory</li>
+ *   <li>{@link io.matita08.program.ProgramLoader} - Streaming reader and writer of program files</li>
+ *   <li>{@link io.matita08.program.ProgramFormatException} - Error reported for malformed program files</li>
+ *   <li>{@link io.matita08.program.MemoryImage} - Binary memory image with its configuration, loaded by mapping the file</li>
+ *   <li>{@link io.matita08.program.ImageCache} - Content-addressed LRU cache of parsed images</li>
+ * </ul>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+package io.matita08.program;
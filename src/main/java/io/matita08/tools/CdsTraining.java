@@ -0,0 +1,107 @@
+package io.matita08.tools;
+
+import io.matita08.*;
+import io.matita08.GUI.Display;
+import io.matita08.logic.InstructionTable;
+import io.matita08.program.*;
+import io.matita08.value.Value;
+
+import javax.swing.SwingUtilities;
+import java.awt.GraphicsEnvironment;
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.*;
+import java.util.stream.Stream;
+
+/**
+ * Training run of the class data sharing archive of the jar.
+ * <p>
+ * Started by the {@code cdsArchive} Gradle task with {@code -XX:ArchiveClassesAtExit}: every class
+ * loaded by this run ends up in the archive, so later launches map them instead of loading and
+ * verifying them one by one. The training touches what a normal launch uses: it runs a program
+ * with the headless {@link Runner}, assembles and disassembles a source with every instruction set
+ * and, when a display is available, opens the graphical interface and exits once it's shown.
+ * Without a display every class of the simulator, with its Swing superclasses, is only loaded.
+ * </p>
+ *
+ * <p>Command line usage: {@code cdstrain <program> [options]}.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class CdsTraining {
+   
+   /**
+    * Source assembled during the training, using the instructions common to the instruction sets.
+    */
+   private static final String SOURCE = "start: load 5\n out\n add\n sto 7\n halt\n";
+   
+   /**
+    * Private constructor to prevent instantiation.
+    */
+   private CdsTraining() {}
+   
+   /**
+    * Runs the training.
+    *
+    * @param args the program run by the headless runner, followed by the simulator options
+    * @throws Exception if the graphical interface can't be started
+    */
+   public static void main(String[] args) throws Exception {
+      Runner.main(args);
+      for (InstructionTable table: InstructionTable.available()) {
+         try {
+            int[] cells = new Assembler(table).assemble(new StringReader(SOURCE));
+            new Disassembler(a -> a < cells.length ? cells[a] : Value.UNDEFINED_CELL, cells.length, table);
+         } catch (AssemblerException e) {
+            Log.debug("Training source not valid for " + table + ": " + e.getMessage());
+         }
+      }
+      if(GraphicsEnvironment.isHeadless()) {
+         Log.info("No display available, loaded " + loadAll() + " classes without opening the GUI");
+         return;
+      }
+      SwingUtilities.invokeAndWait(Display::init);
+      SwingUtilities.invokeAndWait(() -> {});  //Let the first frame be painted
+      System.exit(0);
+   }
+   
+   /**
+    * Loads, without initializing them, every class of the simulator.
+    *
+    * @return the number of classes loaded
+    * @throws IOException if the jar or the class folder can't be read
+    */
+   private static int loadAll() throws IOException {
+      Path location;
+      try {
+         location = Path.of(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      } catch (URISyntaxException e) {
+         throw new IOException(e);
+      }
+      List<String> names = new ArrayList<>();
+      if(Files.isDirectory(location)) {
+         try (Stream<Path> files = Files.walk(location)) {
+            files.map(p -> location.relativize(p).toString().replace(File.separatorChar, '/')).forEach(names::add);
+         }
+      } else {
+         try (JarFile jar = new JarFile(location.toFile())) {
+            jar.stream().map(JarEntry::getName).forEach(names::add);
+         }
+      }
+      int loaded = 0;
+      for (String name: names) {
+         if(!name.startsWith("io/matita08/") || !name.endsWith(".class") || name.endsWith("package-info.class")) continue;
+         try {
+            Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false, CdsTraining.class.getClassLoader());
+            loaded++;
+         } catch (ClassNotFoundException | LinkageError e) {
+            Log.debug("Unable to load " + name + ": " + e);
+         }
+      }
+      return loaded;
+   }
+}
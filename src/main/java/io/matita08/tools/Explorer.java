@@ -0,0 +1,483 @@
+package io.matita08.tools;
+
+import io.matita08.*;
+import io.matita08.logic.Machine;
+import io.matita08.program.*;
+import io.matita08.value.Value;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exhaustive explorer of the input space of a program.
+ * <p>
+ * The explorer runs a program on a {@link Machine} and, every time it is about to execute
+ * an input instruction, forks the machine once per possible input value. Every path is
+ * followed until the program halts, reaches undefined behaviour, runs out of its instruction
+ * budget (reported as non-terminating) or asks for more inputs than the bound allows.
+ * </p>
+ *
+ * <p>
+ * States seen at every fork point are recorded in a {@link FingerprintSet}: a path reaching a
+ * state already explored by another path has the same future and is pruned. The number of inputs
+ * consumed is part of the state, so equivalent paths merge regardless of which inputs led there;
+ * with an {@link Oracle} the inputs it {@linkplain Oracle#dependsOn(int) depends on} are part of the
+ * state too, because the oracle judges the outputs against them. States are compared exactly, a
+ * fingerprint collision is counted and explored instead of being merged. Forks are explored in
+ * parallel on a {@link ForkJoinPool}.
+ * </p>
+ *
+ * <p>Command line usage: {@code explore <program> <maxInputs> [keys] [expected] [options]}, where
+ * {@code keys} is the number of input values (default: the 10 keys of the numpad) and {@code expected}
+ * is the output every halted path must end with, see {@link #expect(String)}.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Explorer {
+   
+   /**
+    * Number of distinct values the numpad can put in the input buffer.
+    */
+   public static final int NUMPAD_KEYS = 10;
+   
+   /**
+    * Judges the final state of a halted program.
+    */
+   @FunctionalInterface
+   public interface Oracle {
+      /**
+       * Checks the result of a run.
+       *
+       * @param inputs the inputs consumed by the run, in order
+       * @param halted the machine after the halt instruction
+       * @return true if the result is correct for those inputs
+       */
+      boolean accept(int[] inputs, Machine halted);
+      
+      /**
+       * Checks if the judgement may depend on an input. Paths that differ only in inputs the oracle
+       * doesn't depend on are merged when they reach the same state.
+       *
+       * @param index the index of the input, in the order they are consumed
+       * @return true if the input is used to judge the result, true by default
+       */
+      default boolean dependsOn(int index) {
+         return true;
+      }
+   }
+   
+   /**
+    * Maximum number of inputs a path may consume.
+    */
+   private final int maxInputs;
+   
+   /**
+    * Number of input values, inputs range from 0 to keys - 1.
+    */
+   private final int keys;
+   
+   /**
+    * Maximum number of instructions executed between two inputs before a path is declared non-terminating.
+    */
+   private final long maxSteps;
+   
+   /**
+    * Optional oracle, may be null.
+    */
+   private final Oracle oracle;
+   
+   /**
+    * Capacity of the state table.
+    */
+   private final int maxStates;
+   
+   /**
+    * States already explored in the current exploration.
+    */
+   private FingerprintSet visited;
+   
+   /**
+    * Result of the exploration being run.
+    */
+   private Report report;
+   
+   /**
+    * Creates an explorer.
+    *
+    * @param maxInputs the maximum number of inputs a path may consume
+    * @param keys the number of input values, inputs range from 0 to keys - 1
+    * @param maxSteps the maximum number of instructions between two inputs
+    * @param maxStates the maximum number of states to record
+    * @param oracle the oracle used to check halted paths, or null to only collect the outcomes
+    */
+   public Explorer(int maxInputs, int keys, long maxSteps, int maxStates, Oracle oracle) {
+      this.maxInputs = maxInputs;
+      this.keys = keys;
+      this.maxSteps = maxSteps;
+      this.oracle = oracle;
+      this.maxStates = maxStates;
+   }
+   
+   /**
+    * Explores every input sequence of the program loaded in the given machine.
+    * The machine itself isn't modified.
+    *
+    * @param start the machine to start from
+    * @return the result of the exploration
+    */
+   public synchronized Report explore(Machine start) {
+      report = new Report();
+      visited = new FingerprintSet(maxStates);
+      Machine m = start.copy();
+      m.setStopOnInput(true);
+      try {
+         ForkJoinPool.commonPool().invoke(new Path(m, new int[0]));
+      } catch (IllegalStateException e) {
+         report.complete = false;
+      }
+      report.states = visited.size();
+      report.collisions = visited.collisions();
+      return report;
+   }
+   
+   /**
+    * Result of an exploration.
+    */
+   public static final class Report {
+      /** Outcomes of the halted paths, keyed by output buffer. */
+      public final Map<Integer, Outcome> outcomes = new ConcurrentSkipListMap<>();
+      /** Paths pruned because another path already explored their state. */
+      public final LongAdder merged = new LongAdder();
+      /** Paths that wanted more inputs than allowed. */
+      public final LongAdder truncated = new LongAdder();
+      /** Paths that ran out of instructions. */
+      public final Queue<int[]> nonTerminating = new ConcurrentLinkedQueue<>();
+      /** Paths that reached undefined behaviour. */
+      public final Queue<int[]> undefined = new ConcurrentLinkedQueue<>();
+      /** Halted paths rejected by the oracle. */
+      public final Queue<int[]> violations = new ConcurrentLinkedQueue<>();
+      /** Number of distinct states recorded. */
+      public int states;
+      /** Number of different states sharing the fingerprint of a recorded one, explored again. */
+      public long collisions;
+      /** False if the state table filled up before the exploration ended. */
+      public boolean complete = true;
+   
+      /**
+       * Checks if every explored path behaved correctly.
+       *
+       * @return true if the exploration completed without violations, non-terminating, undefined or truncated paths
+       */
+      public boolean proven() {
+         return complete && truncated.sum() == 0 && violations.isEmpty() && nonTerminating.isEmpty() && undefined.isEmpty();
+      }
+   }
+   
+   /**
+    * Halted paths sharing the same output.
+    */
+   public static final class Outcome {
+      /**
+       * Number of halted paths explored with this output. Paths merged into a state explored by
+       * another path aren't followed, so they aren't counted even if they would halt here too.
+       */
+      public final LongAdder explored = new LongAdder();
+      /** The input sequence of the first path found. */
+      public final int[] witness;
+   
+      /**
+       * Creates an outcome.
+       *
+       * @param witness the inputs of the first path with this output
+       */
+      Outcome(int[] witness) {
+         this.witness = witness;
+      }
+   }
+   
+   /**
+    * A path of the exploration, forking into one task per input value.
+    */
+   private final class Path extends RecursiveAction {
+      /** Serialization version, tasks are never serialized. */
+      private static final long serialVersionUID = 1L;
+      /** The machine of this path. */
+      private final Machine m;
+      /** Inputs consumed so far. */
+      private final int[] history;
+   
+      /**
+       * Creates a path.
+       *
+       * @param m the machine, owned by this path
+       * @param history the inputs consumed to reach it
+       */
+      Path(Machine m, int[] history) {
+         this.m = m;
+         this.history = history;
+      }
+   
+      /** {@inheritDoc} */
+      @Override
+      protected void compute() {
+         switch(m.run(maxSteps)) {
+            case Halted:
+               report.outcomes.computeIfAbsent(m.getBufOut(), k -> new Outcome(history)).explored.increment();
+               if(oracle != null && !oracle.accept(history, m)) report.violations.add(history);
+               return;
+            case Undefined:
+               report.undefined.add(history);
+               return;
+            case Running:
+               report.nonTerminating.add(history);
+               return;
+            default:
+               break;
+         }
+         if(history.length == maxInputs) {
+            report.truncated.increment();
+            return;
+         }
+         int used = 0;
+         if(oracle != null) for (int i = 0; i < history.length; i++) if(oracle.dependsOn(i)) used++;
+         int[] state = m.state(1 + used);
+         int at = state.length - 1 - used;
+         long fp = Machine.mix(m.fingerprint(), history.length);
+         state[at++] = history.length;
+         if(oracle != null) {
+            for (int i = 0; i < history.length; i++) {
+               if(!oracle.dependsOn(i)) continue;
+               fp = Machine.mix(fp, history[i]);
+               state[at++] = history[i];
+            }
+         }
+         if(!visited.add(fp, state)) {
+            report.merged.increment();
+            return;
+         }
+         Path[] forks = new Path[keys];
+         for (int i = 0; i < keys; i++) {
+            Machine child = i == keys - 1 ? m : m.copy();
+            child.feed(i);
+            int[] h = Arrays.copyOf(history, history.length + 1);
+            h[history.length] = i;
+            forks[i] = new Path(child, h);
+         }
+         invokeAll(forks);
+      }
+   }
+   
+   /**
+    * Creates an oracle expecting the last output of every halted path to be the value of an expression
+    * of its inputs. The expression is made of decimal numbers, the inputs {@code i0}, {@code i1}, ...
+    * in the order they are consumed, the operators {@code + - * / %} and parentheses, like
+    * {@code (i0 + i1) % 8}. A path that writes no output, or doesn't consume an input used by the
+    * expression, or divides by zero, is rejected.
+    *
+    * @param expression the expected output
+    * @return the oracle
+    * @throws IllegalArgumentException if the expression is malformed
+    */
+   public static Oracle expect(String expression) {
+      Expression e = new Expression(expression.replaceAll("\\s+", ""));
+      Expression.Node root = e.sum();
+      if(e.pos != e.text.length()) throw new IllegalArgumentException("unexpected '" + e.text.charAt(e.pos) + "' at position " + e.pos + " of the expected output");
+      BitSet used = e.inputs;
+      return new Oracle() {
+         @Override
+         public boolean accept(int[] inputs, Machine halted) {
+            if(halted.getOutputs() == 0) return false;
+            try {
+               return root.eval(inputs) == halted.getBufOut();
+            } catch (ArithmeticException | IndexOutOfBoundsException ex) {
+               return false;
+            }
+         }
+         
+         @Override
+         public boolean dependsOn(int index) {
+            return used.get(index);
+         }
+      };
+   }
+   
+   /**
+    * Parser of the expressions of {@link #expect(String)}.
+    */
+   private static final class Expression {
+      /**
+       * A parsed expression.
+       */
+      @FunctionalInterface
+      private interface Node {
+         /**
+          * Evaluates the expression.
+          *
+          * @param inputs the inputs of the path
+          * @return the value
+          * @throws ArithmeticException on a division by zero
+          * @throws IndexOutOfBoundsException if an input wasn't consumed
+          */
+         long eval(int[] inputs);
+      }
+      
+      /** The expression, without blanks. */
+      private final String text;
+      /** Position of the next character to parse. */
+      private int pos;
+      /** The inputs used by the expression. */
+      private final BitSet inputs = new BitSet();
+      
+      /**
+       * Creates a parser.
+       *
+       * @param text the expression, without blanks
+       */
+      Expression(String text) {
+         this.text = text;
+      }
+      
+      /**
+       * Parses a sum or difference of products.
+       *
+       * @return the node
+       */
+      Node sum() {
+         Node left = product();
+         while(pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+            Node l = left, r;
+            if(text.charAt(pos++) == '+') {
+               r = product();
+               left = in -> l.eval(in) + r.eval(in);
+            } else {
+               r = product();
+               left = in -> l.eval(in) - r.eval(in);
+            }
+         }
+         return left;
+      }
+      
+      /**
+       * Parses a product, quotient or remainder of factors.
+       *
+       * @return the node
+       */
+      Node product() {
+         Node left = factor();
+         while(pos < text.length() && "*/%".indexOf(text.charAt(pos)) >= 0) {
+            char op = text.charAt(pos++);
+            Node l = left, r = factor();
+            switch(op) {
+               case '*':
+                  left = in -> l.eval(in) * r.eval(in);
+                  break;
+               case '/':
+                  left = in -> l.eval(in) / r.eval(in);
+                  break;
+               default:
+                  left = in -> l.eval(in) % r.eval(in);
+                  break;
+            }
+         }
+         return left;
+      }
+      
+      /**
+       * Parses a number, an input, a negated factor or an expression between parentheses.
+       *
+       * @return the node
+       */
+      Node factor() {
+         if(pos == text.length()) throw new IllegalArgumentException("the expected output ends too early");
+         char c = text.charAt(pos);
+         if(c == '-') {
+            pos++;
+            Node f = factor();
+            return in -> -f.eval(in);
+         }
+         if(c == '(') {
+            pos++;
+            Node e = sum();
+            if(pos == text.length() || text.charAt(pos) != ')') throw new IllegalArgumentException("missing ')' in the expected output");
+            pos++;
+            return e;
+         }
+         boolean input = c == 'i' || c == 'I';
+         int start = input ? ++pos : pos;
+         while(pos < text.length() && Character.isDigit(text.charAt(pos))) pos++;
+         if(start == pos) throw new IllegalArgumentException("unexpected '" + c + "' at position " + start + " of the expected output");
+         int n;
+         try {
+            n = Integer.parseInt(text.substring(start, pos));
+         } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("the number at position " + start + " of the expected output is too large");
+         }
+         if(input) inputs.set(n);
+         return input ? in -> in[n] : in -> n;
+      }
+   }
+   
+   /**
+    * Command line entry point, see the class documentation for the usage.
+    *
+    * @param args the tool arguments
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      if(pos.length < 2) {
+         System.out.println("Usage: explore <program> <maxInputs> [keys] [expected] [options]");
+         return;
+      }
+      MemoryImage image;
+      try {
+         image = ImageCache.shared.get(new File(pos[0]));
+      } catch (IOException e) {
+         System.err.println("Unable to read " + pos[0] + ": " + e.getMessage());
+         return;
+      } catch (ProgramFormatException | AssemblerException e) {
+         System.err.println(pos[0] + ": " + e.getMessage());
+         return;
+      }
+      int maxInputs, keys;
+      try {
+         maxInputs = Integer.parseInt(pos[1]);
+         keys = pos.length > 2 ? Integer.parseInt(pos[2]) : NUMPAD_KEYS;
+      } catch (NumberFormatException e) {
+         System.err.println("The number of inputs and of keys must be integers: " + e.getMessage());
+         return;
+      }
+      if(maxInputs < 0 || keys < 1) {
+         System.err.println("The number of inputs can't be negative and there must be at least 1 key");
+         return;
+      }
+      Oracle oracle = null;
+      if(pos.length > 3) {
+         try {
+            oracle = expect(pos[3]);
+         } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+         }
+      }
+      Explorer ex = new Explorer(maxInputs, keys, 1_000_000, 1 << 22, oracle);
+      long start = System.nanoTime();
+      Report r = ex.explore(new Machine(image));
+      System.out.println("Explored " + r.states + " states in " + (System.nanoTime() - start) / 1_000_000 + " ms" + (r.complete ? "" : " (incomplete, the state table is full)"));
+      System.out.println("Merged paths: " + r.merged.sum() + ", truncated paths: " + r.truncated.sum() + ", fingerprint collisions: " + r.collisions);
+      for (Map.Entry<Integer, Outcome> e: r.outcomes.entrySet()) {
+         System.out.println("Output " + Value.fromCell(e.getKey()) + ": " + e.getValue().explored.sum() + " explored paths, e.g. inputs " + Arrays.toString(e.getValue().witness));
+      }
+      for (int[] h: r.nonTerminating) System.out.println("Non-terminating with inputs " + Arrays.toString(h));
+      for (int[] h: r.undefined) System.out.println("Undefined behaviour with inputs " + Arrays.toString(h));
+      for (int[] h: r.violations) System.out.println("Unexpected output with inputs " + Arrays.toString(h));
+      if(oracle == null) return;
+      if(r.proven()) System.out.println("Proven: every path halts with the expected output");
+      else if(r.truncated.sum() > 0 && r.complete && r.violations.isEmpty() && r.nonTerminating.isEmpty() && r.undefined.isEmpty()) System.out.println("Not proven: bounded to " + maxInputs + " inputs, " + r.truncated.sum() + " paths wanted more");
+      else System.out.println("Not proven");
+   }
+}
@@ -0,0 +1,118 @@
+package io.matita08.tools;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Concurrent set of states, indexed by their 64-bit fingerprint.
+ * <p>
+ * The set uses open addressing with linear probing over a primitive array of fingerprints,
+ * so threads only contend on the slot they are writing (a compare-and-set). Every slot also
+ * keeps the exact state, compared when the fingerprints match: two different states with
+ * the same fingerprint are counted as a collision instead of being merged. The capacity is
+ * fixed at construction: once three quarters of the slots are in use the set refuses new entries.
+ * </p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+final class FingerprintSet {
+   
+   /**
+    * The slots, 0 marks an empty one.
+    */
+   private final AtomicLongArray table;
+   
+   /**
+    * The states of the slots, published after the fingerprint.
+    */
+   private final AtomicReferenceArray<int[]> states;
+   
+   /**
+    * Mask used to turn a hash into a slot index, the capacity is a power of 2.
+    */
+   private final int mask;
+   
+   /**
+    * Number of fingerprints after which the set is considered full.
+    */
+   private final int limit;
+   
+   /**
+    * Number of fingerprints stored.
+    */
+   private final AtomicInteger size = new AtomicInteger();
+   
+   /**
+    * Number of different states found with the fingerprint of a recorded one.
+    */
+   private final LongAdder collisions = new LongAdder();
+   
+   /**
+    * Creates a set able to hold at least the given number of fingerprints.
+    *
+    * @param expected the number of fingerprints the set must be able to hold
+    */
+   FingerprintSet(int expected) {
+      int capacity = Integer.highestOneBit(Math.max(16, expected + expected / 3) - 1) << 1;
+      if(capacity <= 0) capacity = 1 << 30;
+      table = new AtomicLongArray(capacity);
+      states = new AtomicReferenceArray<>(capacity);
+      mask = capacity - 1;
+      limit = capacity / 4 * 3;
+   }
+   
+   /**
+    * Adds a state to the set.
+    * A different state with the fingerprint of a recorded one isn't added, the collision is counted
+    * and the state is reported as new, so the caller explores it instead of merging it.
+    *
+    * @param fp the fingerprint of the state
+    * @param state the state, not modified afterwards
+    * @return true if the state was not already present
+    * @throws IllegalStateException if the set is full
+    */
+   boolean add(long fp, int[] state) {
+      if(fp == 0) fp = 1;
+      int i = (int)(fp ^ (fp >>> 32)) & mask;
+      while(true) {
+         long cur = table.get(i);
+         if(cur == fp) {
+            int[] other;
+            while((other = states.get(i)) == null) Thread.onSpinWait();  //The owner is publishing it
+            if(Arrays.equals(other, state)) return false;
+            collisions.increment();
+            return true;
+         }
+         if(cur == 0) {
+            if(size.get() >= limit) throw new IllegalStateException("The state table is full (" + limit + " states)");
+            if(table.compareAndSet(i, 0, fp)) {
+               states.set(i, state);
+               size.incrementAndGet();
+               return true;
+            }
+            continue; //Someone else took the slot, check it again
+         }
+         i = (i + 1) & mask;
+      }
+   }
+   
+   /**
+    * Gets the number of fingerprints in the set.
+    *
+    * @return the size of the set
+    */
+   int size() {
+      return size.get();
+   }
+   
+   /**
+    * Gets the number of fingerprint collisions found so far.
+    *
+    * @return the different states that had the fingerprint of a recorded one
+    */
+   long collisions() {
+      return collisions.sum();
+   }
+}
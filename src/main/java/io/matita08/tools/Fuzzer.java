@@ -0,0 +1,454 @@
+package io.matita08.tools;
+
+import io.matita08.*;
+import io.matita08.logic.*;
+import io.matita08.program.*;
+import io.matita08.value.Value;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Random program fuzzer for the active instruction set.
+ * <p>
+ * Random memory images, biased towards the opcodes of the instruction set, are run on
+ * {@link Machine}s by one worker per processor under a clock cycle budget, recording which opcodes
+ * were executed and which programs never terminate. Meanwhile a single thread replays as many of
+ * the same programs as it keeps up with on the reference engine through {@link Lockstep}: that's
+ * where the operations of {@link Operations3Bit} and {@link Operations4Bit} run, so exceptions
+ * thrown by them and differences from the machine are caught there. The reference engine is a
+ * global state, hence the single thread.
+ * </p>
+ *
+ * <p>
+ * Every finding is minimised before being saved: cells are dropped from the end, then set to
+ * undefined one by one, as long as the program still shows the same problem. Minimised programs
+ * are written as program files, loadable by the GUI and by the other tools, next to a report with
+ * the inputs needed to reproduce them. Crashes are kept once per exception and throwing method,
+ * divergences once per set of differing registers, at most {@value #MAX_SAVED} per kind.
+ * </p>
+ *
+ * <p>Command line usage: {@code fuzz <programs> [seed] [outputFolder] [options]}, the output folder
+ * defaults to {@code fuzz}. Use {@code -log error} to hide the warnings of the reference engine
+ * about out of bounds addresses.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Fuzzer {
+   
+   /**
+    * Default clock cycle budget of a program.
+    */
+   public static final long DEFAULT_CYCLES = 20_000;
+   
+   /**
+    * Maximum number of findings saved per kind.
+    */
+   public static final int MAX_SAVED = 20;
+   
+   /**
+    * Number of random inputs given to every program.
+    */
+   public static final int INPUTS = 8;
+   
+   /**
+    * Kind of finding.
+    */
+   public enum Kind {
+      /** The reference engine or the machine threw an exception. */
+      Crash,
+      /** The reference engine and the machine disagree, see {@link Lockstep}. */
+      Divergence,
+      /** The program was still running at the end of the cycle budget. */
+      NonTerminating
+   }
+   
+   /**
+    * A minimised program showing a problem.
+    */
+   public static final class Finding {
+      /** Kind of problem. */
+      public final Kind kind;
+      /** Description of the problem. */
+      public final String description;
+      /** The minimised program. */
+      public final int[] cells;
+      /** The inputs fed to the program. */
+      public final int[] inputs;
+      /** Name of the saved program file, null until saved. */
+      public String file;
+      
+      /**
+       * Creates a finding.
+       *
+       * @param kind the kind of problem
+       * @param description the description of the problem
+       * @param cells the minimised program
+       * @param inputs the inputs fed to the program
+       */
+      Finding(Kind kind, String description, int[] cells, int[] inputs) {
+         this.kind = kind;
+         this.description = description;
+         this.cells = cells;
+         this.inputs = inputs;
+      }
+   }
+   
+   /**
+    * Result of a fuzzing session.
+    */
+   public static final class Report {
+      /** Programs run on the machines. */
+      public final LongAdder programs = new LongAdder();
+      /** Programs also run on the reference engine. */
+      public final LongAdder referenceRuns = new LongAdder();
+      /** Programs by final status of the machine. */
+      public final Map<Machine.Status, LongAdder> statuses = new EnumMap<>(Machine.Status.class);
+      /** Findings by kind, before deduplication. */
+      public final Map<Kind, LongAdder> found = new EnumMap<>(Kind.class);
+      /** Saved findings. */
+      public final Queue<Finding> findings = new ConcurrentLinkedQueue<>();
+      /** Times every opcode was executed, indexed by opcode. */
+      public final long[] coverage;
+      
+      /**
+       * Creates an empty report.
+       *
+       * @param opcodes the number of possible opcodes
+       */
+      Report(int opcodes) {
+         coverage = new long[opcodes];
+         for (Machine.Status s: Machine.Status.values()) statuses.put(s, new LongAdder());
+         for (Kind k: Kind.values()) found.put(k, new LongAdder());
+      }
+   }
+   
+   /**
+    * A generated program.
+    *
+    * @param cells the memory image
+    * @param inputs the inputs fed to it
+    */
+   private record Program(int[] cells, int[] inputs) {}
+   
+   /**
+    * The instruction set, the active one since the reference engine only runs that.
+    */
+   private final InstructionTable table = InstructionTable.active();
+   
+   /**
+    * Clock cycle budget of a program.
+    */
+   private final long cycles;
+   
+   /**
+    * Seed of the session, every program is derived from it and its index.
+    */
+   private final long seed;
+   
+   /**
+    * Signatures of the findings already saved.
+    */
+   private final Set<String> seen = ConcurrentHashMap.newKeySet();
+   
+   /**
+    * Saved findings per kind.
+    */
+   private final Map<Kind, AtomicInteger> saved = new EnumMap<>(Kind.class);
+   
+   /**
+    * Creates a fuzzer.
+    *
+    * @param cycles the clock cycle budget of a program
+    * @param seed the seed of the session
+    */
+   public Fuzzer(long cycles, long seed) {
+      this.cycles = cycles;
+      this.seed = seed;
+      for (Kind k: Kind.values()) saved.put(k, new AtomicInteger());
+   }
+   
+   /**
+    * Generates a program.
+    *
+    * @param index the index of the program in the session
+    * @return the program
+    */
+   private Program generate(long index) {
+      SplittableRandom rng = new SplittableRandom(Machine.mix(Machine.mix(0x9E3779B97F4A7C15L, seed), index));
+      int max = Constants.getValueMax();
+      int[] opcodes = table.operations.stream().filter(op -> op != table.unknown && op.opcode >= 0).mapToInt(op -> op.opcode).toArray();
+      int[] cells = new int[1 + rng.nextInt(Constants.getMCSize())];
+      for (int i = 0; i < cells.length; i++) {
+         int r = rng.nextInt(100);
+         cells[i] = r < 60 ? opcodes[rng.nextInt(opcodes.length)] : r < 95 ? rng.nextInt(max) : Value.UNDEFINED_CELL;
+      }
+      int[] inputs = new int[INPUTS];
+      for (int i = 0; i < inputs.length; i++) inputs[i] = rng.nextInt(max);
+      return new Program(cells, inputs);
+   }
+   
+   /**
+    * Runs a program on a machine, feeding its inputs in order.
+    *
+    * @param p the program
+    * @param coverage where the executed opcodes are counted, may be null
+    * @return the final machine
+    */
+   private Machine run(Program p, long[] coverage) {
+      Machine m = new Machine(new MemoryImage(p.cells));
+      m.setStopOnInput(true);
+      int consumed = 0;
+      while(m.getCycles() < cycles) {
+         long before = m.getInstructions();
+         Machine.Status s = m.step();
+         if(coverage != null && m.getInstructions() != before && m.getIr() >= 0 && m.getIr() < coverage.length) coverage[m.getIr()]++;
+         if(s == Machine.Status.Input && consumed < p.inputs.length) m.feed(p.inputs[consumed++]);
+         else if(s != Machine.Status.Running) break;
+      }
+      Metrics.executed(m.getCycles(), m.getInstructions(), m.getMemoryReads(), m.getMemoryWrites(), m.getInvalidOpcodes(), m.getOutOfBounds());
+      return m;
+   }
+   
+   /**
+    * Checks a program on the reference engine.
+    *
+    * @param p the program
+    * @return null if the reference engine agrees with the machine, otherwise the finding, not minimised yet
+    */
+   private Finding check(Program p) {
+      try {
+         Lockstep.Report r = Lockstep.compare(new MemoryImage(p.cells), p.inputs, cycles);
+         if(r.equivalent()) return null;
+         return new Finding(Kind.Divergence, "at PC " + r.divergedAt + ": " + String.join("; ", r.differences), p.cells, p.inputs);
+      } catch (Throwable t) {
+         return new Finding(Kind.Crash, describe(t), p.cells, p.inputs);
+      }
+   }
+   
+   /**
+    * Checks if a program is still non-terminating on the machine.
+    *
+    * @param p the program
+    * @return the finding, or null if it terminates
+    */
+   private Finding checkTermination(Program p) {
+      try {
+         Machine m = run(p, null);
+         return m.getStatus() == Machine.Status.Running ? new Finding(Kind.NonTerminating, "still running after " + m.getInstructions() + " instructions, PC " + m.getPc(), p.cells, p.inputs) : null;
+      } catch (RuntimeException | AssertionError e) {
+         return new Finding(Kind.Crash, "machine: " + describe(e), p.cells, p.inputs);
+      }
+   }
+   
+   /**
+    * Describes an exception by its class and the method throwing it.
+    *
+    * @param t the exception
+    * @return the description
+    */
+   private static String describe(Throwable t) {
+      StackTraceElement[] trace = t.getStackTrace();
+      String where = trace.length == 0 ? "" : " at " + trace[0].getClassName() + "." + trace[0].getMethodName();
+      return t.getClass().getName() + where + (t.getMessage() == null ? "" : ": " + t.getMessage().replace('\n', ' '));
+   }
+   
+   /**
+    * Gets the key deduplicating a finding.
+    *
+    * @param f the finding
+    * @return the signature: exception and method for crashes, differing registers for divergences
+    */
+   private static String signature(Finding f) {
+      switch(f.kind) {
+         case Crash:
+            int colon = f.description.indexOf(": ", f.description.startsWith("machine: ") ? 9 : 0);
+            return f.kind + (colon < 0 ? f.description : f.description.substring(0, colon));
+         case Divergence:
+            StringBuilder sb = new StringBuilder(f.kind.name());
+            for (String d: f.description.substring(f.description.indexOf(": ") + 2).split("; ")) sb.append(' ').append(d.startsWith("MC[") ? "MC" : d.substring(0, d.indexOf(':')));
+            return sb.toString();
+         default:
+            return f.kind.name();
+      }
+   }
+   
+   /**
+    * Minimises a finding, keeping every reduction that still shows a problem with the same signature.
+    *
+    * @param f the finding
+    * @return the minimised finding
+    */
+   private Finding minimise(Finding f) {
+      String sig = signature(f);
+      Finding best = f;
+      int[] cells = f.cells.clone();
+      for (int len = cells.length - 1; len > 0; len--) {
+         Finding r = recheck(f.kind, Arrays.copyOf(cells, len), f.inputs, sig);
+         if(r == null) break;
+         best = r;
+      }
+      cells = best.cells.clone();
+      for (int i = 0; i < cells.length; i++) {
+         if(cells[i] == Value.UNDEFINED_CELL) continue;
+         int old = cells[i];
+         cells[i] = Value.UNDEFINED_CELL;
+         Finding r = recheck(f.kind, cells.clone(), f.inputs, sig);
+         if(r == null) cells[i] = old;
+         else best = r;
+      }
+      return best;
+   }
+   
+   /**
+    * Runs a reduced program again.
+    *
+    * @param kind the kind of the finding being minimised
+    * @param cells the reduced program
+    * @param inputs the inputs
+    * @param sig the signature the reduced program must show
+    * @return the finding of the reduced program, or null if it doesn't show the same problem
+    */
+   private Finding recheck(Kind kind, int[] cells, int[] inputs, String sig) {
+      Program p = new Program(cells, inputs);
+      Finding r = kind == Kind.NonTerminating ? checkTermination(p) : check(p);
+      return r != null && signature(r).equals(sig) ? r : null;
+   }
+   
+   /**
+    * Minimises and saves a finding, unless an equivalent one was already saved.
+    *
+    * @param f the finding
+    * @param report the report of the session
+    * @param folder where the program is written
+    */
+   private void record(Finding f, Report report, File folder) {
+      if(f == null) return;
+      report.found.get(f.kind).increment();
+      if(f.kind != Kind.NonTerminating && !seen.add(signature(f))) return;
+      int n = saved.get(f.kind).incrementAndGet();
+      if(n > MAX_SAVED) return;
+      Finding min = minimise(f);
+      File out = new File(folder, f.kind.name().toLowerCase(Locale.ROOT) + "-" + n + ".txt");
+      min.file = out.getName();
+      report.findings.add(min);
+      try {
+         ProgramLoader.write(out, min.cells);
+      } catch (IOException e) {
+         Log.warn("Unable to save " + out + ": " + e.getMessage());
+      }
+   }
+   
+   /**
+    * Runs a fuzzing session.
+    *
+    * @param programs the number of programs to generate
+    * @param folder where the findings are saved, created if needed
+    * @return the result of the session
+    * @throws InterruptedException if interrupted while waiting for the workers
+    */
+   public Report fuzz(long programs, File folder) throws InterruptedException {
+      folder.mkdirs();
+      Report report = new Report(Constants.getValueMax());
+      int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+      BlockingQueue<Program> reference = new ArrayBlockingQueue<>(1024);
+      AtomicLong next = new AtomicLong();
+      CountDownLatch done = new CountDownLatch(workers);
+      ExecutorService pool = Executors.newFixedThreadPool(workers + 1);
+      for (int w = 0; w < workers; w++) {
+         pool.execute(() -> {
+            long[] coverage = new long[report.coverage.length];
+            try {
+               for (long i = next.getAndIncrement(); i < programs; i = next.getAndIncrement()) {
+                  Program p = generate(i);
+                  report.programs.increment();
+                  Machine m;
+                  try {
+                     m = run(p, coverage);
+                  } catch (RuntimeException | AssertionError e) {
+                     record(new Finding(Kind.Crash, "machine: " + describe(e), p.cells, p.inputs), report, folder);
+                     continue;
+                  }
+                  report.statuses.get(m.getStatus()).increment();
+                  if(m.getStatus() == Machine.Status.Running) record(checkTermination(p), report, folder);
+                  reference.offer(p);  //Dropped when the reference engine can't keep up
+               }
+            } finally {
+               synchronized(report.coverage) {
+                  for (int i = 0; i < coverage.length; i++) report.coverage[i] += coverage[i];
+               }
+               done.countDown();
+            }
+         });
+      }
+      pool.execute(() -> {
+         while(done.getCount() > 0 || !reference.isEmpty()) {
+            Program p;
+            try {
+               p = reference.poll(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+               return;
+            }
+            if(p == null) continue;
+            report.referenceRuns.increment();
+            Finding f = check(p);
+            if(f != null) record(f, report, folder);
+         }
+      });
+      pool.shutdown();
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+      return report;
+   }
+   
+   /**
+    * Command line entry point, see the class documentation for the usage.
+    *
+    * @param args the tool arguments
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      if(pos.length < 1) {
+         System.out.println("Usage: fuzz <programs> [seed] [outputFolder] [options]");
+         return;
+      }
+      long programs = Long.parseLong(pos[0]);
+      long seed = pos.length > 1 ? Long.parseLong(pos[1]) : System.nanoTime();
+      File folder = new File(pos.length > 2 ? pos[2] : "fuzz");
+      Fuzzer f = new Fuzzer(DEFAULT_CYCLES, seed);
+      long start = System.nanoTime();
+      Report r;
+      try {
+         r = f.fuzz(programs, folder);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return;
+      }
+      StringBuilder report = new StringBuilder();
+      report.append("Seed ").append(seed).append(", ").append(r.programs.sum()).append(" programs in ").append((System.nanoTime() - start) / 1_000_000).append(" ms, ")
+         .append(r.referenceRuns.sum()).append(" also on the reference engine\n");
+      for (Map.Entry<Machine.Status, LongAdder> e: r.statuses.entrySet()) report.append("  ").append(e.getKey()).append(": ").append(e.getValue().sum()).append('\n');
+      report.append("Opcode coverage:\n");
+      for (int op = 0; op < r.coverage.length; op++) {
+         if(r.coverage[op] == 0 && !f.table.isValid(op)) continue;
+         report.append("  ").append(op).append(' ').append(f.table.isValid(op) ? f.table.decode(op).name : "(unknown)").append(": ").append(r.coverage[op]).append('\n');
+      }
+      for (Map.Entry<Kind, LongAdder> e: r.found.entrySet()) report.append(e.getKey()).append(": ").append(e.getValue().sum()).append(" found\n");
+      int n = 0;
+      for (Finding fi: r.findings) {
+         report.append("  ").append(fi.file).append(" (").append(fi.cells.length).append(" cells, inputs ").append(Arrays.toString(fi.inputs)).append("): ").append(fi.description).append('\n');
+         n++;
+      }
+      System.out.print(report);
+      try (Writer w = new FileWriter(new File(folder, "report.txt"))) {
+         w.write(report.toString());
+      } catch (IOException e) {
+         System.err.println("Unable to write the report: " + e.getMessage());
+      }
+      if(n > 0) System.out.println(n + " minimised programs saved in " + folder);
+   }
+}
@@ -0,0 +1,313 @@
+package io.matita08.tools;
+
+import io.matita08.*;
+import io.matita08.logic.Machine;
+import io.matita08.program.*;
+import io.matita08.value.Value;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Grades programs against a file of test vectors.
+ * <p>
+ * A test vector lists the inputs fed, in order, to the input instructions, the values the program
+ * must write to the output buffer and assertions on the final memory. Every vector runs on its own
+ * {@link Machine}, created from the {@link MemoryImage} of the program: the image is read once and
+ * shared by every machine, so the vectors of every program are all graded in parallel.
+ * </p>
+ *
+ * <p>Vector file format, one vector per line, {@code #} starts a comment:</p>
+ * <pre>
+ * # name     | inputs | outputs | memory
+ * sum 3 4    | 3 4    | 7       | 20=7 21=?
+ * no inputs  |        | 0
+ * </pre>
+ * <p>
+ * Fields are separated by {@code |}, values by spaces or commas, {@code ?} stands for an undefined
+ * value and the trailing fields may be omitted. A vector passes if the program halts after consuming
+ * exactly its inputs, writing exactly its outputs, and every memory assertion holds.
+ * </p>
+ *
+ * <p>Command line usage: {@code grade <vectors> <program>... [options]}.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Grader {
+   
+   /**
+    * Default maximum number of instructions executed by a vector.
+    */
+   public static final long DEFAULT_MAX_INSTRUCTIONS = 1_000_000;
+   
+   /**
+    * Maximum number of instructions executed by a vector before it's declared non-terminating.
+    */
+   private final long maxInstructions;
+   
+   /**
+    * Creates a grader.
+    *
+    * @param maxInstructions the maximum number of instructions executed by a vector
+    */
+   public Grader(long maxInstructions) {
+      this.maxInstructions = maxInstructions;
+   }
+   
+   /**
+    * A test vector.
+    */
+   public static final class Vector {
+      /** Name of the vector, shown in the report. */
+      public final String name;
+      /** Values fed to the input instructions, in order. */
+      public final int[] inputs;
+      /** Values expected in the output buffer, in order. */
+      public final int[] outputs;
+      /** Addresses checked at the end of the run. */
+      public final int[] addresses;
+      /** Values expected at those addresses, {@link Value#UNDEFINED_CELL} for undefined ones. */
+      public final int[] expected;
+      
+      /**
+       * Creates a vector.
+       *
+       * @param name the name of the vector
+       * @param inputs the inputs
+       * @param outputs the expected outputs
+       * @param addresses the addresses checked at the end of the run
+       * @param expected the values expected at those addresses
+       */
+      public Vector(String name, int[] inputs, int[] outputs, int[] addresses, int[] expected) {
+         this.name = name;
+         this.inputs = inputs;
+         this.outputs = outputs;
+         this.addresses = addresses;
+         this.expected = expected;
+      }
+   }
+   
+   /**
+    * Result of a vector.
+    */
+   public static final class Result {
+      /** The vector. */
+      public final Vector vector;
+      /** Null if the vector passed, otherwise why it failed. */
+      public final String failure;
+      /** Instructions executed. */
+      public final long instructions;
+      /** Clock cycles executed. */
+      public final long cycles;
+      
+      /**
+       * Creates a result.
+       *
+       * @param vector the vector
+       * @param failure null if the vector passed, otherwise why it failed
+       * @param instructions the instructions executed
+       * @param cycles the clock cycles executed
+       */
+      Result(Vector vector, String failure, long instructions, long cycles) {
+         this.vector = vector;
+         this.failure = failure;
+         this.instructions = instructions;
+         this.cycles = cycles;
+      }
+      
+      /**
+       * Checks if the vector passed.
+       *
+       * @return true if the program behaved as expected
+       */
+      public boolean passed() {
+         return failure == null;
+      }
+   }
+   
+   /**
+    * Reads a vector file.
+    *
+    * @param f the file
+    * @return the vectors, in file order
+    * @throws IOException if the file can't be read
+    * @throws ProgramFormatException if a line is malformed
+    */
+   public static List<Vector> readVectors(File f) throws IOException, ProgramFormatException {
+      List<Vector> vectors = new ArrayList<>();
+      List<String> lines = Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+      for (int i = 0; i < lines.size(); i++) {
+         String line = lines.get(i);
+         int comment = line.indexOf('#');
+         if(comment >= 0) line = line.substring(0, comment);
+         if(line.isBlank()) continue;
+         String[] fields = line.split("\\|", -1);
+         if(fields.length > 4) throw new ProgramFormatException(i + 1, "too many fields, expected name | inputs | outputs | memory");
+         String name = fields[0].trim().isEmpty() ? "line " + (i + 1) : fields[0].trim();
+         int[] inputs = fields.length > 1 ? values(fields[1], i + 1) : new int[0];
+         int[] outputs = fields.length > 2 ? values(fields[2], i + 1) : new int[0];
+         String[] asserts = fields.length > 3 ? tokens(fields[3]) : new String[0];
+         int[] addresses = new int[asserts.length], expected = new int[asserts.length];
+         for (int j = 0; j < asserts.length; j++) {
+            int eq = asserts[j].indexOf('=');
+            if(eq <= 0) throw new ProgramFormatException(i + 1, "memory assertion '" + asserts[j] + "' is not address=value");
+            addresses[j] = value(asserts[j].substring(0, eq), i + 1);
+            expected[j] = value(asserts[j].substring(eq + 1), i + 1);
+            if(addresses[j] < 0) throw new ProgramFormatException(i + 1, "invalid address '" + asserts[j].substring(0, eq) + "'");
+         }
+         vectors.add(new Vector(name, inputs, outputs, addresses, expected));
+      }
+      return vectors;
+   }
+   
+   /**
+    * Splits a field in its values.
+    *
+    * @param field the field
+    * @return the non-empty tokens
+    */
+   private static String[] tokens(String field) {
+      String t = field.trim();
+      return t.isEmpty() ? new String[0] : t.split("[\\s,]+");
+   }
+   
+   /**
+    * Parses the values of a field.
+    *
+    * @param field the field
+    * @param line the line number, for the errors
+    * @return the values
+    * @throws ProgramFormatException if a value isn't a number or {@code ?}
+    */
+   private static int[] values(String field, int line) throws ProgramFormatException {
+      String[] t = tokens(field);
+      int[] v = new int[t.length];
+      for (int i = 0; i < t.length; i++) v[i] = value(t[i], line);
+      return v;
+   }
+   
+   /**
+    * Parses a single value.
+    *
+    * @param token the value, a number or {@code ?}
+    * @param line the line number, for the errors
+    * @return the cell
+    * @throws ProgramFormatException if the value isn't a number or {@code ?}
+    */
+   private static int value(String token, int line) throws ProgramFormatException {
+      if(token.equals("?")) return Value.UNDEFINED_CELL;
+      try {
+         return Integer.parseInt(token);
+      } catch (NumberFormatException e) {
+         throw new ProgramFormatException(line, "'" + token + "' is not a number");
+      }
+   }
+   
+   /**
+    * Runs a vector on a new machine.
+    *
+    * @param image the program
+    * @param v the vector
+    * @return the result
+    */
+   public Result grade(MemoryImage image, Vector v) {
+      Machine m = new Machine(image);
+      m.setStopOnInput(true);
+      int consumed = 0, produced = 0;
+      long printed = 0;
+      String failure = null;
+      while(failure == null && m.getInstructions() < maxInstructions) {
+         Machine.Status s = m.step();
+         if(m.getOutputs() != printed) {
+            printed = m.getOutputs();
+            if(produced >= v.outputs.length) failure = "unexpected output " + Value.fromCell(m.getBufOut());
+            else if(m.getBufOut() != v.outputs[produced]) failure = "output " + (produced + 1) + " is " + Value.fromCell(m.getBufOut()) + " instead of " + Value.fromCell(v.outputs[produced]);
+            produced++;
+         }
+         if(failure != null || s == Machine.Status.Running) continue;
+         if(s == Machine.Status.Input) {
+            if(consumed < v.inputs.length) m.feed(v.inputs[consumed++]);
+            else failure = "asks for input " + (consumed + 1) + ", only " + v.inputs.length + " provided";
+         } else if(s == Machine.Status.Undefined) {
+            failure = "undefined behaviour at PC " + m.getPc();
+         } else break;
+      }
+      Metrics.executed(m.getCycles(), m.getInstructions(), m.getMemoryReads(), m.getMemoryWrites(), m.getInvalidOpcodes(), m.getOutOfBounds());
+      if(failure == null && m.getStatus() != Machine.Status.Halted) failure = "still running after " + maxInstructions + " instructions";
+      if(failure == null && consumed < v.inputs.length) failure = "halted after consuming " + consumed + " of " + v.inputs.length + " inputs";
+      if(failure == null && produced < v.outputs.length) failure = "halted after " + produced + " of " + v.outputs.length + " outputs";
+      for (int i = 0; failure == null && i < v.addresses.length; i++) {
+         int cell = v.addresses[i] < m.getMCSize() ? m.getMC(v.addresses[i]) : Value.UNDEFINED_CELL;
+         if(cell != v.expected[i]) failure = "memory " + v.addresses[i] + " is " + Value.fromCell(cell) + " instead of " + Value.fromCell(v.expected[i]);
+      }
+      return new Result(v, failure, m.getInstructions(), m.getCycles());
+   }
+   
+   /**
+    * Grades several programs against the same vectors, running every vector of every program in parallel.
+    *
+    * @param images the programs
+    * @param vectors the vectors
+    * @return the results, indexed by program and then by vector
+    */
+   public Result[][] grade(List<MemoryImage> images, List<Vector> vectors) {
+      Result[][] results = new Result[images.size()][vectors.size()];
+      int n = vectors.size();
+      IntStream.range(0, images.size() * n).parallel().forEach(i -> results[i / n][i % n] = grade(images.get(i / n), vectors.get(i % n)));
+      return results;
+   }
+   
+   /**
+    * Command line entry point, see the class documentation for the usage.
+    *
+    * @param args the tool arguments
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      if(pos.length < 2) {
+         System.out.println("Usage: grade <vectors> <program>... [options]");
+         return;
+      }
+      List<Vector> vectors;
+      try {
+         vectors = readVectors(new File(pos[0]));
+      } catch (IOException e) {
+         System.err.println("Unable to read " + pos[0] + ": " + e.getMessage());
+         return;
+      } catch (ProgramFormatException e) {
+         System.err.println(pos[0] + ": " + e.getMessage());
+         return;
+      }
+      List<String> names = new ArrayList<>();
+      List<MemoryImage> images = new ArrayList<>();
+      for (int i = 1; i < pos.length; i++) {
+         try {
+            images.add(ImageCache.shared.get(new File(pos[i])));
+            names.add(pos[i]);
+         } catch (IOException e) {
+            System.err.println("Unable to read " + pos[i] + ": " + e.getMessage());
+         } catch (ProgramFormatException | AssemblerException e) {
+            System.err.println(pos[i] + ": " + e.getMessage());
+         }
+      }
+      long start = System.nanoTime();
+      Result[][] results = new Grader(DEFAULT_MAX_INSTRUCTIONS).grade(images, vectors);
+      long elapsed = (System.nanoTime() - start) / 1_000_000;
+      for (int p = 0; p < results.length; p++) {
+         int passed = 0;
+         System.out.println(names.get(p) + ":");
+         for (Result r: results[p]) {
+            if(r.passed()) passed++;
+            System.out.println("  " + (r.passed() ? "PASS " : "FAIL ") + r.vector.name + (r.passed() ? "" : ": " + r.failure));
+         }
+         System.out.println("  " + passed + "/" + vectors.size() + " vectors passed");
+      }
+      System.out.println("Graded " + results.length + " programs on " + vectors.size() + " vectors in " + elapsed + " ms");
+   }
+}
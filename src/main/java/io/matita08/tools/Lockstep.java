@@ -0,0 +1,216 @@
+package io.matita08.tools;
+
+import io.matita08.*;
+import io.matita08.data.*;
+import io.matita08.logic.*;
+import io.matita08.program.*;
+import io.matita08.value.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Differential runner comparing the reference engine with a {@link Machine}.
+ * <p>
+ * The program is loaded both in the {@link Registers}, stepped phase by phase by {@link Execution}
+ * like the graphical interface does, and in a machine. After every instruction the whole
+ * architectural state of the two engines is compared: the program counter, every register, the
+ * flags and the central memory. The run stops at the first difference, reporting the instruction
+ * and every field that differs, so any faster engine can be checked against the reference one
+ * instruction by instruction.
+ * </p>
+ *
+ * <p>
+ * Inputs are fed to both engines when the machine stops on an input instruction. The comparison
+ * ends without a divergence when the program halts, runs out of inputs or instructions, or when
+ * the machine reaches undefined behaviour: from there the reference engine acts on random values
+ * and can't be compared anymore. The same goes for registers the machine leaves undefined where the
+ * reference engine computed them from a random value, and for flags computed from an undefined
+ * accumulator: the comparison ends with the {@link Machine.Status#Undefined} status. Flags never set are compared as clear.
+ * </p>
+ *
+ * <p>The reference engine is a single global state: runs are serialized and replace the program
+ * loaded in the {@link Registers}.</p>
+ *
+ * <p>Command line usage: {@code lockstep <program> [maxInstructions] [inputs] [options]}, where
+ * {@code inputs} is a comma separated list of values.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Lockstep {
+   
+   /**
+    * Default maximum number of instructions compared.
+    */
+   public static final long DEFAULT_MAX_INSTRUCTIONS = 1_000_000;
+   
+   /**
+    * Private constructor to prevent instantiation.
+    */
+   private Lockstep() {}
+   
+   /**
+    * Result of a comparison.
+    */
+   public static final class Report {
+      /** Instructions executed by both engines with the same result. */
+      public long instructions;
+      /** Inputs fed to both engines. */
+      public int inputs;
+      /** Status of the machine at the end of the comparison. */
+      public Machine.Status status;
+      /** Program counter of the instruction that diverged, -1 if none did. */
+      public int divergedAt = -1;
+      /** The fields that differ, as "field: reference value, machine value", empty if none did. */
+      public final List<String> differences = new ArrayList<>();
+      
+      /**
+       * Checks if the engines agreed for the whole run.
+       *
+       * @return true if no difference was found
+       */
+      public boolean equivalent() {
+         return differences.isEmpty();
+      }
+   }
+   
+   /**
+    * Runs a program on both engines and compares them after every instruction.
+    *
+    * @param image the program
+    * @param inputs the values fed to the input instructions, in order
+    * @param maxInstructions the maximum number of instructions compared
+    * @return the result of the comparison
+    */
+   public static synchronized Report compare(MemoryImage image, int[] inputs, long maxInstructions) {
+      Report r = new Report();
+      Machine m = new Machine(image);
+      m.setStopOnInput(true);
+      Registers.reset(image.getCells());
+      while(r.instructions < maxInstructions) {
+         int pc = m.getPc();
+         Machine.Status s = m.step();
+         if(s == Machine.Status.Input) {
+            if(r.inputs == inputs.length) break;
+            m.feed(inputs[r.inputs]);
+            Registers.setBufIn(Value.create(inputs[r.inputs++]));
+            s = m.step();
+         }
+         if(s == Machine.Status.Undefined) break;
+         while(Execution.step()) {
+            if(ControlUnit.current == Phase.Execute && ControlUnit.next == Phase.Fetch) break;
+         }
+         r.instructions++;
+         if(diff(m, r.differences)) {
+            //Every difference comes from the reference engine acting on the random value of an undefined register
+            r.differences.clear();
+            r.status = Machine.Status.Undefined;
+            return r;
+         }
+         if(!r.differences.isEmpty()) {
+            r.divergedAt = pc;
+            break;
+         }
+         if(s == Machine.Status.Halted) break;
+      }
+      r.status = m.getStatus();
+      return r;
+   }
+   
+   /**
+    * Compares the state of the reference engine with a machine.
+    *
+    * @param m the machine
+    * @param out where the differences are added
+    * @return true if there are differences and every one of them is a register undefined in the machine
+    * or flags computed from an undefined accumulator, which are random in the reference engine
+    */
+   private static boolean diff(Machine m, List<String> out) {
+      int random = 0;
+      random += field(out, "PC", cell(Registers.pc()), m.getPc());
+      random += field(out, "IR", cell(Registers.getIr()), m.getIr());
+      random += field(out, "MAR", cell(Registers.getMAR()), m.getMar());
+      random += field(out, "MDR", cell(Registers.getMDR()), m.getMdr());
+      random += field(out, "Pointer", cell(Registers.getPointer()), m.getPointer());
+      random += field(out, "Acc", cell(Registers.getAcc()), m.getAcc());
+      random += field(out, "RegB", cell(Registers.getRegB()), m.getRegB());
+      random += field(out, "BufIn", cell(Registers.getBufIn()), m.getBufIn());
+      random += field(out, "BufOut", cell(Registers.getBufOut()), m.getBufOut());
+      int flags = (Registers.getZero() ? FlagsConstants.ZERO.get() : 0) | (Registers.getOverflow() ? FlagsConstants.OVERFLOW.get() : 0);
+      if(flags != m.getFlags()) {
+         field(out, "Flags", flags, m.getFlags());
+         if(m.getAcc() == Value.UNDEFINED_CELL) random++;
+      }
+      Memory mc = Registers.memory();
+      int end = Math.max(mc.extent(), m.getMCSize());
+      for (int i = 0; i < end; i++) {
+         int ref = i < mc.size() ? mc.get(i) : Value.UNDEFINED_CELL;
+         random += field(out, "MC[" + i + "]", ref, m.getMC(i));
+      }
+      return !out.isEmpty() && random == out.size();
+   }
+   
+   /**
+    * Converts a register of the reference engine to a cell.
+    *
+    * @param v the register
+    * @return the cell, {@link Value#UNDEFINED_CELL} if the value or, for addresses, any of its words is undefined
+    */
+   private static int cell(Value v) {
+      if(v instanceof DoubleValue dv) {
+         for (int i = 0; i < Constants.getAddressSize(); i++) if(dv.getWord(i).isUndefined()) return Value.UNDEFINED_CELL;
+      }
+      return Value.toCell(v);
+   }
+   
+   /**
+    * Records a field if the two engines disagree on it.
+    *
+    * @param out the differences
+    * @param name the name of the field
+    * @param reference the value of the reference engine
+    * @param machine the value of the machine
+    * @return 1 if the field differs only because it's undefined in the machine, otherwise 0
+    */
+   private static int field(List<String> out, String name, int reference, int machine) {
+      if(reference == machine) return 0;
+      out.add(name + ": reference " + Value.fromCell(reference) + ", machine " + Value.fromCell(machine));
+      return machine == Value.UNDEFINED_CELL ? 1 : 0;
+   }
+   
+   /**
+    * Command line entry point, see the class documentation for the usage.
+    *
+    * @param args the tool arguments
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      if(pos.length < 1) {
+         System.out.println("Usage: lockstep <program> [maxInstructions] [inputs] [options]");
+         return;
+      }
+      MemoryImage image;
+      try {
+         image = ImageCache.shared.get(new File(pos[0]));
+      } catch (IOException e) {
+         System.err.println("Unable to read " + pos[0] + ": " + e.getMessage());
+         return;
+      } catch (ProgramFormatException | AssemblerException e) {
+         System.err.println(pos[0] + ": " + e.getMessage());
+         return;
+      }
+      long max = pos.length > 1 ? Long.parseLong(pos[1]) : DEFAULT_MAX_INSTRUCTIONS;
+      int[] inputs = pos.length > 2 ? Arrays.stream(pos[2].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray() : new int[0];
+      Report r = compare(image, inputs, max);
+      if(r.equivalent()) {
+         System.out.println("Equivalent for " + r.instructions + " instructions and " + r.inputs + " inputs, machine status " + r.status);
+         return;
+      }
+      System.out.println("Diverged at instruction " + r.instructions + " (PC " + r.divergedAt + ") after " + r.inputs + " inputs:");
+      for (String d: r.differences) System.out.println("  " + d);
+   }
+}
@@ -0,0 +1,162 @@
+package io.matita08.tools;
+
+import io.matita08.Constants;
+import io.matita08.data.Memory;
+import io.matita08.value.Value;
+
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Compares the central memory backends on the configured memory size.
+ * <p>
+ * Every backend in {@link Constants#MEMORY_BACKENDS} is filled, read sequentially and
+ * hit with random read-modify-write accesses, like the ones of a running program; then,
+ * while the memory is still alive, short-lived garbage is allocated so the cost of the
+ * memory on the garbage collector shows up in the collection time. Each measure is
+ * repeated for a number of passes and the best one is reported, the first passes
+ * also warm up the JIT.
+ * </p>
+ *
+ * <p>Command line usage: {@code membench [passes] [options]}, for example
+ * {@code membench 5 -s 4096 -a 3 -mc 268435456}.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class MemoryBenchmark {
+   
+   /**
+    * Number of random accesses per pass.
+    */
+   private static final int RANDOM_ACCESSES = 1 << 24;
+   
+   /**
+    * Bytes of garbage allocated per pass to measure the collector.
+    */
+   private static final long GARBAGE = 1L << 31;
+   
+   /**
+    * Prevents the JIT from removing the reads.
+    */
+   private static volatile long sink;
+   
+   /**
+    * Private constructor to prevent instantiation.
+    */
+   private MemoryBenchmark() {}
+   
+   /**
+    * Fills every cell.
+    *
+    * @param m the memory
+    */
+   private static void fill(Memory m) {
+      int max = Constants.getValueMax();
+      for (int i = 0; i < m.size(); i++) m.set(i, i % max);
+   }
+   
+   /**
+    * Reads every cell.
+    *
+    * @param m the memory
+    */
+   private static void scan(Memory m) {
+      long sum = 0;
+      for (int i = 0; i < m.size(); i++) sum += m.get(i);
+      sink = sum;
+   }
+   
+   /**
+    * Increments random cells.
+    *
+    * @param m the memory
+    */
+   private static void random(Memory m) {
+      int x = 0x9E3779B9, max = Constants.getValueMax();
+      for (int i = 0; i < RANDOM_ACCESSES; i++) {
+         x ^= x << 13;
+         x ^= x >>> 17;
+         x ^= x << 5;
+         int a = (int)((x & 0xFFFFFFFFL) % m.size());
+         int c = m.get(a);
+         m.set(a, c == Value.UNDEFINED_CELL ? 0 : (c + 1) % max);
+      }
+   }
+   
+   /**
+    * Allocates short-lived garbage, keeping some of it alive long enough to be promoted.
+    *
+    * @return the milliseconds spent in garbage collection meanwhile
+    */
+   private static long churn() {
+      long before = gcMillis();
+      Object[] keep = new Object[1 << 12];
+      for (long done = 0; done < GARBAGE; done += 1 << 10) keep[(int)(done >>> 10) & (keep.length - 1)] = new byte[1 << 10];
+      sink = keep.length;
+      return gcMillis() - before;
+   }
+   
+   /**
+    * Gets the total time spent in garbage collection.
+    *
+    * @return the collection time, in milliseconds
+    */
+   private static long gcMillis() {
+      long t = 0;
+      for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) t += Math.max(0, gc.getCollectionTime());
+      return t;
+   }
+   
+   /**
+    * Gets the bytes of heap in use after a collection.
+    *
+    * @return the used heap, in bytes
+    */
+   private static long usedHeap() {
+      System.gc();
+      return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+   }
+   
+   /**
+    * Measures a phase.
+    *
+    * @param phase the phase to run
+    * @param m the memory
+    * @return the elapsed time, in nanoseconds
+    */
+   private static long time(java.util.function.Consumer<Memory> phase, Memory m) {
+      long start = System.nanoTime();
+      phase.accept(m);
+      return System.nanoTime() - start;
+   }
+   
+   /**
+    * Runs the benchmark.
+    *
+    * @param args the number of passes followed by the simulator options
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      int passes = pos.length > 0 ? Integer.parseInt(pos[0]) : 3;
+      int size = Constants.getMCSize();
+      System.out.println("Memory of " + size + " cells, best of " + passes + " passes");
+      for (String backend: Constants.MEMORY_BACKENDS) {
+         long heap = usedHeap();
+         Memory m = Memory.create(backend, size);
+         long fill = Long.MAX_VALUE, scan = Long.MAX_VALUE, random = Long.MAX_VALUE, gc = Long.MAX_VALUE;
+         for (int p = 0; p < passes; p++) {
+            fill = Math.min(fill, time(MemoryBenchmark::fill, m));
+            scan = Math.min(scan, time(MemoryBenchmark::scan, m));
+            random = Math.min(random, time(MemoryBenchmark::random, m));
+            gc = Math.min(gc, churn());
+         }
+         heap = usedHeap() - heap;
+         System.out.printf(Locale.ROOT, "%-8s fill %6.2f ns/cell, scan %6.2f ns/cell, random %6.2f ns/access, GC %5d ms per %d MiB of garbage, heap %d MiB, storage %d MiB%n",
+            backend, (double)fill / size, (double)scan / size, (double)random / RANDOM_ACCESSES, gc, GARBAGE >> 20, heap >> 20, m.allocatedBytes() >> 20);
+         sink = m.get(size - 1);
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package io.matita08.tools;
+
+import io.matita08.*;
+import io.matita08.data.*;
+import io.matita08.logic.*;
+import io.matita08.program.*;
+import io.matita08.value.Value;
+
+import java.io.*;
+
+/**
+ * Headless run of a program on the reference engine.
+ * <p>
+ * The program is loaded in the {@link Registers} and executed step by step by {@link Execution},
+ * exactly like the graphical interface does, but without ever loading Swing: it's meant for
+ * scripts starting many short-lived simulator processes. Every value written to the output buffer
+ * is printed, or written where {@code -out} says, the inputs can be read with {@code -in} like
+ * described by {@link IOChannels}, with {@code -mf} the run is checkpointed and a later run continues it.
+ * </p>
+ *
+ * <p>When the memory file holds a saved run the program isn't loaded again, as it would overwrite
+ * the memory the run already changed, and the input argument is ignored: the run continues with the
+ * memory, the registers and the input buffer it had.</p>
+ *
+ * <p>Command line usage: {@code run <program> [maxInstructions] [input] [options]}, where
+ * {@code input} is the value of the input buffer (default: undefined). With {@code -log debug}
+ * the time to the first executed instruction is reported.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Runner {
+   
+   /**
+    * Default maximum number of instructions executed.
+    */
+   public static final long DEFAULT_MAX_INSTRUCTIONS = 1_000_000;
+   
+   /**
+    * Private constructor to prevent instantiation.
+    */
+   private Runner() {}
+   
+   /**
+    * Runs the tool.
+    *
+    * @param args the program, the optional instruction budget and input, followed by the simulator options
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      if(pos.length < 1) {
+         System.out.println("Usage: run <program> [maxInstructions] [input] [options]");
+         return;
+      }
+      long max = pos.length > 1 ? Long.parseLong(pos[1]) : DEFAULT_MAX_INSTRUCTIONS;
+      if(Registers.isRestored()) {
+         Log.info("Continuing the run saved in " + Constants.getMemoryFile() + ", " + pos[0] + " isn't loaded again");
+      } else {
+         try {
+            Registers.loadMC(ImageCache.shared.load(new File(pos[0])));
+         } catch (IOException e) {
+            System.err.println("Unable to read " + pos[0] + ": " + e.getMessage());
+            return;
+         } catch (ProgramFormatException | AssemblerException e) {
+            System.err.println(pos[0] + ": " + e.getMessage());
+            return;
+         }
+         if(pos.length > 2) Registers.setBufIn(Value.create(Integer.parseInt(pos[2])));
+      }
+      IOChannels.configure();
+      if(Constants.getOutputFile() == null) IOChannels.addOutput(v -> System.out.println("Output: " + v));
+      long executed = 0;
+      while(executed < max && Execution.step()) {
+         if(ControlUnit.current == Phase.Execute && ControlUnit.next == Phase.Fetch) executed++;
+      }
+      String state = IOChannels.isWaiting() ? "Waiting for input" : executed < max ? "Halted" : "Stopped";
+      System.out.println(state + " after " + executed + " instructions, Acc: " + Registers.getAcc() + ", PC: " + Registers.pc());
+   }
+}
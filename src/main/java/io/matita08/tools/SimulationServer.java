@@ -0,0 +1,440 @@
+package io.matita08.tools;
+
+import com.sun.net.httpserver.*;
+import io.matita08.*;
+import io.matita08.logic.Machine;
+import io.matita08.program.*;
+import io.matita08.value.Value;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local HTTP service running programs on pooled {@link Machine}s.
+ * <p>
+ * Other tools submit a program with a {@code POST} and get the final state back as JSON,
+ * without starting a simulator process per program. Every worker owns a machine, reset before
+ * each run instead of being allocated again. Requests wait for a worker in a bounded queue:
+ * when it's full the request is refused right away with {@code 503}, so an overloaded service
+ * answers quickly instead of piling up connections. The latencies of the last
+ * {@value #LATENCY_SAMPLES} requests are kept to report their percentiles.
+ * </p>
+ *
+ * <p>Endpoints, bound to the loopback interface only:</p>
+ * <ul>
+ *   <li>{@code POST /run?inputs=1,2&cycles=100000&format=auto&memory=true}: runs the program in
+ *   the body, a binary {@link MemoryImage}, a text program or, with {@code format=asm}, an
+ *   assembly source. {@code inputs} are fed to the input instructions in order, {@code cycles}
+ *   is the clock cycle budget (default {@value #DEFAULT_CYCLES}, at most the server maximum, so a
+ *   program that never halts can't hold a worker for good), {@code memory=false} leaves
+ *   the memory out of the answer.</li>
+ *   <li>{@code GET /stats}: requests served and refused, latency percentiles in milliseconds.</li>
+ * </ul>
+ *
+ * <p>Command line usage: {@code serve [port] [workers] [queue] [maxCycles] [options]}, by default
+ * {@value #DEFAULT_PORT}, one worker per processor, a queue of {@value #DEFAULT_QUEUE} and a
+ * budget of {@value #DEFAULT_MAX_CYCLES} cycles at most.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class SimulationServer {
+   
+   /**
+    * Default port.
+    */
+   public static final int DEFAULT_PORT = 8642;
+   
+   /**
+    * Default number of requests waiting for a worker.
+    */
+   public static final int DEFAULT_QUEUE = 64;
+   
+   /**
+    * Default clock cycle budget of a run.
+    */
+   public static final long DEFAULT_CYCLES = 10_000_000;
+   
+   /**
+    * Default maximum clock cycle budget a request can ask for.
+    */
+   public static final long DEFAULT_MAX_CYCLES = 1_000_000_000;
+   
+   /**
+    * Maximum size of a request body.
+    */
+   public static final int MAX_BODY = 16 << 20;
+   
+   /**
+    * Number of latencies kept for the percentiles.
+    */
+   public static final int LATENCY_SAMPLES = 8192;
+   
+   /**
+    * The HTTP server.
+    */
+   private final HttpServer server;
+   
+   /**
+    * Threads reading the requests and queuing them.
+    */
+   private final ExecutorService io;
+   
+   /**
+    * Threads running the programs, with the bounded queue.
+    */
+   private final ThreadPoolExecutor workers;
+   
+   /**
+    * Machines not used by a worker.
+    */
+   private final BlockingQueue<Machine> machines;
+   
+   /**
+    * Maximum clock cycle budget of a run.
+    */
+   private final long maxCycles;
+   
+   /**
+    * Requests answered and requests refused because the queue was full.
+    */
+   private final LongAdder served = new LongAdder(), refused = new LongAdder();
+   
+   /**
+    * Latest latencies in nanoseconds, a ring indexed by {@link #latencyCount}.
+    */
+   private final long[] latencies = new long[LATENCY_SAMPLES];
+   
+   /**
+    * Number of latencies ever recorded.
+    */
+   private long latencyCount;
+   
+   /**
+    * Creates and starts a server.
+    *
+    * @param port the port, 0 for any free port
+    * @param threads the number of workers
+    * @param queue the number of requests that can wait for a worker
+    * @param maxCycles the maximum clock cycle budget a request can ask for
+    * @throws IOException if the port can't be bound
+    */
+   public SimulationServer(int port, int threads, int queue, long maxCycles) throws IOException {
+      this.maxCycles = maxCycles;
+      machines = new ArrayBlockingQueue<>(threads);
+      for (int i = 0; i < threads; i++) machines.add(new Machine());
+      workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue), daemon("Sim-worker"), new ThreadPoolExecutor.AbortPolicy());
+      io = Executors.newFixedThreadPool(Math.max(2, threads / 4), daemon("Sim-http"));
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads + queue);
+      server.setExecutor(io);
+      server.createContext("/run", this::run);
+      server.createContext("/stats", this::stats);
+      server.start();
+   }
+   
+   /**
+    * Creates a factory of named daemon threads.
+    *
+    * @param name the prefix of the thread names
+    * @return the factory
+    */
+   private static ThreadFactory daemon(String name) {
+      LongAdder count = new LongAdder();
+      return r -> {
+         count.increment();
+         Thread t = new Thread(r, name + "-" + count.sum());
+         t.setDaemon(true);
+         return t;
+      };
+   }
+   
+   /**
+    * Gets the port the server listens on.
+    *
+    * @return the port
+    */
+   public int getPort() {
+      return server.getAddress().getPort();
+   }
+   
+   /**
+    * Stops the server, waiting at most a second for the running requests.
+    */
+   public void stop() {
+      server.stop(1);
+      workers.shutdownNow();
+      io.shutdownNow();
+   }
+   
+   /**
+    * Handles {@code /run}: reads the request and queues the run, the worker answers.
+    *
+    * @param ex the exchange
+    * @throws IOException if the answer can't be sent
+    */
+   private void run(HttpExchange ex) throws IOException {
+      long received = System.nanoTime();
+      if(!ex.getRequestMethod().equals("POST")) {
+         error(ex, 405, "use POST");
+         return;
+      }
+      Map<String, String> query = query(ex.getRequestURI());
+      byte[] body;
+      try (InputStream in = ex.getRequestBody()) {
+         body = in.readNBytes(MAX_BODY + 1);
+      }
+      if(body.length > MAX_BODY) {
+         error(ex, 413, "the program is larger than " + MAX_BODY + " bytes");
+         return;
+      }
+      try {
+         workers.execute(() -> {
+            try {
+               execute(ex, query, body);
+            } catch (IOException e) {
+               Log.debug("Unable to answer a request: " + e.getMessage());
+            } catch (RuntimeException e) {
+               Log.error("Unable to run a request", e);
+               try {
+                  error(ex, 500, "internal error: " + e);
+               } catch (IOException io) {
+                  Log.debug("Unable to answer a request: " + io.getMessage());
+               }
+            } finally {
+               ex.close();
+               record(System.nanoTime() - received);
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         refused.increment();
+         ex.getResponseHeaders().set("Retry-After", "1");
+         error(ex, 503, "too many requests waiting");
+      }
+   }
+   
+   /**
+    * Runs a request on a pooled machine and sends the final state.
+    *
+    * @param ex the exchange
+    * @param query the query parameters
+    * @param body the program
+    * @throws IOException if the answer can't be sent
+    */
+   private void execute(HttpExchange ex, Map<String, String> query, byte[] body) throws IOException {
+      MemoryImage image;
+      int[] inputs;
+      long budget;
+      try {
+         image = parse(body, query.getOrDefault("format", "auto"));
+         inputs = query.containsKey("inputs") && !query.get("inputs").isEmpty() ? Arrays.stream(query.get("inputs").split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray() : new int[0];
+         budget = query.containsKey("cycles") ? Long.parseLong(query.get("cycles")) : DEFAULT_CYCLES;
+      } catch (NumberFormatException e) {
+         error(ex, 400, "invalid number: " + e.getMessage());
+         return;
+      } catch (IOException | ProgramFormatException | AssemblerException e) {
+         error(ex, 400, e.getMessage());
+         return;
+      }
+      if(budget < 0 || budget > maxCycles) {
+         error(ex, 400, "the cycle budget must be between 0 and " + maxCycles);
+         return;
+      }
+      Machine m = machines.poll();  //Never empty, there are as many machines as workers
+      try {
+         m.reset(image);
+         m.setStopOnInput(true);
+         StringBuilder outputs = new StringBuilder();
+         long printed = 0;
+         int consumed = 0;
+         while(m.getCycles() < budget) {
+            Machine.Status s = m.step();
+            if(m.getOutputs() != printed) {
+               printed = m.getOutputs();
+               outputs.append(outputs.length() == 0 ? "" : ",").append(cell(m.getBufOut()));
+            }
+            if(s == Machine.Status.Input && consumed < inputs.length) m.feed(inputs[consumed++]);
+            else if(s != Machine.Status.Running) break;
+         }
+         Metrics.executed(m.getCycles(), m.getInstructions(), m.getMemoryReads(), m.getMemoryWrites(), m.getInvalidOpcodes(), m.getOutOfBounds());
+         StringBuilder json = new StringBuilder(256);
+         json.append("{\"status\":\"").append(m.getStatus()).append('"');
+         json.append(",\"cycles\":").append(m.getCycles()).append(",\"instructions\":").append(m.getInstructions());
+         json.append(",\"inputsConsumed\":").append(consumed).append(",\"outputs\":[").append(outputs).append(']');
+         json.append(",\"pc\":").append(m.getPc()).append(",\"acc\":").append(cell(m.getAcc())).append(",\"regB\":").append(cell(m.getRegB()));
+         json.append(",\"pointer\":").append(cell(m.getPointer())).append(",\"bufIn\":").append(cell(m.getBufIn())).append(",\"bufOut\":").append(cell(m.getBufOut()));
+         json.append(",\"flags\":").append(m.getFlags());
+         if(!"false".equals(query.get("memory"))) {
+            int end = m.getMCSize();
+            while(end > 0 && m.getMC(end - 1) == Value.UNDEFINED_CELL) end--;
+            json.append(",\"memory\":[");
+            for (int i = 0; i < end; i++) json.append(i == 0 ? "" : ",").append(cell(m.getMC(i)));
+            json.append(']');
+         }
+         send(ex, 200, json.append('}').toString());
+      } finally {
+         machines.add(m);
+      }
+   }
+   
+   /**
+    * Parses the program of a request.
+    *
+    * @param body the request body
+    * @param format bin, text, asm or auto, which tells binary images from text programs
+    * @return the image
+    * @throws IOException if a binary image is corrupted or the format is unknown
+    * @throws ProgramFormatException if a line of a text program is malformed
+    * @throws AssemblerException if an assembly source is malformed
+    */
+   private static MemoryImage parse(byte[] body, String format) throws IOException, ProgramFormatException, AssemblerException {
+      switch(format) {
+         case "asm":
+            return new MemoryImage(new Assembler().assemble(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)));
+         case "text":
+            return new MemoryImage(ProgramLoader.read(new ByteArrayInputStream(body)));
+         case "bin":
+         case "auto":
+            if(format.equals("auto") && !MemoryImage.isImage(body)) return new MemoryImage(ProgramLoader.read(new ByteArrayInputStream(body)));
+            MemoryImage img = MemoryImage.read(ByteBuffer.wrap(body));
+            String mismatch = img.checkConfiguration();
+            if(mismatch != null) throw new IOException("The image doesn't match the server configuration, " + mismatch);
+            return img;
+         default:
+            throw new IOException("Unknown format " + format + ", use auto, bin, text or asm");
+      }
+   }
+   
+   /**
+    * Handles {@code /stats}.
+    *
+    * @param ex the exchange
+    * @throws IOException if the answer can't be sent
+    */
+   private void stats(HttpExchange ex) throws IOException {
+      try (ex) {
+         send(ex, 200, statistics());
+      }
+   }
+   
+   /**
+    * Describes the requests served so far.
+    *
+    * @return a JSON object with the counters and the latency percentiles in milliseconds
+    */
+   public String statistics() {
+      long[] sorted;
+      synchronized(latencies) {
+         sorted = Arrays.copyOf(latencies, (int)Math.min(latencyCount, LATENCY_SAMPLES));
+      }
+      Arrays.sort(sorted);
+      StringBuilder json = new StringBuilder("{\"served\":").append(served.sum()).append(",\"refused\":").append(refused.sum());
+      json.append(",\"queued\":").append(workers.getQueue().size()).append(",\"samples\":").append(sorted.length);
+      for (int p: new int[]{50, 90, 99}) json.append(",\"p").append(p).append("\":").append(sorted.length == 0 ? 0 : sorted[(sorted.length - 1) * p / 100] / 1e6);
+      return json.append(",\"max\":").append(sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6).append('}').toString();
+   }
+   
+   /**
+    * Records the latency of a request.
+    *
+    * @param nanos the time from the request to the end of the answer
+    */
+   private void record(long nanos) {
+      served.increment();
+      synchronized(latencies) {
+         latencies[(int)(latencyCount++ % LATENCY_SAMPLES)] = nanos;
+      }
+   }
+   
+   /**
+    * Formats a cell as JSON.
+    *
+    * @param cell the cell
+    * @return the number, or null if undefined
+    */
+   private static String cell(int cell) {
+      return cell == Value.UNDEFINED_CELL ? "null" : Integer.toString(cell);
+   }
+   
+   /**
+    * Parses the query of a request.
+    *
+    * @param uri the request URI
+    * @return the decoded parameters
+    */
+   private static Map<String, String> query(URI uri) {
+      Map<String, String> map = new HashMap<>();
+      String q = uri.getRawQuery();
+      if(q == null) return map;
+      for (String pair: q.split("&")) {
+         int eq = pair.indexOf('=');
+         if(eq < 0) map.put(URLDecoder.decode(pair, StandardCharsets.UTF_8), "");
+         else map.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+      }
+      return map;
+   }
+   
+   /**
+    * Sends an error.
+    *
+    * @param ex the exchange, closed afterwards
+    * @param code the HTTP status
+    * @param message the description of the error
+    * @throws IOException if the answer can't be sent
+    */
+   private static void error(HttpExchange ex, int code, String message) throws IOException {
+      try (ex) {
+         send(ex, code, "{\"error\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"}");
+      }
+   }
+   
+   /**
+    * Sends a JSON answer.
+    *
+    * @param ex the exchange
+    * @param code the HTTP status
+    * @param json the body
+    * @throws IOException if the answer can't be sent
+    */
+   private static void send(HttpExchange ex, int code, String json) throws IOException {
+      byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+      ex.getResponseHeaders().set("Content-Type", "application/json");
+      ex.sendResponseHeaders(code, bytes.length);
+      try (OutputStream out = ex.getResponseBody()) {
+         out.write(bytes);
+      }
+   }
+   
+   /**
+    * Runs the tool until the process is stopped, printing the statistics on exit.
+    *
+    * @param args the optional port, number of workers, queue size and maximum cycle budget, followed by the simulator options
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      int port = pos.length > 0 ? Integer.parseInt(pos[0]) : DEFAULT_PORT;
+      int threads = pos.length > 1 ? Integer.parseInt(pos[1]) : Runtime.getRuntime().availableProcessors();
+      int queue = pos.length > 2 ? Integer.parseInt(pos[2]) : DEFAULT_QUEUE;
+      long maxCycles = pos.length > 3 ? Long.parseLong(pos[3]) : DEFAULT_MAX_CYCLES;
+      SimulationServer s;
+      try {
+         s = new SimulationServer(port, threads, queue, maxCycles);
+      } catch (IOException e) {
+         System.err.println("Unable to start the server on port " + port + ": " + e.getMessage());
+         return;
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("Statistics: " + s.statistics()), "Sim-stats"));
+      System.out.println("Listening on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + s.getPort() + " with " + threads + " workers, " + queue + " queued requests and " + maxCycles + " cycles per request at most");
+      try {
+         Thread.currentThread().join();
+      } catch (InterruptedException ignored) {
+         s.stop();
+      }
+   }
+}
@@ -0,0 +1,452 @@
+package io.matita08.tools;
+
+import io.matita08.*;
+import io.matita08.logic.*;
+import io.matita08.program.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Superoptimizer searching the shortest, or fastest, 3-bit program meeting a specification.
+ * <p>
+ * The specification is a {@link Grader} vector file. Candidate programs are enumerated by
+ * increasing number of instructions, always ending with a halt, and every candidate is run on the
+ * vectors with {@link Grader#grade(MemoryImage, Grader.Vector)}: the first vector failing rejects
+ * it, and the vector that rejected the last candidate is tried first, since it usually rejects the
+ * next ones too. The search is a {@link ForkJoinPool} task splitting on the first instructions,
+ * so idle cores steal the remaining prefixes from the busy ones.
+ * </p>
+ *
+ * <p>
+ * Jumps target the start of an instruction of the candidate. Loads and stores use the addresses
+ * checked by the vectors or scratch cells placed right after the program, numbered in order of
+ * first use so that programs differing only by the scratch cells they use are generated once.
+ * Sequences with an obviously useless instruction are skipped: two sets in a row, a load
+ * overwritten by the next load, a load of the cell just stored, a store repeated and a jump to itself.
+ * The first four are only skipped once the candidate is complete and no jump reaches the useless
+ * instruction, which could otherwise run with a different state.
+ * </p>
+ *
+ * <p>
+ * With the {@code length} objective the search stops at the first length with a solution,
+ * returning the one taking the fewest cycles over all the vectors; with {@code cycles} every
+ * length up to the maximum is searched for the program taking the fewest cycles.
+ * </p>
+ *
+ * <p>Command line usage: {@code superopt <vectors> [maxInstructions] [length|cycles] [output] [options]},
+ * the best program is printed as assembly and, if an output is given, saved as a program file.</p>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+public final class Superoptimizer {
+   
+   /**
+    * Default maximum number of instructions of a candidate.
+    */
+   public static final int DEFAULT_MAX_LENGTH = 6;
+   
+   /**
+    * Maximum number of instructions a candidate may execute on a single vector.
+    */
+   public static final long CANDIDATE_BUDGET = 1000;
+   
+   /**
+    * Number of leading instructions enumerated by separate tasks, the rest is enumerated sequentially.
+    */
+   private static final int SPLIT_DEPTH = 2;
+   
+   /**
+    * Number of scratch cells a candidate may use.
+    */
+   private static final int SCRATCH = 3;
+   
+   /**
+    * What the search minimises.
+    */
+   public enum Objective {
+      /** The number of instructions, then the cycles. */
+      Length,
+      /** The cycles over all the vectors. */
+      Cycles
+   }
+   
+   /**
+    * An instruction of a candidate.
+    *
+    * @param op the operation
+    * @param operand the target instruction for jumps, the data address index for loads and stores, -1 for the others
+    */
+   private record Instr(Operation op, int operand) {}
+   
+   /**
+    * A program meeting the specification.
+    */
+   public static final class Solution {
+      /** The memory image of the program. */
+      public final int[] cells;
+      /** The program as assembly source. */
+      public final String source;
+      /** Number of instructions. */
+      public final int length;
+      /** Clock cycles over all the vectors. */
+      public final long cycles;
+      
+      /**
+       * Creates a solution.
+       *
+       * @param cells the memory image
+       * @param source the assembly source
+       * @param length the number of instructions
+       * @param cycles the clock cycles over all the vectors
+       */
+      Solution(int[] cells, String source, int length, long cycles) {
+         this.cells = cells;
+         this.source = source;
+         this.length = length;
+         this.cycles = cycles;
+      }
+   }
+   
+   /**
+    * The vectors of the specification.
+    */
+   private final List<Grader.Vector> vectors;
+   
+   /**
+    * Grader running the candidates.
+    */
+   private final Grader grader = new Grader(CANDIDATE_BUDGET);
+   
+   /**
+    * Operations a candidate is made of, the halt excluded.
+    */
+   private final Operation[] alphabet;
+   
+   /**
+    * The operations with special pruning rules.
+    */
+   private final Operation set, load, sto, jpz, halt;
+   
+   /**
+    * Addresses checked by the vectors, usable by loads and stores before the scratch cells.
+    */
+   private final int[] fixed;
+   
+   /**
+    * Index of the vector that rejected the last candidate.
+    */
+   private final AtomicInteger hardest = new AtomicInteger();
+   
+   /**
+    * Candidates evaluated.
+    */
+   private final LongAdder evaluated = new LongAdder();
+   
+   /**
+    * Best solution found so far, null if none.
+    */
+   private Solution best;
+   
+   /**
+    * Creates a superoptimizer.
+    *
+    * @param vectors the specification
+    */
+   public Superoptimizer(List<Grader.Vector> vectors) {
+      this.vectors = vectors;
+      InstructionTable table = InstructionTable.of("3bit");
+      set = operation(table, "set");
+      load = operation(table, "load");
+      sto = operation(table, "sto");
+      jpz = operation(table, "jpz");
+      halt = table.halt;
+      alphabet = table.operations.stream().filter(op -> op != table.unknown && op.opcode >= 0).toArray(Operation[]::new);
+      fixed = vectors.stream().flatMapToInt(v -> Arrays.stream(v.addresses)).distinct().sorted().toArray();
+   }
+   
+   /**
+    * Finds an operation by mnemonic.
+    *
+    * @param table the instruction set
+    * @param name the mnemonic
+    * @return the operation
+    */
+   private static Operation operation(InstructionTable table, String name) {
+      return table.operations.stream().filter(op -> op.name.equals(name)).findFirst().orElseThrow();
+   }
+   
+   /**
+    * Searches the best program.
+    *
+    * @param maxLength the maximum number of instructions, the halt included
+    * @param objective what to minimise
+    * @return the best program, or null if none up to the maximum length meets the specification
+    */
+   public synchronized Solution search(int maxLength, Objective objective) {
+      best = null;
+      for (int length = 1; length <= maxLength; length++) {
+         ForkJoinPool.commonPool().invoke(new Prefix(new Instr[length], 0, 0));
+         if(best != null && objective == Objective.Length) break;
+      }
+      return best;
+   }
+   
+   /**
+    * Gets the number of candidates evaluated so far.
+    *
+    * @return the number of candidates run on the vectors
+    */
+   public long getEvaluated() {
+      return evaluated.sum();
+   }
+   
+   /**
+    * Enumeration of the candidates starting with a prefix.
+    */
+   private final class Prefix extends RecursiveAction {
+      /** Serialization version, tasks are never serialized. */
+      private static final long serialVersionUID = 1L;
+      /** The candidate being built, shared with the sequential enumeration below this task. */
+      private final Instr[] program;
+      /** Number of instructions already chosen. */
+      private final int depth;
+      /** Number of scratch cells used by the prefix. */
+      private final int scratch;
+      
+      /**
+       * Creates a task.
+       *
+       * @param program the candidate, owned by this task
+       * @param depth the number of instructions already chosen
+       * @param scratch the number of scratch cells used by them
+       */
+      Prefix(Instr[] program, int depth, int scratch) {
+         this.program = program;
+         this.depth = depth;
+         this.scratch = scratch;
+      }
+      
+      /** {@inheritDoc} */
+      @Override
+      protected void compute() {
+         if(depth >= SPLIT_DEPTH || depth == program.length - 1) {
+            enumerate(program, depth, scratch);
+            return;
+         }
+         List<Prefix> forks = new ArrayList<>();
+         for (Instr next: choices(program, depth, scratch)) {
+            Instr[] child = program.clone();
+            child[depth] = next;
+            forks.add(new Prefix(child, depth + 1, Math.max(scratch, scratchUsed(next))));
+         }
+         invokeAll(forks);
+      }
+   }
+   
+   /**
+    * Enumerates sequentially the candidates starting with a prefix.
+    *
+    * @param program the candidate, filled from depth on
+    * @param depth the number of instructions already chosen
+    * @param scratch the number of scratch cells used by them
+    */
+   private void enumerate(Instr[] program, int depth, int scratch) {
+      if(depth == program.length - 1) {
+         program[depth] = new Instr(halt, -1);
+         if(!redundant(program)) evaluate(program, scratch);
+         return;
+      }
+      for (Instr next: choices(program, depth, scratch)) {
+         program[depth] = next;
+         enumerate(program, depth + 1, Math.max(scratch, scratchUsed(next)));
+      }
+   }
+   
+   /**
+    * Gets the scratch cells needed by an instruction.
+    *
+    * @param in the instruction
+    * @return the number of scratch cells up to the one it uses, 0 if it uses none
+    */
+   private int scratchUsed(Instr in) {
+      return in.operand >= fixed.length && in.op != jpz ? in.operand - fixed.length + 1 : 0;
+   }
+   
+   /**
+    * Lists the instructions that can follow a prefix.
+    * The instructions made useless by the previous one are only known once no jump
+    * can reach them, they are discarded by {@link #redundant(Instr[])}.
+    *
+    * @param program the candidate
+    * @param depth the position of the instruction to choose
+    * @param scratch the number of scratch cells used so far
+    * @return the instructions
+    */
+   private List<Instr> choices(Instr[] program, int depth, int scratch) {
+      List<Instr> out = new ArrayList<>();
+      for (Operation op: alphabet) {
+         if(op.operands == 0) {
+            out.add(new Instr(op, -1));
+         } else if(op == jpz) {
+            for (int target = 0; target < program.length; target++) if(target != depth) out.add(new Instr(op, target));
+         } else {
+            for (int a = 0; a < fixed.length + Math.min(scratch + 1, SCRATCH); a++) out.add(new Instr(op, a));
+         }
+      }
+      return out;
+   }
+   
+   /**
+    * Checks if a complete candidate has an instruction made useless by the previous one: a set after
+    * a set, a load after a load, or a load or sto of the cell just stored. The shorter program without
+    * it was already tried. An instruction that a jump can reach may run with a different state,
+    * so it's never considered useless.
+    *
+    * @param program the candidate
+    * @return true if the candidate can be skipped
+    */
+   private boolean redundant(Instr[] program) {
+      boolean[] target = new boolean[program.length];
+      for (Instr in: program) if(in.op == jpz) target[in.operand] = true;
+      for (int i = 1; i < program.length; i++) {
+         if(target[i]) continue;
+         Instr prev = program[i - 1], in = program[i];
+         if(in.op == set && prev.op == set) return true;
+         if(in.op == load && prev.op == load) return true;
+         if(prev.op == sto && prev.operand == in.operand && (in.op == load || in.op == sto)) return true;
+      }
+      return false;
+   }
+   
+   /**
+    * Assembles a candidate.
+    *
+    * @param program the candidate
+    * @return the memory image
+    */
+   private int[] assemble(Instr[] program) {
+      int size = Constants.getAddressSize(), max = Constants.getValueMax();
+      int[] start = new int[program.length];
+      int cells = 0;
+      for (int i = 0; i < program.length; i++) {
+         start[i] = cells;
+         cells += 1 + program[i].op.operands * size;
+      }
+      int[] image = new int[cells];
+      for (int i = 0; i < program.length; i++) {
+         Instr in = program[i];
+         image[start[i]] = in.op.opcode;
+         if(in.op.operands == 0) continue;
+         int address = in.op == jpz ? start[in.operand] : in.operand < fixed.length ? fixed[in.operand] : cells + in.operand - fixed.length;
+         for (int w = 0; w < size; w++) {
+            image[start[i] + 1 + w] = address % max;
+            address /= max;
+         }
+      }
+      return image;
+   }
+   
+   /**
+    * Runs a candidate on the vectors, recording it if it meets them all and beats the best one.
+    *
+    * @param program the candidate
+    * @param scratch the number of scratch cells it uses
+    */
+   private void evaluate(Instr[] program, int scratch) {
+      int[] cells = assemble(program);
+      if(cells.length + scratch > Constants.getMCSize()) return;
+      evaluated.increment();
+      MemoryImage image = new MemoryImage(cells);
+      int first = hardest.get();
+      long cycles = 0;
+      for (int i = 0; i < vectors.size(); i++) {
+         int v = (first + i) % vectors.size();
+         Grader.Result r = grader.grade(image, vectors.get(v));
+         if(!r.passed()) {
+            if(v != first) hardest.set(v);
+            return;
+         }
+         cycles += r.cycles;
+      }
+      String source = source(program);
+      synchronized(this) {
+         //Fewest cycles, then fewest instructions, then the first source in alphabetical order to be deterministic
+         if(best != null && (best.cycles < cycles || best.cycles == cycles && (best.length < program.length || best.length == program.length && best.source.compareTo(source) <= 0))) return;
+         best = new Solution(cells, source, program.length, cycles);
+      }
+   }
+   
+   /**
+    * Writes a candidate as assembly source.
+    *
+    * @param program the candidate
+    * @return the source, with a label on every jump target
+    */
+   private String source(Instr[] program) {
+      int cells = assemble(program).length;
+      boolean[] target = new boolean[program.length];
+      for (Instr in: program) if(in.op == jpz) target[in.operand] = true;
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < program.length; i++) {
+         Instr in = program[i];
+         sb.append(target[i] ? "l" + i + ": " : " ").append(in.op.name.toLowerCase(Locale.ROOT));
+         if(in.op == jpz) sb.append(" l").append(in.operand);
+         else if(in.operand >= 0) sb.append(' ').append(in.operand < fixed.length ? fixed[in.operand] : cells + in.operand - fixed.length);
+         sb.append('\n');
+      }
+      return sb.toString();
+   }
+   
+   /**
+    * Command line entry point, see the class documentation for the usage.
+    *
+    * @param args the tool arguments
+    */
+   public static void main(String[] args) {
+      String[] pos = Constants.initTool(args);
+      if(pos == null) return;
+      if(pos.length < 1) {
+         System.out.println("Usage: superopt <vectors> [maxInstructions] [length|cycles] [output] [options]");
+         return;
+      }
+      if(!InstructionTable.isSameSet(Constants.getOperationEnumName(), "3bit")) {
+         System.err.println("The superoptimizer searches 3bit programs, run it with -o 3bit");
+         return;
+      }
+      List<Grader.Vector> vectors;
+      try {
+         vectors = Grader.readVectors(new File(pos[0]));
+      } catch (IOException e) {
+         System.err.println("Unable to read " + pos[0] + ": " + e.getMessage());
+         return;
+      } catch (ProgramFormatException e) {
+         System.err.println(pos[0] + ": " + e.getMessage());
+         return;
+      }
+      int maxLength = pos.length > 1 ? Integer.parseInt(pos[1]) : DEFAULT_MAX_LENGTH;
+      Objective objective = pos.length > 2 && pos[2].equalsIgnoreCase("cycles") ? Objective.Cycles : Objective.Length;
+      Superoptimizer s = new Superoptimizer(vectors);
+      long start = System.nanoTime();
+      Solution best = s.search(maxLength, objective);
+      long elapsed = (System.nanoTime() - start) / 1_000_000;
+      System.out.println("Evaluated " + s.getEvaluated() + " candidates in " + elapsed + " ms on " + ForkJoinPool.commonPool().getParallelism() + " workers");
+      if(best == null) {
+         System.out.println("No program up to " + maxLength + " instructions meets the specification");
+         return;
+      }
+      System.out.println("Best program, " + best.length + " instructions, " + best.cells.length + " cells, " + best.cycles + " cycles over " + vectors.size() + " vectors:");
+      System.out.print(best.source);
+      if(pos.length > 3) {
+         try {
+            ProgramLoader.write(new File(pos[3]), best.cells);
+         } catch (IOException e) {
+            System.err.println("Unable to write " + pos[3] + ": " + e.getMessage());
+         }
+      }
+   }
+}
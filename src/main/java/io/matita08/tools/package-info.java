@@ -0,0 +1,25 @@
+/**
+ * Batch tools built on top of the instruction-level {@link io.matita08.logic.Machine}.
+ *
+ * <p>The tools run without the graphical interface and are started from the command line
+ * through {@link io.matita08.Main#main(String[])} with the tool name as first argument,
+ * followed by the tool's own arguments and by the usual simulator options.</p>
+ *
+ * <p>Available tools:</p>
+ * <ul>
+ *   <li>{@link io.matita08.tools.Explorer} ({@code explore}) - Runs a program for every input sequence up to a bound</li>
+ *   <li>{@link io.matita08.tools.MemoryBenchmark} ({@code membench}) - Compares the central memory backends</li>
+ *   <li>{@link io.matita08.tools.Runner} ({@code run}) - Runs a program on the reference engine without the GUI</li>
+ *   <li>{@link io.matita08.tools.CdsTraining} ({@code cdstrain}) - Training run of the class data sharing archive</li>
+ *   <li>{@link io.matita08.tools.Grader} ({@code grade}) - Grades programs against input and expected output vectors</li>
+ *   <li>{@link io.matita08.tools.Lockstep} ({@code lockstep}) - Compares the reference engine with the batch machine instruction by instruction</li>
+ *   <li>{@link io.matita08.tools.Fuzzer} ({@code fuzz}) - Runs random programs looking for crashes, divergences and non-termination</li>
+ *   <li>{@link io.matita08.tools.Superoptimizer} ({@code superopt}) - Searches the shortest or fastest program meeting a specification</li>
+ *   <li>{@link io.matita08.tools.SimulationServer} ({@code serve}) - Local HTTP service running programs on pooled machines</li>
+ * </ul>
+ *
+ * @author Matita008
+ * @version 1.0
+ * @since 1.6
+ */
+package io.matita08.tools;
@@ -7,10 +7,13 @@ import io.matita08.Constants;
  * This class stores values that span multiple memory locations, typically used
  * for addresses in architectures with multi-word addressing or for extended precision values.
  *
- * <p>DoubleValue can operate in two modes based on {@link Constants#getAddressSize()}:</p>
+ * <p>A DoubleValue is made of {@link Constants#getAddressSize()} Value components, the words
+ * of the value in base {@link Constants#getValueMax()}: index 0 is the Most Significant Word
+ * and the last index the Least Significant one. The common configurations are:</p>
  * <ul>
  *   <li><strong>Single-word mode:</strong> Uses one Value component (index 0)</li>
  *   <li><strong>Double-word mode:</strong> Uses two Value components (index 0 = MSB, index 1 = LSB)</li>
+ *   <li><strong>N-word mode:</strong> Uses N Value components, reaching valueMax^N addresses</li>
  * </ul>
  *
  * <p>The class provides automatic increment functionality useful for pointer arithmetic
@@ -29,9 +32,9 @@ public class DoubleValue extends Value {
    
    /**
     * Array storing the value components.
-    * Index 0 is the Most Significant Byte/Word, index 1 (if present) is the Least Significant Byte/Word.
+    * Index 0 is the Most Significant Byte/Word, the last index is the Least Significant Byte/Word.
     */
-   private final Value[] v = new Value[Constants.getAddressSize()];  //index 0 MSB, index 1 (if present) LSB
+   private final Value[] v = new Value[Constants.getAddressSize()];  //index 0 MSB, last index LSB
    
    /**
     * Constructs a new DoubleValue with all components initialized to undefined values.
@@ -45,44 +48,62 @@ public class DoubleValue extends Value {
    
    /**
     * Constructs a new DoubleValue from a single integer value.
-    * For double-word mode, the value is split across MSB and LSB components.
+    * For multi-word mode, the value is split in base valueMax across the components,
+    * the most significant one taking whatever doesn't fit in the others.
     * For single-word mode, the entire value is stored in component 0.
     *
     * @param n the integer value to store
     */
    public DoubleValue(int n) {
-      if(v.length == 2) {
-         v[0] = new SingleValue(n %Constants.getValueMax());
-         v[1] = new SingleValue(n /Constants.getValueMax());
-      } else v[0] = new SingleValue(n);
+      for (int i = v.length - 1; i > 0; i--) {
+         v[i] = new SingleValue(n % Constants.getValueMax());
+         n /= Constants.getValueMax();
+      }
+      v[0] = new SingleValue(n);
    }
    
    /**
     * Constructs a new DoubleValue by copying from another Value.
     * If the source is a DoubleValue, copies its components.
-    * Otherwise, stores the source value in component 0.
+    * Otherwise, stores the source value in the least significant component,
+    * the other components being 0.
     *
     * @param v1 the value to copy from
     */
    public DoubleValue(Value v1) {
-      if(v1 instanceof DoubleValue dv) {
-         v[0] = dv.v[0];
-         if(v.length == 2) v[1] = dv.v[1];
-      } else v[0] = v1;
+      if(v1 instanceof DoubleValue dv) System.arraycopy(dv.v, 0, v, 0, v.length);
+      else {
+         for (int i = 0; i < v.length - 1; i++) v[i] = new SingleValue(0);
+         v[v.length - 1] = v1;
+      }
    }
    
    /**
-    * Constructs a new DoubleValue from two separate Value components.
-    * This constructor is only valid for double-word mode.
+    * Constructs a new DoubleValue from its Value components.
+    * Exactly {@link Constants#getAddressSize()} components must be passed.
     *
     * @param v1 the value for component 0 (MSB)
-    * @param v2 the value for component 1 (LSB)
-    * @throws IllegalArgumentException if either parameter is already a DoubleValue
+    * @param others the values for the other components, the last one being the LSB
+    * @throws IllegalArgumentException if any parameter is already a DoubleValue or the number of components is wrong
     */
-   public DoubleValue(Value v1, Value v2) {
-      if(v1 instanceof DoubleValue || v2 instanceof DoubleValue) throw new IllegalArgumentException("One of the passed argument is already a DoubleValue: " + v1 + " " + v2);
+   public DoubleValue(Value v1, Value... others) {
+      if(others.length != v.length - 1) throw new IllegalArgumentException("Expected " + v.length + " components, got " + (others.length + 1));
+      if(v1 instanceof DoubleValue) throw new IllegalArgumentException("One of the passed argument is already a DoubleValue: " + v1);
       v[0] = v1;
-      v[1] = v2;
+      for (int i = 0; i < others.length; i++) {
+         if(others[i] instanceof DoubleValue) throw new IllegalArgumentException("One of the passed argument is already a DoubleValue: " + others[i]);
+         v[i + 1] = others[i];
+      }
+   }
+   
+   /**
+    * Gets a word of the address.
+    *
+    * @param index the index of the word, 0 is the most significant
+    * @return the word, possibly undefined
+    */
+   public Value getWord(int index) {
+      return v[index];
    }
    
    /**
@@ -115,24 +136,24 @@ public class DoubleValue extends Value {
    @Override
    public void set(Value va) {
       if(va instanceof DoubleValue dv) {
-         v[0] = dv.v[0];
-         if(v.length == 2) v[1] = dv.v[1];
+         System.arraycopy(dv.v, 0, v, 0, v.length);
          return;
       } else if(va instanceof UndefinedSingleValue){
-         v[0] = Value.getNew();
-         if(v.length == 2) v[1] = Value.getNew();
+         for (int i = 0; i < v.length; i++) v[i] = Value.getNew();
          return;
       }
       assert va instanceof SingleValue;
       SingleValue sv = (SingleValue)va;
-      if(v.length == 2) {
-         if(v[1].isUndefined()) v[1] = sv;
-         else if(v[0].isUndefined()) v[0] = sv;
-         else {
-            v[0] = Value.getNew();
-            v[1] = sv;
+      //Words are read least significant first: fill the least significant undefined component,
+      //or start a new value if all of them are already defined
+      for (int i = v.length - 1; i >= 0; i--) {
+         if(v[i].isUndefined()) {
+            v[i] = sv;
+            return;
          }
-      } else v[0] = sv;
+      }
+      for (int i = 0; i < v.length - 1; i++) v[i] = Value.getNew();
+      v[v.length - 1] = sv;
    }
    
    /**
@@ -175,13 +196,15 @@ public class DoubleValue extends Value {
     * {@inheritDoc}
     *
     * <p>For DoubleValue, combines all components into a single integer.
-    * In double-word mode, calculates MSB * ValueMax + LSB.
+    * In double-word mode, calculates MSB * ValueMax + LSB, and in general
+    * the value of the words in base ValueMax.
     * In single-word mode, returns the value of component 0.</p>
     */
    @Override
    public int get() {
-      if(v.length == 2) return v[0].get() * Constants.getValueMax() + v[1].get();
-      else return v[0].get();
+      int n = 0;
+      for (Value c: v) n = n * Constants.getValueMax() + c.get();
+      return n;
    }
    
    /**
@@ -213,24 +236,25 @@ public class DoubleValue extends Value {
     * <p>Increment behavior:</p>
     * <ul>
     *   <li><strong>Single-word mode:</strong> Increments component 0 with overflow to 0</li>
-    *   <li><strong>Double-word mode:</strong> Increments LSB, carries over to MSB on overflow</li>
+    *   <li><strong>Multi-word mode:</strong> Increments LSB, carries over to the more significant words on overflow,
+    *   wrapping to 0 after the last address</li>
     * </ul>
     *
+    * <p>Components that wrap are replaced with new values rather than modified, so the
+    * returned copy, which shares the components, keeps the old address.</p>
+    *
     * @return a copy of this DoubleValue before incrementing
     */
    public Value getAndInc() {
       try {
          return new DoubleValue(this);
       } finally {
-         if(v.length == 1){
-            if(v[0].get() == Constants.getValueMax()-1) v[0] = v[0].set(0);
-            else v[0] = v[0].add(c1);
-         } else {
-            if(v[1].get() == Constants.getValueMax()-1) {
-               v[1] = v[1].set(0);
-               if(v[0].get() == Constants.getValueMax()-1) v[0] = v[0].set(0);
-               else v[0] = v[0].add(c1);
-            } else v[1] = v[1].add(c1);
+         for (int i = v.length - 1; i >= 0; i--) {
+            if(v[i].get() != Constants.getValueMax() - 1) {
+               v[i] = v[i].add(c1);
+               break;
+            }
+            v[i] = new SingleValue(0);
          }
       }
    }
@@ -244,14 +268,13 @@ public class DoubleValue extends Value {
     */
    @Override
    public String toString() {
-      if(v.length == 2)  {
-         if(v[0].isUndefined()) {
-            if(v[1].isUndefined()) return "??";
-            else return "?" + string(v[1].get());
-         }
-         else return string(v[0].get() * Constants.getValueMax() + v[1].get());
-      } else return v[0].isUndefined() ? "?" : string(v[0].get());
-      
+      int undefined = 0;  //Leading undefined words
+      while(undefined < v.length && v[undefined].isUndefined()) undefined++;
+      if(undefined == 0) return string(get());
+      if(undefined == v.length) return unset();
+      int n = 0;
+      for (int i = undefined; i < v.length; i++) n = n * Constants.getValueMax() + v[i].get();
+      return SingleValue.unset().repeat(undefined) + string(n);
    }
    
    /**
@@ -47,6 +47,31 @@ public abstract class Value {
     */
    public static Value getNew() {return nullValue.clone();}
    
+   /**
+    * Sentinel used by primitive memory images (int arrays) to mark a cell as undefined.
+    * No program can produce this value through the loader, so it never collides with a real cell.
+    *
+    * @see #toCell(Value)
+    * @see #fromCell(int)
+    */
+   public static final int UNDEFINED_CELL = Integer.MIN_VALUE;
+   
+   /**
+    * Converts a value to its primitive cell representation.
+    *
+    * @param v the value to convert
+    * @return the numeric value, or {@link #UNDEFINED_CELL} if the value is undefined
+    */
+   public static int toCell(Value v) {return v.isUndefined() ? UNDEFINED_CELL : v.get();}
+   
+   /**
+    * Converts a primitive cell back to a value.
+    *
+    * @param cell the cell to convert
+    * @return {@link #nullValue} for {@link #UNDEFINED_CELL}, a new SingleValue otherwise
+    */
+   public static Value fromCell(int cell) {return cell == UNDEFINED_CELL ? nullValue : create(cell);}
+   
    /**
     * Creates a new undefined address-sized value.
     * The size and structure depend on the current address size configuration.
@@ -57,8 +82,7 @@ public abstract class Value {
     * @see Constants#getAddressSize()
     */
    public static Value getNewAddress() {
-      if(Constants.getAddressSize() == 2) return new DoubleValue(getNew(), getNew());
-      else return new DoubleValue(getNew());
+      return new DoubleValue();
    }
    
    /**